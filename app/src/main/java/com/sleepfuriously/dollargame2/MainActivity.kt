@@ -1,7 +1,7 @@
 package com.sleepfuriously.dollargame2
 
 import android.animation.Animator
-import android.animation.ValueAnimator
+import android.animation.AnimatorListenerAdapter
 import android.content.Intent
 import android.graphics.Point
 import android.graphics.PointF
@@ -20,9 +20,17 @@ import androidx.appcompat.widget.SwitchCompat
 import androidx.appcompat.widget.Toolbar
 import androidx.core.content.ContextCompat
 import androidx.core.view.animation.PathInterpolatorCompat
+import com.sleepfuriously.dollargame2.model.ChipFiringEngine
+import com.sleepfuriously.dollargame2.model.ChipFiringListener
+import com.sleepfuriously.dollargame2.model.DebtResolver
 import com.sleepfuriously.dollargame2.model.Graph
 import com.sleepfuriously.dollargame2.model.GraphNotConnectedException
+import com.sleepfuriously.dollargame2.model.HintEngine
 import com.sleepfuriously.dollargame2.model.SetsOfIntsUtil
+import com.sleepfuriously.dollargame2.model.Solvability
+import com.sleepfuriously.dollargame2.model.SolvabilityListener
+import com.sleepfuriously.dollargame2.model.SolvabilityOracle
+import com.sleepfuriously.dollargame2.model.SolverMove
 import com.sleepfuriously.dollargame2.view.*
 import com.sleepfuriously.dollargame2.view.SubButtonsBtn.ButtonEventListener
 import com.sleepfuriously.dollargame2.view.buttons.MovableNodeButton
@@ -47,7 +55,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     private lateinit var mPlayArea : PlayAreaFrameLayout
 
     /** holds all the nodes and their connections */
-    private val mGraph = Graph<MovableNodeButton>(false)
+    private val mGraph = Graph<MovableNodeButton>(mIndexData = true)
 
     /**
      * This switch toggles between build and solve mode.
@@ -78,9 +86,16 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     private lateinit var mCountLabelTv : TextView
     private lateinit var mCountTv : TextView
 
+    /** TextViews that say if the puzzle can be solved at all */
+    private lateinit var mSolvableLabelTv : TextView
+    private lateinit var mSolvableTv : TextView
+
     /** allows the user to quickly randomize all the nodes at once */
     private lateinit var mRandomizeAllButt : Button
 
+    /** In Solve mode: does all the gives that can be done without making new debt */
+    private lateinit var mResolveButt : Button
+
     /** this is the view that moves between the nodes indicating a give or take */
     private lateinit var mGiveTakeDrawable : Drawable
 
@@ -111,6 +126,27 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     /** only TRUE during the give/take animation. UI events need to wait until this is FALSE */
     private var mAnimatingGiveTake = false
 
+    /**
+     * Does the money math while in Solve mode (null in Build mode).  While
+     * solving, this holds the real amounts; the buttons just display them.
+     */
+    private var mEngine : ChipFiringEngine? = null
+
+    /** Suggests the next move while solving (null in Build mode) */
+    private var mHints : HintEngine? = null
+
+    /** The button the current hint has highlighted, if any */
+    private var mHintButton : MovableNodeButton? = null
+
+    /** Works out what the resolve button does (null in Build mode) */
+    private var mResolver : DebtResolver? = null
+
+    /** Works out (off the UI thread if need be) whether the board can be won */
+    private val mOracle = SolvabilityOracle({ runnable -> runOnUiThread(runnable) })
+
+    /** Shows whatever the oracle decides */
+    private val mSolvableListener = SolvabilityListener { verdict -> showSolvable(verdict) }
+
 
     //------------------------------
     //  functions
@@ -165,6 +201,24 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     }
 
 
+    /**
+     * Initializes the widgets that show whether the puzzle can be solved.
+     * Works by side-effect.
+     */
+    private fun setupSolvableWidgets() {
+        mSolvableLabelTv = findViewById(R.id.solvable_label_tv)
+        mSolvableLabelTv.setOnClickListener {
+            showSimpleDialog(R.string.solvable_dialog_title, R.string.solvable_dialog_msg)
+        }
+
+        mSolvableTv = findViewById(R.id.solvable_tv)
+        mSolvableTv.setOnClickListener {
+            showSimpleDialog(R.string.solvable_dialog_title, R.string.solvable_dialog_msg)
+        }
+        mSolvableTv.setText(R.string.not_applicable)
+    }
+
+
     /**
      * Initializes the widgets that display the genus info.
      * Works by side-effect
@@ -284,6 +338,14 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     }
 
 
+    private fun setupResolveButton() {
+        mResolveButt = findViewById(R.id.resolve_butt)
+        mResolveButt.setOnClickListener {
+            startResolve()
+        }
+    }
+
+
     /**
      * Initializes all the main widgets for the game.
      * Works by side-effects.
@@ -292,6 +354,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
         setupMainSwitch()
         setupCountWidgets()
         setupGenusWidgets()
+        setupSolvableWidgets()
 
         mBuildTv = findViewById(R.id.build_tv)
         mSolveTv = findViewById(R.id.solve_tv)
@@ -300,6 +363,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
         setupPlayArea()
         setupConnectedWidgets()
         setupRandomizeButton()
+        setupResolveButton()
 
         // go ahead and crash if this can't be found
         mGiveTakeDrawable = AppCompatResources.getDrawable(this, R.drawable.circle_black_solid_small)!!
@@ -344,6 +408,12 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     }
 
 
+    override fun onDestroy() {
+        mOracle.cancel()
+        super.onDestroy()
+    }
+
+
     override fun onResume() {
         super.onResume()
         Log.d(TAG, "onResume()")
@@ -588,16 +658,76 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
         // do the ui
         if (mBuildMode) {
+            clearHintHighlight()
+            mHints?.detach()
+            mHints = null
+            mResolver = null
+            mEngine = null      // the buttons already show the final amounts
             setAllButtonsBuild()
             buildModeUI()
         }
         else {
+            startEngine()
             setAllButtonsSolve()
             solveModeUI()
         }
     }
 
 
+    /**
+     * Sets up [mEngine] with the current board and the amounts in the
+     * buttons.  From here on out the buttons follow the engine.
+     */
+    private fun startEngine() {
+        val snapshot = mGraph.freeze()
+        val amounts = IntArray(snapshot.numNodes)
+        for (i in 0 until snapshot.numNodes) {
+            amounts[i] = mGraph.getNodeData(snapshot.getNodeId(i))?.amount ?: 0
+        }
+
+        val engine = ChipFiringEngine(snapshot, amounts)
+        engine.addListener(object : ChipFiringListener {
+            override fun onFired(index : Int, times : Int) {
+                showEngineAmount(index)
+                for (pos in snapshot.neighborsStart(index) until snapshot.neighborsEnd(index)) {
+                    showEngineAmount(snapshot.neighborAt(pos))
+                }
+            }
+
+            override fun onAmountSet(index : Int) {
+                showEngineAmount(index)
+            }
+
+            override fun onSetFired(indices : IntArray, count : Int, times : Int) {
+                for (i in 0 until count) {
+                    onFired(indices[i], times)
+                }
+            }
+
+            override fun onScriptFired(script : IntArray) {
+                for (i in 0 until snapshot.numNodes) {
+                    showEngineAmount(i)
+                }
+            }
+        })
+        mEngine = engine
+        mHints = HintEngine(engine)
+        mResolver = DebtResolver(snapshot)
+    }
+
+
+    /**
+     * Copies the engine's amount for a node into its button.
+     *
+     * @param   index   The engine's (snapshot's) index for the node
+     */
+    private fun showEngineAmount(index : Int) {
+        val engine = mEngine ?: return
+        val button = mGraph.getNodeData(engine.snapshot.getNodeId(index))
+        button?.amount = engine.getAmount(index)
+    }
+
+
     /**
      * Does al the UI for the solve mode
      */
@@ -633,9 +763,67 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
             mConnectedIV.setImageResource(R.drawable.ic_unsolved)
         }
 
-        mHintTv.setText(R.string.solve_hint)
+        showHint()
 
         mRandomizeAllButt.visibility = View.GONE
+        mResolveButt.visibility = View.VISIBLE
+    }
+
+
+    /**
+     * Asks the hint engine for its suggestion for the next move.  If the
+     * board has to be solved again, that's done in the background by the
+     * oracle, and the usual solve hint shows until the suggestion arrives.
+     */
+    private fun showHint() {
+        clearHintHighlight()
+
+        val hints = mHints
+        if (hints == null) {
+            mHintTv.setText(R.string.solve_hint)
+            return
+        }
+        val ready = hints.getHintLater(mOracle) { hint ->
+            // still the same game?
+            if (mHints === hints) {
+                showHint(hints, hint)
+            }
+        }
+        if (ready == false) {
+            mHintTv.setText(R.string.solve_hint)
+        }
+    }
+
+    /**
+     * Shows a suggestion from the hint engine: the node is highlighted
+     * (if hints are showing) and the hint text says whether it should give
+     * or take.  Falls back on the usual solve hint when there's nothing to
+     * suggest (solved, or it can't be won).
+     */
+    private fun showHint(hints : HintEngine, hint : SolverMove?) {
+        clearHintHighlight()
+
+        val button = if (hint == null) null else mGraph.getNodeData(hint.nodeId)
+        if ((hint == null) || (button == null)) {
+            mHintTv.setText(R.string.solve_hint)
+            return
+        }
+
+        val msgId = if (hint.times > 0) R.string.hint_give else R.string.hint_take
+        mHintTv.text = getString(msgId, hints.getMovesLeft())
+
+        if (mHintTv.visibility == View.VISIBLE) {
+            button.setBackgroundColorResource(R.color.button_bg_color_solve_hint)
+            button.invalidate()
+            mHintButton = button
+        }
+    }
+
+    private fun clearHintHighlight() {
+        val button = mHintButton ?: return
+        button.setBackgroundColorResource(R.color.button_bg_color_solve_normal)
+        button.invalidate()
+        mHintButton = null
     }
 
 
@@ -662,6 +850,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
         mHintTv.setText(R.string.build_hint)
 
+        mResolveButt.visibility = View.GONE
         mRandomizeAllButt.visibility = View.VISIBLE
         mRandomizeAllButt.isEnabled = (mGraph.numNodes() > 0)
     }
@@ -720,6 +909,12 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
             mCountTv.setText(R.string.not_applicable)
         }
         else {
+            val engine = mEngine
+            if (engine != null) {
+                mCountTv.text = engine.getTotal().toString()
+                return
+            }
+
             var count = 0
             mGraph.getAllNodeData().forEach { node ->
                 count += node.amount
@@ -728,6 +923,27 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
         }
     }
 
+    /**
+     * Asks the oracle if the puzzle can be solved.  Small and already-seen
+     * puzzles are answered right away; otherwise "checking" shows until
+     * the answer comes back.  Call whenever the amounts or the edges change.
+     */
+    private fun setSolvableUI() {
+        if (mOracle.check(mGraph, { button -> button.amount }, mSolvableListener) == false) {
+            mSolvableTv.setText(R.string.solvable_checking)
+        }
+    }
+
+    private fun showSolvable(verdict : Solvability) {
+        when (verdict) {
+            Solvability.WINNABLE -> mSolvableTv.setText(R.string.solvable_yes)
+            Solvability.NOT_WINNABLE -> mSolvableTv.setText(R.string.solvable_no)
+            Solvability.NOT_CONNECTED -> mSolvableTv.setText(R.string.not_applicable)
+            Solvability.TOO_BIG -> mSolvableTv.setText(R.string.solvable_unknown)
+        }
+    }
+
+
     private fun hideCountUI() {
         mCountTv.visibility = View.GONE
         mCountLabelTv.visibility = View.GONE
@@ -784,7 +1000,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
             override fun onCollapseFinished() {
                 if (mTaking || mGiving) {
-                    startGiveTake(button.id, button)
+                    startGiveTake(button.id)
                 }
             }
         })
@@ -857,19 +1073,16 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
 
     /**
-     * Begins the animation of a give or take.  This involves considerable
-     * setup.  Once the animation is complete {@link #giveTakeAnimFinished(List, MovableNodeButton)}
-     * is called via a listener.
+     * Begins the animation of a give or take.  A single give or take is
+     * just a set of one (see [startSetFire]).
      *
      * preconditions:
      *  mGiving and mTaking should be properly set.
      *
-     * @param mainButtId    The graph id of the button doing the taking
-     *
-     * @param mainButton    The button that we're sending the money to
-     *                      (the button that's taking the money).
+     * @param mainButtId    The graph id of the button doing the giving or
+     *                      taking
      */
-    private fun startGiveTake(mainButtId : Int, mainButton : MovableNodeButton) {
+    private fun startGiveTake(mainButtId : Int) {
         Log.d(TAG, "startGiveTake() - mainButtId = $mainButtId")
 
         // sanity check
@@ -878,148 +1091,238 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
             return
         }
 
+        startSetFire(intArrayOf(mainButtId), if (mGiving) 1 else -1)
+    }
+
+
+    /**
+     * Begins the animation of a set of nodes giving (times > 0) or taking
+     * (times < 0) together.  Money going between two nodes in the set
+     * cancels out, so there's only a dot along each edge that leaves the
+     * set, and they all move in one pass.  Once the animation is complete
+     * [setFireAnimFinished] has the engine do the move.
+     *
+     * @param nodeIds   The graph ids of the nodes in the set (no repeats)
+     */
+    private fun startSetFire(nodeIds : IntArray, times : Int) {
+        Log.d(TAG, "startSetFire() - ${nodeIds.size} nodes, times = $times")
+
+        val engine = mEngine
+        if ((engine == null) || mAnimatingGiveTake) {
+            return
+        }
+
         // set a flag to prevent an UI event during this animation
         mAnimatingGiveTake = true
 
-        var xAdjust = 0
-        var yAdjust = 0
-
-        // noinspection unchecked
-        val adjacentList = mGraph.getAllAdjacentTo(mainButtId)
+        // create the little moving dots that will traverse the edges on the cut
+        val snapshot = engine.snapshot
+        val inSet = BooleanArray(snapshot.numNodes)
+        nodeIds.forEach { id ->
+            val index = snapshot.indexOf(id)
+            if (index != -1) {
+                inSet[index] = true
+            }
+        }
 
-        // create the little moving dots that will traverse the edges
         val dots = ArrayList<ImageView>()
-        adjacentList.forEach { adjacentId ->
-            val newDot = ImageView(this)
-            newDot.layoutParams = LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT,
-                                                            LinearLayout.LayoutParams.WRAP_CONTENT)
-            newDot.setImageDrawable(mGiveTakeDrawable)
-
-            val adjacentButt = mGraph.getNodeData(adjacentId)
-            if (adjacentButt == null) {
-                Log.e(TAG, "adjacentButt is null in startGiveTake()! Aborting!")
-                return
+        for (i in 0 until snapshot.numNodes) {
+            if (inSet[i] == false) {
+                continue
+            }
+            val setButt = mGraph.getNodeData(snapshot.getNodeId(i))
+            for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                val j = snapshot.neighborAt(pos)
+                if (inSet[j]) {
+                    continue
+                }
+                val adjacentButt = mGraph.getNodeData(snapshot.getNodeId(j))
+                if ((setButt == null) || (adjacentButt == null)) {
+                    Log.e(TAG, "missing button in startSetFire()!")
+                    continue
+                }
+                if (times > 0) {
+                    dots.add(addTransferDot(setButt, adjacentButt))
+                }
+                else {
+                    dots.add(addTransferDot(adjacentButt, setButt))
+                }
             }
-            newDot.tag = adjacentButt     // we'll need this data later
+        }
+
+        animateTransferDots(dots, TAKE_MILLIS) {
+            setFireAnimFinished(dots, nodeIds, times)
+        }
+    }
 
-            // Set the initial location of this dot on the main button or the adjacent
-            // button depending on whether this is a give or a take.
-            // The locations of the dots must account for the dot size (of course)
-            xAdjust = (mDotDimensionWidth / 2f).toInt()
-            yAdjust = (mDotDimensionHeight / 2f).toInt()
 
-            if (mTaking) {
-                newDot.x = adjacentButt.centerX - xAdjust
-                newDot.y = adjacentButt.centerY - yAdjust
-            }
-            else {
-                newDot.x = mainButton.centerX - xAdjust
-                newDot.y = mainButton.centerY - yAdjust
-            }
+    /**
+     * Called once a set-fire animation (which includes a single give or
+     * take) is complete.  This finishes the UI and the logic of the move.
+     *
+     * @param animViews List of all the dot Views that were animating
+     *
+     * @param nodeIds   The graph ids of the nodes that gave or took
+     */
+    private fun setFireAnimFinished(animViews : List<ImageView>, nodeIds : IntArray, times : Int) {
+        Log.d(TAG, "setFireAnimFinished()")
 
-            dots.add(newDot)
-            mPlayArea.addView(newDot)
+        // remove from the play area
+        animViews.forEach { dot ->
+            mPlayArea.removeView(dot)
         }
 
-        // animate the dots
-        dots.forEachIndexed {i, dot ->
-            val adjacentButt = dot.tag as MovableNodeButton
+        // the engine moves the money; its listener updates the buttons
+        val engine = mEngine
+        if (engine == null) {
+            Log.e(TAG, "no engine in setFireAnimFinished()!")
+        }
+        else {
+            engine.fireSetById(nodeIds, times)
+            showHint()
+        }
 
-            val animator = dot.animate()
-            animator.duration = TAKE_MILLIS
+        // re-check solved state
+        if (isSolved()) {
+            mConnectedIV.setImageResource(R.drawable.ic_solved)
+        }
+        else {
+            mConnectedIV.setImageResource(R.drawable.ic_unsolved)
+        }
 
-            // custom interpolator. Tool at https://matthewlein.com/tools/ceaser
-            val interpolator = PathInterpolatorCompat.create(0.485f, 0.005f, 0.085f, 1f)
-            animator.interpolator = interpolator
+        mAnimatingGiveTake = false
+    }
 
-            if (mTaking) {
-                animator
-                    .translationX(mainButton.centerX - xAdjust)
-                    .translationY(mainButton.centerY - yAdjust)
-            }
-            else {
-                animator
-                    .translationX(adjacentButt.centerX - xAdjust)
-                    .translationY(adjacentButt.centerY - yAdjust)
-            }
+
+    /**
+     * Makes a dot on the play area, sitting on one button.  Its tag is the
+     * button it'll go to (see [animateTransferDots]).
+     */
+    private fun addTransferDot(from : MovableNodeButton, to : MovableNodeButton) : ImageView {
+        val newDot = ImageView(this)
+        newDot.layoutParams = LinearLayout.LayoutParams(LinearLayout.LayoutParams.WRAP_CONTENT,
+                                                        LinearLayout.LayoutParams.WRAP_CONTENT)
+        newDot.setImageDrawable(mGiveTakeDrawable)
+
+        // The locations of the dots must account for the dot size (of course)
+        newDot.x = from.centerX - mDotDimensionWidth / 2f
+        newDot.y = from.centerY - mDotDimensionHeight / 2f
+        newDot.tag = to
+        mPlayArea.addView(newDot)
+        return newDot
+    }
+
+
+    /**
+     * Moves all the dots to their buttons at the same time (one pass), then
+     * calls onFinished.  With no dots, onFinished is called right away.
+     */
+    private fun animateTransferDots(dots : List<ImageView>, millis : Long, onFinished : () -> Unit) {
+        if (dots.isEmpty()) {
+            onFinished()
+            return
+        }
+
+        val xAdjust = mDotDimensionWidth / 2f
+        val yAdjust = mDotDimensionHeight / 2f
+
+        // custom interpolator. Tool at https://matthewlein.com/tools/ceaser
+        val interpolator = PathInterpolatorCompat.create(0.485f, 0.005f, 0.085f, 1f)
+
+        dots.forEachIndexed { i, dot ->
+            val receiver = dot.tag as MovableNodeButton
+            val animator = dot.animate()
+            animator.duration = millis
+            animator.interpolator = interpolator
+            animator
+                .translationX(receiver.centerX - xAdjust)
+                .translationY(receiver.centerY - yAdjust)
 
             if (i + 1 == dots.size) {
                 // if this is the last one, set a listener to fire when the animation ends
-                animator.setListener(object : Animator.AnimatorListener,
-                                       ValueAnimator.AnimatorUpdateListener {
+                animator.setListener(object : AnimatorListenerAdapter() {
+                    override fun onAnimationEnd(animation : Animator?) {
+                        onFinished()
+                    }
+                })
+            }
+        }
+    }
 
-                        override fun onAnimationEnd(animation : Animator?) {
-                            Log.d(TAG, "onAnimationEnd()")
-                            giveTakeAnimFinished(dots, mainButton)
-                        }
 
-                        override fun onAnimationStart(animation: Animator?) {
-                            Log.d(TAG, "onAnimationStart()")
-                        }
+    /**
+     * Resolve: every group of nodes that can give without going into debt
+     * does, over and over, as many times as it can (see [DebtResolver]).
+     * It's all shown as ONE animation--a dot along each edge that money
+     * moves across--and then the engine plays the whole thing at once.
+     * Should only be used while in Solve mode.
+     */
+    private fun startResolve() {
+        Log.d(TAG, "startResolve()")
 
-                        override fun onAnimationCancel(animation: Animator?) { }
+        val engine = mEngine
+        val resolver = mResolver
+        if ((engine == null) || (resolver == null) || mAnimatingGiveTake) {
+            return
+        }
 
-                        override fun onAnimationRepeat(animation: Animator?) {
-                            Log.d(TAG, "onAnimationRepeat()")
-                        }
+        val result = resolver.resolve(engine.getAmounts())
+        if (result.numMoves == 0L) {
+            mHintTv.setText(R.string.resolve_nothing)
+            return
+        }
 
-                        override fun onAnimationUpdate(animation: ValueAnimator?) {
-                            Log.d(TAG, "onAnimationUpdate()")
-                        }
-                    })
+        // set a flag to prevent an UI event during this animation
+        mAnimatingGiveTake = true
+
+        // one dot per edge, going the way the money goes
+        val snapshot = engine.snapshot
+        val script = result.script
+        val dots = ArrayList<ImageView>()
+        for (i in 0 until snapshot.numNodes) {
+            for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                val j = snapshot.neighborAt(pos)
+                if ((j <= i) || (script[i] == script[j])) {
+                    continue    // each edge once, and only if money moves on it
+                }
+                val giver = mGraph.getNodeData(snapshot.getNodeId(if (script[i] > script[j]) i else j))
+                val receiver = mGraph.getNodeData(snapshot.getNodeId(if (script[i] > script[j]) j else i))
+                if ((giver == null) || (receiver == null)) {
+                    Log.e(TAG, "missing button in startResolve()!")
+                    continue
+                }
+                dots.add(addTransferDot(giver, receiver))
             }
         }
 
+        animateTransferDots(dots, RESOLVE_MILLIS) {
+            resolveAnimFinished(dots, script)
+        }
     }
 
 
     /**
-     * Called once a give or take animation is complete.  This finishes
-     * the UI and the logic of a give or a take.<br>
-     *<br>
-     * preconditions:<br>
-     *  mGiving and mTaking are properly set (should have been checked at
-     *  a higher level).
+     * Called once the resolve animation is done.  Plays the whole script
+     * on the engine (its listener updates the buttons).
      *
-     * @param animViews List of all the dot Views that were animating
-     *
-     * @param mainButton    The button that is the center of the animation.
+     * @param   script  How many times each node gives, by engine index
      */
-    private fun giveTakeAnimFinished(animViews : List<ImageView>, mainButton : MovableNodeButton) {
-        Log.d(TAG, "giveTakeAnimFinished()")
+    private fun resolveAnimFinished(animViews : List<ImageView>, script : IntArray) {
+        Log.d(TAG, "resolveAnimFinished()")
 
         animViews.forEach { dot ->
-            // update the dollar amount connected to this view
-            val destButton = dot.tag as MovableNodeButton
-            if (mGiving) {
-                destButton.incrementAmount()
-            }
-            else {
-                destButton.decrementAmount()
-            }
-
-            // remove from the play area
             mPlayArea.removeView(dot)
         }
 
-        // update the main button
-        val currAmount = mainButton.amount
-        val changeAmount = animViews.size
+        mEngine?.fireScript(script)
 
-        if (mGiving) {
-            mainButton.amount = currAmount - changeAmount
-        }
-        else {
-            mainButton.amount = currAmount + changeAmount
-        }
-
-        // re-check solved state
         if (isSolved()) {
             mConnectedIV.setImageResource(R.drawable.ic_solved)
         }
         else {
             mConnectedIV.setImageResource(R.drawable.ic_unsolved)
         }
+        showHint()
 
         mAnimatingGiveTake = false
     }
@@ -1028,12 +1331,17 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
     /**
      * Checks the current state of mGraph and determines if we're in a solved
      * state or not.  If any node has less than 0 dollars, then the puzzle
-     * is not solved.
+     * is not solved.  O(1) while solving (the engine keeps track).
      *
      * preconditions:
      *      mGraph      Ready for inspection
      */
     private fun isSolved() : Boolean {
+        val engine = mEngine
+        if (engine != null) {
+            return engine.isSolved()
+        }
+
         var solved = true
         mGraph.getAllNodeData().forEach { node ->
             if (node.amount < 0) {
@@ -1065,7 +1373,18 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
             // set the button to the dollar amount
             button.amount = dollarAmount
+            val engine = mEngine
+            if (engine != null) {
+                val index = engine.snapshot.indexOf(button.id)
+                if (index != -1) {
+                    engine.setAmount(index, dollarAmount)
+                }
+            }
             setCountUI()
+            setSolvableUI()
+            if (mBuildMode == false) {
+                showHint()
+            }
         }
         dialog.show(this, button.amount)
     }
@@ -1285,8 +1604,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
      */
     private fun getButtonStateColor(button : MovableNodeButton) : Int {
         // if the node is connected to any other node, then use the connected color
-        val connectedNodes = mGraph.getAllAdjacentTo(button.id)
-        if (connectedNodes.size > 0) {
+        if (mGraph.getDegree(button.id) > 0) {
             return R.color.button_bg_color_build_connected
         }
         else {
@@ -1321,6 +1639,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
         setCountUI()
         setGenusUI()
+        setSolvableUI()
 
         mRandomizeAllButt.visibility = View.VISIBLE
         mRandomizeAllButt.isEnabled = (mGraph.numNodes() > 0)
@@ -1383,6 +1702,7 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
         setGenusUI()
         setCountUI()
+        setSolvableUI()
     }
 
 
@@ -1552,6 +1872,9 @@ class MainActivity : AppCompatActivity(), View.OnTouchListener {
 
         /** number of milliseconds for a TAKE animation */
         const val TAKE_MILLIS = 300L
+
+        /** number of milliseconds for the (one, combined) resolve animation */
+        const val RESOLVE_MILLIS = 600L
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,449 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Plays the Dollar Game (chip-firing) on a [GraphSnapshot], with no
+ * Android or view classes involved.
+ *
+ * Each node holds an amount of money (an IntArray indexed by snapshot
+ * index).  A node that GIVES (lends) sends one dollar along each of its
+ * edges; one that TAKES (borrows) gets one dollar along each edge.
+ * Either way it's O(degree).  A whole set of nodes can give or take
+ * together with [fireSet], which only touches the edges leaving the set.
+ * A whole firing script can be played in one go with [fireScript], which
+ * is O(V + E) however many moves are in it.
+ * The engine keeps a running tally of the
+ * total debt, so [isSolved] is O(1), and a running Zobrist hash of the
+ * amounts (see [getHash]) for spotting repeated positions.
+ *
+ * For a directed snapshot, money only flows along the edges' directions.
+ * Self-loops don't move any money.
+ *
+ * Amounts are Ints and are not checked for overflow.
+ *
+ * Not thread safe (but engines over the same snapshot may run on
+ * different threads).
+ */
+class ChipFiringEngine(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot,
+
+    /** Starting amounts, by index.  Copied.  All 0 if null. */
+    initialAmounts : IntArray? = null,
+
+    /**
+     * Makes the position hashes.  Engines that use the same hasher (or
+     * hashers with the same seed) can compare hashes.
+     */
+    val hasher : ZobristHasher = ZobristHasher(snapshot.numNodes)
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** The amount in each node, by index */
+    private val mAmounts : IntArray
+
+    /** Sum of all the amounts */
+    private var mTotal = 0L
+
+    /** Sum of all the negative amounts (as a positive number) */
+    private var mDebt = 0L
+
+    /** How many nodes have a negative amount */
+    private var mNumInDebt = 0
+
+    /** Number of single gives or takes done so far */
+    private var mNumMoves = 0L
+
+    /** Hash of all the (node, amount) pairs */
+    private var mHash = 0L
+
+    private val mListeners = ArrayList<ChipFiringListener>()
+
+    /** Made the first time a script is played (see [getLaplacian]) */
+    private var mLaplacian : Laplacian? = null
+
+    /** Marks the nodes in the set while [fireSet] works */
+    private val mInSet = BooleanArray(snapshot.numNodes)
+
+
+    init {
+        if ((initialAmounts != null) && (initialAmounts.size != snapshot.numNodes)) {
+            throw IllegalArgumentException("need ${snapshot.numNodes} amounts, got ${initialAmounts.size}")
+        }
+        if (hasher.numNodes != snapshot.numNodes) {
+            throw IllegalArgumentException("hasher is for ${hasher.numNodes} nodes, not ${snapshot.numNodes}")
+        }
+        mAmounts = initialAmounts?.copyOf() ?: IntArray(snapshot.numNodes)
+        recount()
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * The node at this index gives one dollar to each of its neighbors.
+     *
+     * O(degree)
+     */
+    fun give(index : Int) {
+        fire(index, 1)
+    }
+
+    /**
+     * The node at this index takes one dollar from each of its neighbors.
+     *
+     * O(degree)
+     */
+    fun take(index : Int) {
+        fire(index, -1)
+    }
+
+    /**
+     * Does several gives (times > 0) or takes (times < 0) at the
+     * same node all at once.
+     *
+     * O(degree), no matter how many times
+     */
+    fun fire(index : Int, times : Int) {
+        if (times == 0) {
+            return
+        }
+
+        val start = snapshot.neighborsStart(index)
+        val end = snapshot.neighborsEnd(index)
+        addTo(index, -times * (end - start))
+        for (pos in start until end) {
+            addTo(snapshot.neighborAt(pos), times)
+        }
+
+        mNumMoves += Math.abs(times.toLong())
+        for (i in 0 until mListeners.size) {
+            mListeners[i].onFired(index, times)
+        }
+    }
+
+    /**
+     * Every node in a set gives (times > 0) or takes (times < 0) together.
+     * What goes along an edge inside the set comes right back, so only the
+     * edges that leave the set move any money, and only the amounts on
+     * either side of that cut are touched.  Ends up the same as calling
+     * [fire] for each node in the set.  Listeners hear about it once,
+     * through [ChipFiringListener.onSetFired].
+     *
+     * O(sum of the degrees in the set), with amount and hash updates only
+     * for the edges on the cut (on directed boards, every edge that isn't
+     * a loop)
+     *
+     * @param   indices     The nodes in the set.  No repeats.
+     *
+     * @param   count       How many of indices to use (so one array can be
+     *                      used over and over).
+     *
+     * @throws  IllegalArgumentException if a node is in the set twice
+     *          (nothing changes)
+     */
+    fun fireSet(indices : IntArray, times : Int = 1, count : Int = indices.size) {
+        for (i in 0 until count) {
+            if (mInSet[indices[i]]) {
+                for (j in 0 until i) {
+                    mInSet[indices[j]] = false
+                }
+                throw IllegalArgumentException("node ${indices[i]} is in the set twice")
+            }
+            mInSet[indices[i]] = true
+        }
+
+        if (times != 0) {
+            // On a directed board an edge inside the set only cancels out
+            // if it has a partner going back, so those all still move.
+            val directed = snapshot.directed
+            for (i in 0 until count) {
+                val index = indices[i]
+                var cut = 0
+                for (pos in snapshot.neighborsStart(index) until snapshot.neighborsEnd(index)) {
+                    val neighbor = snapshot.neighborAt(pos)
+                    if ((mInSet[neighbor] == false) || (directed && (neighbor != index))) {
+                        addTo(neighbor, times)
+                        cut++
+                    }
+                }
+                if (cut > 0) {
+                    addTo(index, -times * cut)
+                }
+            }
+        }
+
+        for (i in 0 until count) {
+            mInSet[indices[i]] = false
+        }
+        if (times == 0) {
+            return
+        }
+
+        mNumMoves += Math.abs(times.toLong()) * count
+        for (i in 0 until mListeners.size) {
+            mListeners[i].onSetFired(indices, count, times)
+        }
+    }
+
+    /**
+     * Plays a whole firing script:  node i gives script[i] times (takes if
+     * it's negative).  Ends up the same as calling [fire] for every node,
+     * but it's done as one multiply by the Laplacian, then one pass over
+     * the amounts.  Listeners hear about it once, through
+     * [ChipFiringListener.onScriptFired].
+     *
+     * The script is checked first; if it's no good, nothing changes.
+     *
+     * O(V + E), no matter how many moves are in the script
+     *
+     * @throws  IllegalArgumentException if the script isn't one per node
+     *
+     * @throws  ArithmeticException if some amount would end up too big
+     *          (or too small) for an Int
+     */
+    fun fireScript(script : IntArray) {
+        val newAmounts = LongArray(snapshot.numNodes)
+        if (scriptResult(script, newAmounts) == false) {
+            throw ArithmeticException("script would overflow an amount")
+        }
+
+        var numMoves = 0L
+        for (i in 0 until snapshot.numNodes) {
+            changeTo(i, newAmounts[i].toInt())
+            numMoves += Math.abs(script[i].toLong())
+        }
+        mNumMoves += numMoves
+
+        for (i in 0 until mListeners.size) {
+            mListeners[i].onScriptFired(script)
+        }
+    }
+
+    /**
+     * Tells if [fireScript] would work with this script (it's the right
+     * size and no amount would overflow).  Changes nothing.
+     *
+     * O(V + E)
+     */
+    fun canFireScript(script : IntArray) : Boolean {
+        if (script.size != snapshot.numNodes) {
+            return false
+        }
+        return scriptResult(script, LongArray(snapshot.numNodes))
+    }
+
+    /**
+     * The Laplacian of this engine's board, made the first time it's needed.
+     */
+    fun getLaplacian() : Laplacian {
+        var laplacian = mLaplacian
+        if (laplacian == null) {
+            laplacian = Laplacian.of(snapshot)
+            mLaplacian = laplacian
+        }
+        return laplacian
+    }
+
+    /**
+     * Figures what the amounts would be after a script:  amounts - L * script.
+     *
+     * @return  False if any of them won't fit in an Int.
+     *
+     * @throws  IllegalArgumentException if the script is the wrong size
+     */
+    private fun scriptResult(script : IntArray, newAmounts : LongArray) : Boolean {
+        if (script.size != snapshot.numNodes) {
+            throw IllegalArgumentException("need ${snapshot.numNodes} script entries, got ${script.size}")
+        }
+
+        getLaplacian().multiply(script, newAmounts)
+        for (i in 0 until snapshot.numNodes) {
+            val newAmount = mAmounts[i] - newAmounts[i]
+            if ((newAmount < Int.MIN_VALUE) || (newAmount > Int.MAX_VALUE)) {
+                return false
+            }
+            newAmounts[i] = newAmount
+        }
+        return true
+    }
+
+    /**
+     * Same as [give], [take] and [fire], but by node id.
+     *
+     * @return  False if there's no node with that id.
+     */
+    fun fireById(nodeId : Int, times : Int) : Boolean {
+        val index = snapshot.indexOf(nodeId)
+        if (index == -1) {
+            return false
+        }
+        fire(index, times)
+        return true
+    }
+
+    /**
+     * Same as [fireSet], but by node id.
+     *
+     * @return  False if some id has no node (nothing changes).
+     */
+    fun fireSetById(nodeIds : IntArray, times : Int = 1) : Boolean {
+        val indices = IntArray(nodeIds.size)
+        for (i in nodeIds.indices) {
+            indices[i] = snapshot.indexOf(nodeIds[i])
+            if (indices[i] == -1) {
+                return false
+            }
+        }
+        fireSet(indices, times)
+        return true
+    }
+
+
+    /**
+     * True when no node is in debt (the puzzle is solved).
+     *
+     * O(1)
+     */
+    fun isSolved() : Boolean {
+        return mNumInDebt == 0
+    }
+
+    /** Total debt: the sum of all the negative amounts, as a positive number.  O(1) */
+    fun getDebt() : Long {
+        return mDebt
+    }
+
+    /** Number of nodes with a negative amount.  O(1) */
+    fun getNumInDebt() : Int {
+        return mNumInDebt
+    }
+
+    /** Sum of all the amounts (giving and taking never change this).  O(1) */
+    fun getTotal() : Long {
+        return mTotal
+    }
+
+    /**
+     * A 64-bit fingerprint of the current amounts.  Same amounts, same
+     * hash (for the same [hasher]), no matter how they got that way.
+     *
+     * O(1): it's kept up to date with every change, at O(1) extra per
+     * amount changed.
+     */
+    fun getHash() : Long {
+        return mHash
+    }
+
+    /** Number of single gives and takes done since this engine was made */
+    fun getNumMoves() : Long {
+        return mNumMoves
+    }
+
+    fun getAmount(index : Int) : Int {
+        return mAmounts[index]
+    }
+
+    /**
+     * @return  The amount in the node with this id, or null if there's no such node.
+     */
+    fun getAmountById(nodeId : Int) : Int? {
+        val index = snapshot.indexOf(nodeId)
+        return if (index == -1) null else mAmounts[index]
+    }
+
+    /**
+     * Changes the amount in a single node.
+     */
+    fun setAmount(index : Int, amount : Int) {
+        changeTo(index, amount)
+        for (i in 0 until mListeners.size) {
+            mListeners[i].onAmountSet(index)
+        }
+    }
+
+    /**
+     * Returns a copy of all the amounts, by index.
+     */
+    fun getAmounts() : IntArray {
+        return mAmounts.copyOf()
+    }
+
+    /**
+     * Copies all the amounts into dest (which must hold at least
+     * numNodes items).  For when you don't want to allocate.
+     */
+    fun copyAmountsInto(dest : IntArray) {
+        System.arraycopy(mAmounts, 0, dest, 0, mAmounts.size)
+    }
+
+    /**
+     * Makes a new engine with the same board, amounts and hasher (but no
+     * listeners and no moves).  Handy for trying things out.
+     */
+    fun copy() : ChipFiringEngine {
+        val newEngine = ChipFiringEngine(snapshot, mAmounts, hasher)
+        newEngine.mLaplacian = mLaplacian
+        return newEngine
+    }
+
+
+    fun addListener(listener : ChipFiringListener) {
+        mListeners.add(listener)
+    }
+
+    fun removeListener(listener : ChipFiringListener) : Boolean {
+        return mListeners.remove(listener)
+    }
+
+
+    /**
+     * Changes one amount and keeps the debt tallies and hash up to date.
+     */
+    private fun addTo(index : Int, delta : Int) {
+        changeTo(index, mAmounts[index] + delta)
+    }
+
+    private fun changeTo(index : Int, newAmount : Int) {
+        val oldAmount = mAmounts[index]
+        mAmounts[index] = newAmount
+        mTotal += newAmount.toLong() - oldAmount
+        mHash = hasher.update(mHash, index, oldAmount, newAmount)
+
+        if (oldAmount < 0) {
+            mDebt += oldAmount
+            mNumInDebt--
+        }
+        if (newAmount < 0) {
+            mDebt -= newAmount
+            mNumInDebt++
+        }
+    }
+
+    /**
+     * Figures all the tallies from scratch.
+     */
+    private fun recount() {
+        mTotal = 0L
+        mDebt = 0L
+        mNumInDebt = 0
+        for (amount in mAmounts) {
+            mTotal += amount
+            if (amount < 0) {
+                mDebt -= amount
+                mNumInDebt++
+            }
+        }
+        mHash = hasher.hashOf(mAmounts)
+    }
+
+    override fun toString() : String {
+        return "ChipFiringEngine[amounts = ${mAmounts.contentToString()}, debt = $mDebt]"
+    }
+
+}
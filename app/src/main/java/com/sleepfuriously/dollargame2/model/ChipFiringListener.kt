@@ -0,0 +1,43 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Hears about changes to the amounts in a [ChipFiringEngine].
+ * Register with [ChipFiringEngine.addListener].
+ */
+interface ChipFiringListener {
+
+    /**
+     * A node gave (times > 0) or took (times < 0).  Its amount and the
+     * amounts of all its neighbors have changed.
+     *
+     * @param   index   The snapshot index of the node that fired.
+     *
+     * @param   times   How many gives (negative for takes).
+     */
+    fun onFired(index : Int, times : Int)
+
+    /**
+     * A set of nodes gave (times > 0) or took (times < 0) together (see
+     * [ChipFiringEngine.fireSet]).  Only the nodes in the set and their
+     * neighbors have changed.
+     *
+     * @param   indices     The first count items are the nodes in the set.
+     *                      Don't hang on to it; it belongs to the caller.
+     */
+    fun onSetFired(indices : IntArray, count : Int, times : Int)
+
+    /**
+     * A whole firing script was played at once (see
+     * [ChipFiringEngine.fireScript]).  Any amount may have changed.
+     *
+     * @param   script  How many times each node gave, by index.  Don't
+     *                  hang on to it; it belongs to the caller.
+     */
+    fun onScriptFired(script : IntArray)
+
+    /**
+     * The amount of one node was set directly.
+     */
+    fun onAmountSet(index : Int)
+
+}
@@ -0,0 +1,162 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Does the obvious part of a board all at once: over and over, finds a
+ * group of nodes that can all give together without anyone in it going
+ * into debt, and has them give.  Money only ever flows towards the
+ * nodes in debt, and nobody new goes into debt.
+ *
+ *	HOW IT WORKS:
+ *		Dhar's burning algorithm (see [DollarGameSolver]), but the fire
+ *		starts at every node in debt at once.  It spreads to a node when the
+ *		node has more burning edges than dollars.  The nodes left standing
+ *		can give together safely (each has at least as many dollars as
+ *		edges to the fire), so they do, as many times in a row as they can.
+ *		Then burn again.  It stops when nobody's in debt, or when the fire
+ *		takes everything: from there no group can give without going into
+ *		debt, and the player has to take (borrow) to get anywhere.
+ *
+ * Every round is O(V + E) and nothing is allocated after the resolver is
+ * made.  All the rounds add up to one firing script, so the engine can
+ * play it in one pass (see [ChipFiringEngine.fireScript]) and the UI can
+ * animate it as one move.
+ *
+ * This is greedy: it doesn't always win a game that can be won, and what
+ * it does isn't the shortest way.  Use [DollarGameSolver] for that.
+ *
+ * Only undirected boards.  One resolver may be used for many boards of
+ * the same shape, but not by two threads at once.
+ */
+class DebtResolver(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** current amounts while working, by index */
+    private val mAmounts : LongArray
+
+    /** how many times each node has given, by index */
+    private val mScript : LongArray
+
+    /** the fire, lit at every node in debt */
+    private val mBurner = DharBurner(snapshot)
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("The resolver only works on undirected boards")
+        }
+        val numNodes = snapshot.numNodes
+        mAmounts = LongArray(numNodes)
+        mScript = LongArray(numNodes)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Works out everything that can be given safely from these amounts.
+     *
+     * O(V + E) per round
+     *
+     * @param   amounts     The money in each node, by snapshot index.
+     *
+     * @throws  ArithmeticException if some node would give more than
+     *          Int.MAX_VALUE times
+     */
+    fun resolve(amounts : IntArray) : ResolveResult {
+        val numNodes = snapshot.numNodes
+        if (amounts.size != numNodes) {
+            throw IllegalArgumentException("need $numNodes amounts, got ${amounts.size}")
+        }
+
+        for (i in 0 until numNodes) {
+            mAmounts[i] = amounts[i].toLong()
+            mScript[i] = 0L
+        }
+
+        var rounds = 0
+        while (burn()) {
+            rounds++
+        }
+
+        val script = IntArray(numNodes)
+        var numMoves = 0L
+        var solved = true
+        for (i in 0 until numNodes) {
+            script[i] = Math.toIntExact(mScript[i])
+            numMoves += mScript[i]
+            if (mAmounts[i] < 0L) {
+                solved = false
+            }
+        }
+        return ResolveResult(script, numMoves, rounds, solved)
+    }
+
+    /**
+     * Works out what can be given safely on this engine's board and plays
+     * it, all in one go.  The engine's listeners hear about it once.
+     *
+     * O(V + E) per round
+     *
+     * @throws  IllegalArgumentException if the engine is for another board
+     */
+    fun resolve(engine : ChipFiringEngine) : ResolveResult {
+        if (engine.snapshot !== snapshot) {
+            throw IllegalArgumentException("the engine is playing on a different board")
+        }
+        val result = resolve(engine.getAmounts())
+        if (result.numMoves > 0L) {
+            engine.fireScript(result.script)
+        }
+        return result
+    }
+
+
+    /**
+     * One round: light a fire at every node in debt and let it spread.
+     * If some nodes don't burn, they all give together as many times as
+     * they safely can (see [DharBurner]).
+     *
+     * O(V + E)
+     *
+     * @return  True if some nodes gave (so there may be more to do).
+     */
+    private fun burn() : Boolean {
+        mBurner.clear()
+        for (i in 0 until snapshot.numNodes) {
+            if (mAmounts[i] < 0L) {
+                mBurner.light(i)
+            }
+        }
+        return mBurner.burnAndGive(mAmounts, mScript)
+    }
+
+
+}
+
+
+/**
+ * What [DebtResolver.resolve] found.
+ */
+class ResolveResult(
+
+    /** How many times each node gives, by index (never negative) */
+    val script : IntArray,
+
+    /** The number of single gives in [script] */
+    val numMoves : Long,
+
+    /** How many times the fire was lit and the unburnt nodes gave */
+    val rounds : Int,
+
+    /** True if nobody is in debt afterwards */
+    val solved : Boolean
+)
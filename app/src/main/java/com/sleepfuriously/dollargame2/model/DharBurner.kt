@@ -0,0 +1,138 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * One round of Dhar's burning algorithm, shared by [DollarGameSolver]
+ * (the fire starts at q) and [DebtResolver] (it starts at every node in
+ * debt).
+ *
+ * Light the nodes the fire starts from with [light], then call
+ * [burnAndGive].  The fire spreads to a node when the node has more
+ * burning edges than dollars.  The nodes left standing each have at
+ * least as many dollars as edges to the fire, so they can all give
+ * together safely, and they do, as many times in a row as they can.
+ *
+ * Works on the caller's amounts and script, so nothing is allocated
+ * after it's made.  Not thread safe.
+ */
+internal class DharBurner(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** number of burning neighbors */
+    private val mCounts = IntArray(snapshot.numNodes)
+
+    /** queue of indices for the fire */
+    private val mQueue = IntArray(snapshot.numNodes)
+
+    /** true for nodes that are burning */
+    private val mBurnt = BooleanArray(snapshot.numNodes)
+
+    /** how many nodes are in [mQueue] */
+    private var mTail = 0
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Puts out the last fire, ready for a new round.  O(V)
+     */
+    fun clear() {
+        mCounts.fill(0)
+        mBurnt.fill(false)
+        mTail = 0
+    }
+
+    /**
+     * Starts the fire at this node (if it isn't burning already).  O(1)
+     */
+    fun light(index : Int) {
+        if (mBurnt[index] == false) {
+            mBurnt[index] = true
+            mQueue[mTail++] = index
+        }
+    }
+
+    /**
+     * Lets the fire spread from the lit nodes.  Then everything it didn't
+     * reach gives, as many times in a row as it safely can.
+     *
+     * O(V + E)
+     *
+     * @param   amounts     The money in each node, by index.  Changed by
+     *                      the giving.
+     *
+     * @param   script      How many times each node has given, by index.
+     *                      The giving is added on.
+     *
+     * @return  True if some nodes gave.  False if nothing was lit, if
+     *          everything burned, or if none of the nodes left standing
+     *          touch the fire.
+     *
+     * @throws  ArithmeticException if a Long would overflow
+     */
+    fun burnAndGive(amounts : LongArray, script : LongArray) : Boolean {
+        val numNodes = snapshot.numNodes
+        var tail = mTail
+        if ((tail == 0) || (tail == numNodes)) {
+            return false
+        }
+
+        var head = 0
+        while (head < tail) {
+            val node = mQueue[head++]
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val neighbor = snapshot.neighborAt(pos)
+                if (mBurnt[neighbor] == false) {
+                    mCounts[neighbor]++
+                    if (mCounts[neighbor] > amounts[neighbor]) {
+                        mBurnt[neighbor] = true
+                        mQueue[tail++] = neighbor
+                    }
+                }
+            }
+        }
+        mTail = tail
+        if (tail == numNodes) {
+            return false
+        }
+
+        // The unburnt nodes each have at least as many dollars as burning
+        // edges, so they can all give.  How many times in a row?
+        var times = Long.MAX_VALUE
+        for (i in 0 until numNodes) {
+            if ((mBurnt[i] == false) && (mCounts[i] > 0)) {
+                times = minOf(times, amounts[i] / mCounts[i])
+            }
+        }
+        if (times == Long.MAX_VALUE) {
+            // none of them touch the fire (a part of the board it can't reach)
+            return false
+        }
+
+        // only the edges between unburnt and burnt move any money
+        for (i in 0 until numNodes) {
+            if (mBurnt[i] == false) {
+                script[i] = Math.addExact(script[i], times)
+                if (mCounts[i] > 0) {
+                    amounts[i] -= times * mCounts[i]     // can't go under 0
+                    for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                        val neighbor = snapshot.neighborAt(pos)
+                        if (mBurnt[neighbor]) {
+                            amounts[neighbor] = Math.addExact(amounts[neighbor], times)
+                        }
+                    }
+                }
+            }
+        }
+        return true
+    }
+
+}
@@ -0,0 +1,552 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Decides whether a Dollar Game board can be won, and if so, how.
+ *
+ * The idea (from chip-firing theory) is to pick a node q and push all the
+ * money around until the board is "q-reduced": nobody but q is in debt,
+ * and no group of nodes that leaves out q can give without someone in it
+ * going into debt.  Every board can be moved to exactly one q-reduced
+ * board, and the game is winnable exactly when q isn't in debt on it.
+ *
+ * With q left out, firing scripts are s (how many times each node gives)
+ * and the reduced board comes from the BIGGEST script s* that leaves
+ * nobody but q in debt.  (Two such scripts can be merged by taking the
+ * bigger entry of each, so there is a biggest; and if a group could still
+ * give from there, s* wasn't the biggest.)  Getting there takes three
+ * steps:
+ *
+ *      1.  Overshoot.  L_q (the Laplacian without q) can be inverted, and
+ *          every script that leaves nobody in debt is at most
+ *          x = L_q^-1 * amounts, since all of L_q^-1 is >= 0.  x is found
+ *          with conjugate gradients (L_q is symmetric and positive
+ *          definite): a few hundred O(E) multiplies, at most V.  Then
+ *          x rounded up (plus 1, to cover float error) is fired, with
+ *          exact arithmetic.
+ *
+ *      2.  Back off.  Anybody in debt takes, just enough times to get out
+ *          of debt, which can put their neighbors in debt, and so on.  This
+ *          is a sandpile stabilizing with q as the sink, so by the "least
+ *          action" principle it takes back as little as possible and lands
+ *          exactly on s*.  The takes add up to (x rounded up) - s*, which
+ *          is L_q^-1 times the reduced amounts (at most the genus of them),
+ *          plus under 2 per node.  L_q^-1's entries are at most V, so that's
+ *          under V * (V * genus + 2) takes, and far fewer in practice.
+ *
+ *      3.  Dhar's burning algorithm, to check.  Start a fire at q.  It
+ *          spreads to a node when the node has more burning edges than
+ *          dollars.  If everything burns, the board is q-reduced.  If not
+ *          (the overshoot fell short, which rounding could only do on some
+ *          very strange board) the nodes left standing all give at once,
+ *          as many times in a row as they safely can, and we burn again.
+ *
+ * Along the way it keeps track of how many times each node gave (the
+ * "firing script").  If the game is winnable, that script IS a solution.
+ * (If nobody is in debt to start with, the solution is to do nothing.)
+ * Giving with every node is the same as doing nothing, so the script is
+ * shifted to take out as many moves as possible before it's returned.
+ *
+ * Amounts and scripts are Longs, and every sum that could overflow one is
+ * checked (ArithmeticException).
+ *
+ * Only undirected, connected boards.  One solver may be used for many
+ * boards of the same shape, but not by two threads at once.
+ */
+class DollarGameSolver(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** current amounts while working, by index */
+    private val mAmounts : LongArray
+
+    /** how many times each node has given, by index */
+    private val mScript : LongArray
+
+    /** the fire for step 3 */
+    private val mBurner = DharBurner(snapshot)
+
+    /** queue of indices for the connectivity check (and a ring buffer for step 2) */
+    private val mQueue : IntArray
+
+    /** true for nodes that have been in the queue (or, in step 2, are in it now) */
+    private val mQueued : BooleanArray
+
+    /** for conjugate gradients in step 1, by index (q's entries stay 0) */
+    private val mPotential : DoubleArray
+    private val mResidual : DoubleArray
+    private val mDirection : DoubleArray
+    private val mProduct : DoubleArray
+    private val mPreconditioned : DoubleArray
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("The solver only works on undirected boards")
+        }
+        val numNodes = snapshot.numNodes
+        mAmounts = LongArray(numNodes)
+        mScript = LongArray(numNodes)
+        mQueue = IntArray(numNodes)
+        mQueued = BooleanArray(numNodes)
+        mPotential = DoubleArray(numNodes)
+        mResidual = DoubleArray(numNodes)
+        mDirection = DoubleArray(numNodes)
+        mProduct = DoubleArray(numNodes)
+        mPreconditioned = DoubleArray(numNodes)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Figures out if the board can be won from these amounts, and how.
+     *
+     * @param   amounts     The money in each node, by snapshot index.
+     *
+     * @param   q           The node to reduce towards.  Any node gives the
+     *                      right answer.
+     *
+     * @throws  GraphNotConnectedException if some nodes can't be reached
+     *          from the others (or there are no nodes)
+     *
+     * @throws  ArithmeticException if the script would overflow a Long
+     */
+    fun solve(amounts : IntArray, q : Int = 0) : SolverResult {
+        reduce(amounts, q)
+
+        val reduced = mAmounts.copyOf()
+        if (reduced[q] < 0) {
+            return SolverResult(snapshot, false, q, reduced, null)
+        }
+
+        var inDebt = false
+        for (amount in amounts) {
+            if (amount < 0) {
+                inDebt = true
+            }
+        }
+        val script = if (inDebt) normalizeScript(mScript) else LongArray(amounts.size)
+        return SolverResult(snapshot, true, q, reduced, script)
+    }
+
+
+    /**
+     * Just the q-reduced amounts, without the script.  Makes no garbage,
+     * for callers that reduce a lot of boards (like [RankCalculator]).
+     *
+     * @param   dest        Gets the q-reduced amounts, by index.
+     *
+     * @return  True if the game can be won (q isn't in debt).
+     *
+     * @throws  GraphNotConnectedException if some nodes can't be reached
+     *          from the others (or there are no nodes)
+     *
+     * @throws  ArithmeticException if the script would overflow a Long
+     */
+    fun reduceInto(amounts : IntArray, dest : LongArray, q : Int = 0) : Boolean {
+        reduce(amounts, q)
+        System.arraycopy(mAmounts, 0, dest, 0, mAmounts.size)
+        return mAmounts[q] >= 0L
+    }
+
+
+    /**
+     * Does the actual work of [solve].  Leaves the q-reduced amounts in
+     * [mAmounts] and the firing script that got there in [mScript].
+     */
+    private fun reduce(amounts : IntArray, q : Int) {
+        val numNodes = snapshot.numNodes
+        if (amounts.size != numNodes) {
+            throw IllegalArgumentException("need $numNodes amounts, got ${amounts.size}")
+        }
+        if (numNodes == 0) {
+            throw GraphNotConnectedException()
+        }
+        checkConnected(q)
+
+        for (i in 0 until numNodes) {
+            mAmounts[i] = amounts[i].toLong()
+            mScript[i] = 0L
+        }
+
+        overshoot(q)
+        backOff(q)
+        while (burn(q)) {
+            // keep going until everything burns
+        }
+    }
+
+
+    /**
+     * Makes sure every node can be reached from q.  O(V + E)
+     *
+     * @throws  GraphNotConnectedException if some node can't be reached
+     */
+    private fun checkConnected(q : Int) {
+        mQueued.fill(false)
+        mQueued[q] = true
+        mQueue[0] = q
+        var head = 0
+        var tail = 1
+        while (head < tail) {
+            val node = mQueue[head++]
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val neighbor = snapshot.neighborAt(pos)
+                if (mQueued[neighbor] == false) {
+                    mQueued[neighbor] = true
+                    mQueue[tail++] = neighbor
+                }
+            }
+        }
+
+        if (tail < snapshot.numNodes) {
+            throw GraphNotConnectedException()
+        }
+    }
+
+
+    /**
+     * Step 1: fires x = L_q^-1 * amounts, rounded up, plus 1.  That's at
+     * least as much as any script that leaves nobody but q in debt.
+     *
+     * O(E) per conjugate gradient step, then O(V + E)
+     *
+     * @throws  ArithmeticException if the script would overflow a Long
+     */
+    private fun overshoot(q : Int) {
+        val numNodes = snapshot.numNodes
+        findPotential(q)
+        for (i in 0 until numNodes) {
+            if (i == q) {
+                continue
+            }
+            val potential = Math.ceil(mPotential[i]) + 1.0
+            if (Math.abs(potential) >= MAX_EXACT_DOUBLE) {
+                throw ArithmeticException("script is too big")
+            }
+            fireExactly(i, potential.toLong())
+        }
+    }
+
+    /**
+     * Fills in [mPotential] with (about) the x that solves
+     * L_q * x = amounts, leaving q at 0.  Conjugate gradients, with each
+     * node's degree as the preconditioner.
+     *
+     * O(E) per step, at most V + [CG_EXTRA_STEPS] steps
+     */
+    private fun findPotential(q : Int) {
+        val numNodes = snapshot.numNodes
+        var rho = 0.0
+        var rhsNorm = 0.0
+        for (i in 0 until numNodes) {
+            mPotential[i] = 0.0
+            if (i == q) {
+                mResidual[i] = 0.0
+                mPreconditioned[i] = 0.0
+            }
+            else {
+                mResidual[i] = mAmounts[i].toDouble()
+                mPreconditioned[i] = mResidual[i] / snapshot.getDegree(i)
+                rho += mResidual[i] * mPreconditioned[i]
+                rhsNorm = maxOf(rhsNorm, Math.abs(mResidual[i]))
+            }
+            mDirection[i] = mPreconditioned[i]
+        }
+
+        val tolerance = rhsNorm * CG_TOLERANCE
+        var steps = 0
+        while ((rho > 0.0) && (steps++ < numNodes + CG_EXTRA_STEPS)) {
+            multiplyReduced(q, mDirection, mProduct)
+            var curvature = 0.0
+            for (i in 0 until numNodes) {
+                curvature += mDirection[i] * mProduct[i]
+            }
+            val alpha = rho / curvature
+
+            var newRho = 0.0
+            var residualNorm = 0.0
+            for (i in 0 until numNodes) {
+                if (i == q) {
+                    continue
+                }
+                mPotential[i] += alpha * mDirection[i]
+                mResidual[i] -= alpha * mProduct[i]
+                mPreconditioned[i] = mResidual[i] / snapshot.getDegree(i)
+                newRho += mResidual[i] * mPreconditioned[i]
+                residualNorm = maxOf(residualNorm, Math.abs(mResidual[i]))
+            }
+            if (residualNorm <= tolerance) {
+                return
+            }
+
+            val beta = newRho / rho
+            rho = newRho
+            for (i in 0 until numNodes) {
+                mDirection[i] = mPreconditioned[i] + beta * mDirection[i]
+            }
+        }
+    }
+
+    /**
+     * out = L_q * x, where x[q] is 0 (and out[q] is left 0).  Loops don't
+     * count, since they never move money.
+     *
+     * O(E)
+     */
+    private fun multiplyReduced(q : Int, x : DoubleArray, out : DoubleArray) {
+        for (i in 0 until snapshot.numNodes) {
+            var sum = 0.0
+            if (i != q) {
+                for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                    sum += x[i] - x[snapshot.neighborAt(pos)]
+                }
+            }
+            out[i] = sum
+        }
+    }
+
+
+    /**
+     * Step 2: everybody but q who's in debt takes, just enough times to get
+     * out of debt, until nobody is.  The queue is a ring buffer; a node is
+     * only in it once at a time ([mQueued] marks them).
+     *
+     * O(degree) per node that comes up
+     *
+     * @throws  ArithmeticException if a Long would overflow
+     */
+    private fun backOff(q : Int) {
+        val numNodes = snapshot.numNodes
+        mQueued.fill(false)
+        var head = 0
+        var size = 0
+        for (i in 0 until numNodes) {
+            if ((i != q) && (mAmounts[i] < 0L)) {
+                mQueued[i] = true
+                mQueue[size++] = i
+            }
+        }
+
+        while (size > 0) {
+            val node = mQueue[head]
+            head = if (head + 1 == numNodes) 0 else head + 1
+            size--
+            mQueued[node] = false
+
+            // ceil(debt / degree) takes (loops don't help)
+            val degree = snapshot.getDegree(node)
+            val times = (-mAmounts[node] + degree - 1) / degree
+            fireExactly(node, -times)
+
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val neighbor = snapshot.neighborAt(pos)
+                if ((neighbor != q) && (mAmounts[neighbor] < 0L) && (mQueued[neighbor] == false)) {
+                    mQueued[neighbor] = true
+                    val tail = if (head + size >= numNodes) head + size - numNodes else head + size
+                    mQueue[tail] = neighbor
+                    size++
+                }
+            }
+        }
+    }
+
+    /**
+     * Node i gives times times (takes if negative), checking every sum.
+     *
+     * O(degree)
+     *
+     * @throws  ArithmeticException if a Long would overflow
+     */
+    private fun fireExactly(i : Int, times : Long) {
+        if (times == 0L) {
+            return
+        }
+        mScript[i] = Math.addExact(mScript[i], times)
+        for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+            val neighbor = snapshot.neighborAt(pos)
+            if (neighbor != i) {
+                mAmounts[i] = Math.subtractExact(mAmounts[i], times)
+                mAmounts[neighbor] = Math.addExact(mAmounts[neighbor], times)
+            }
+        }
+    }
+
+
+    /**
+     * Step 3: one round of Dhar's burning algorithm, lit at q.  If some
+     * nodes don't burn, they all give together as many times as they
+     * safely can (see [DharBurner]).
+     *
+     * O(V + E)
+     *
+     * @return  True if some nodes gave (so there's more to do), false if
+     *          everything burned (the board is q-reduced).
+     *
+     * @throws  ArithmeticException if a Long would overflow
+     */
+    private fun burn(q : Int) : Boolean {
+        mBurner.clear()
+        mBurner.light(q)
+        return mBurner.burnAndGive(mAmounts, mScript)
+    }
+
+
+    /**
+     * Returns a copy of the script shifted so that as few moves as possible
+     * are needed: subtracting the median makes the sum of |script| smallest.
+     * Positive entries are gives, negative are takes.
+     */
+    private fun normalizeScript(script : LongArray) : LongArray {
+        val sorted = script.copyOf()
+        sorted.sort()
+        val median = sorted[sorted.size / 2]
+
+        val normalized = LongArray(script.size)
+        for (i in script.indices) {
+            normalized[i] = script[i] - median
+        }
+        return normalized
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /** Conjugate gradients stops when no residual is bigger than this (relative) */
+        private const val CG_TOLERANCE = 1e-12
+
+        /** Conjugate gradients may take a few more than V steps, thanks to rounding */
+        private const val CG_EXTRA_STEPS = 100
+
+        /** Doubles are exact whole numbers below this */
+        private const val MAX_EXACT_DOUBLE = 9.0e15
+
+        /**
+         * Convenience for solving straight from a Graph.  Makes a new
+         * snapshot and solver each time, so if you'll be solving the same
+         * board over and over, hang on to a solver instead.
+         *
+         * @param   amountOf    Gets the amount from a node's data.  A node
+         *                      with no data counts as 0.
+         */
+        fun <T> solve(graph : Graph<T>, amountOf : (T) -> Int) : SolverResult {
+            val snapshot = graph.freeze()
+            val amounts = IntArray(snapshot.numNodes)
+            for (i in 0 until snapshot.numNodes) {
+                val data = graph.getNodeData(snapshot.getNodeId(i))
+                amounts[i] = if (data == null) 0 else amountOf(data)
+            }
+            return DollarGameSolver(snapshot).solve(amounts)
+        }
+    }
+
+}
+
+
+/**
+ * What [DollarGameSolver.solve] found.
+ */
+class SolverResult(
+
+    /** The board that was solved */
+    val snapshot : GraphSnapshot,
+
+    /** True if the game can be won */
+    val winnable : Boolean,
+
+    /** The index of the node that the board was reduced towards */
+    val q : Int,
+
+    /** The q-reduced amounts, by index.  q's amount tells if it's winnable. */
+    val reducedAmounts : LongArray,
+
+    /**
+     * How many times each node should give (negative means take), by index.
+     * Null if the game can't be won.  Order doesn't matter.
+     */
+    val script : LongArray?
+) {
+
+    /**
+     * The number of single gives and takes in the solution (-1 if there's
+     * no solution).
+     */
+    fun getNumMoves() : Long {
+        if (script == null) {
+            return -1L
+        }
+        var count = 0L
+        for (times in script) {
+            count += Math.abs(times)
+        }
+        return count
+    }
+
+    /**
+     * The solution as a list of moves, one per node that needs to do
+     * something, in index order.
+     *
+     * @return  Empty if there's nothing to do, or if the game can't be won.
+     *
+     * @throws  ArithmeticException if a node would need to give more than
+     *          Int.MAX_VALUE times
+     */
+    fun getMoves() : List<SolverMove> {
+        val moves = ArrayList<SolverMove>()
+        if (script == null) {
+            return moves
+        }
+        for (i in script.indices) {
+            if (script[i] != 0L) {
+                moves.add(SolverMove(snapshot.getNodeId(i), Math.toIntExact(script[i])))
+            }
+        }
+        return moves
+    }
+
+    /**
+     * Plays the whole solution on an engine for the same board, all at
+     * once (see [ChipFiringEngine.fireScript]).
+     *
+     * O(V + E)
+     *
+     * @return  False if there's no solution to play.
+     *
+     * @throws  ArithmeticException if the script or the amounts it leads
+     *          to don't fit in Ints
+     */
+    fun applyTo(engine : ChipFiringEngine) : Boolean {
+        if (script == null) {
+            return false
+        }
+        val intScript = IntArray(script.size)
+        for (i in script.indices) {
+            intScript[i] = Math.toIntExact(script[i])
+        }
+        engine.fireScript(intScript)
+        return true
+    }
+
+}
+
+
+/**
+ * One step of a solution: the node with this id gives this many times
+ * (or takes, if times is negative).
+ */
+data class SolverMove(
+    val nodeId : Int,
+    val times : Int
+)
@@ -1,11 +1,26 @@
 package com.sleepfuriously.dollargame2.model
 
 import android.util.Log
+import java.util.BitSet
 
 /**
  * Library for directed and undirected graphs.
- * Note that this uses lists for its data, so it may
- * not be as fast as it could be.
+ *
+ * Besides the nodes and edges themselves, the Graph keeps two indices
+ * that are updated on every add and remove:
+ *      - for each node, the ids of all the edges that touch it
+ *      - for each pair of endpoints, the id of the edge between them
+ * This makes neighbor queries O(degree) and edge lookups O(1) instead
+ * of scanning every edge.
+ *
+ * Internally the nodes live in dense "slots" (0 until numNodes) and all
+ * the maps are primitive Int maps ([IntIntHashMap] etc.), so ids are never
+ * boxed.  Slots are an implementation detail: removing a node moves the
+ * last node into its slot.
+ *
+ * All of that storage lives in a [GraphStore].  Cloning a Graph just
+ * shares the store; whichever Graph changes first makes its own copy
+ * (copy-on-write), so [clone] is O(1).
  *
  *	USAGE:
  *		- When instantiating, provide a Node type to fill
@@ -16,6 +31,9 @@ import android.util.Log
  *
  *		- Also define whether it's directed (default is undirected).
  *
+ *		- If you'll be looking up nodes by their data (see [getNodeId]),
+ *		  turn on indexData so that's O(1) instead of a scan.
+ *
  *		- Add the nodes, supplying a unique id for that node.
  *
  *		- Add edges.  Use a weight if desired.
@@ -24,7 +42,14 @@ import android.util.Log
  */
 class Graph<T>(
     /** tells whether this is a directed graph or undirected (default) */
-    val mDirected : Boolean = false
+    val mDirected : Boolean = false,
+
+    /**
+     * When true, the Graph keeps a reverse index from node data to node id,
+     * making [getNodeId] O(1).  Data is then matched by identity (===)
+     * rather than equals().  Costs a map entry per node.
+     */
+    val mIndexData : Boolean = false
 ) {
 
     //---------------------------
@@ -32,20 +57,76 @@ class Graph<T>(
     //---------------------------
 
     /**
-     * Holds the nodes.
-     *
-     * In this case, a node is a key-value pair of an id and any data
-     * associated with it.
+     * Holds the nodes, edges, indices and connectivity info.
+     * May be shared with clones (see [GraphStore.numGraphs]).  Read it
+     * freely, but anything that changes it must go through [editStore].
      */
-    private val mNodes = HashMap<Int, T>()
+    private var mStore = GraphStore<T>(mIndexData)
 
     /**
-     * Holds all the edges.
-     *
-     * Note that for an undirected graph, there wil be just one edge:
-     * startNode and endNode are the same things for them.
+     * A live view of the edge ids that follows this Graph even after
+     * it gets a new store.  See [getAllEdgeIds].
+     */
+    private val mEdgeIdView : Set<Int> = object : AbstractSet<Int>() {
+
+        override val size : Int
+            get() = mStore.edges.size
+
+        override fun contains(element : Int) : Boolean {
+            return mStore.edges.containsKey(element)
+        }
+
+        override fun iterator() : Iterator<Int> {
+            return mStore.edges.keys.iterator()
+        }
+    }
+
+    /**
+     * Scratch space for [breadthFirst] and [depthFirst], kept between calls
+     * so a traversal doesn't allocate.  Indexed by slot.  The work arrays are
+     * the queue (or stack) of slots and the matching depths (or edge positions).
      */
-    private val mEdges = HashMap<Int, Edge>()
+    private val mVisited = BitSet()
+    private var mWorkSlots = IntArray(INITIAL_SLOTS)
+    private var mWorkInts = IntArray(INITIAL_SLOTS)
+
+    /** True while a traversal is running (they share the scratch space) */
+    private var mTraversing = false
+
+    /** How many [batch] calls we're inside of (they may nest) */
+    private var mBatchDepth = 0
+
+    /** True if something changed during the current batch */
+    private var mBatchChanged = false
+
+    /**
+     * Goes up by one with every change (see [getVersion]).  Anything
+     * computed from the Graph can remember the version it was computed
+     * at and know it's still good as long as the version hasn't moved.
+     */
+    private var mVersion = 0L
+
+    /**
+     * [getGenus] remembers its answer here, along with the version it
+     * was figured at.  [NOT_CONNECTED] means the Graph wasn't connected.
+     */
+    private var mCachedGenus = NOT_CONNECTED
+    private var mGenusVersion = -1L
+
+    /** Same idea for [getStructureHash] */
+    private var mCachedStructureHash = 0L
+    private var mStructureHashVersion = -1L
+
+    /** Who to tell when the Graph changes */
+    private val mListeners = ArrayList<GraphChangeListener>()
+
+
+    /**
+     * For [clone]: makes a Graph that shares the given store.
+     */
+    private constructor(directed : Boolean, indexData : Boolean, store : GraphStore<T>) : this(directed, indexData) {
+        mStore = store
+    }
 
 
     //---------------------------
@@ -54,30 +135,23 @@ class Graph<T>(
 
     /**
      * Returns an id that is guaranteed to be unique from any node already
-     * in the Graph.
+     * in the Graph.  It's always the lowest id not in use.  The id is
+     * NOT reserved; that happens when it's passed to [addNode].
      *
-     * O(n)
+     * O(1) amortized
      */
     fun generateUniqueNodeId() : Int {
-        var id = 0
-        while (mNodes.get(id) != null) {
-            id++
-        }
-        return id
+        return mStore.nodeIds.peek()
     }
 
     /**
      * Returns an id that is guaranteed to be unique from any edge
-     * already in the graph.
+     * already in the graph (the lowest one not in use).
      *
-     * O(n)
+     * O(1) amortized
      */
     fun generateUniqueEdgeId() : Int {
-        var id = 0
-        while (mEdges.get(id) != null) {
-            id++
-        }
-        return id
+        return mStore.edgeIds.peek()
     }
 
 
@@ -91,26 +165,39 @@ class Graph<T>(
      * @return  The id for this node (useful if it was generated).
      *
      * NOTE:  Does not check for duplicates.  You've been warned!!!
+     *        (Re-using an id just replaces the data for that node.)
      */
     fun addNode(data : T, _id : Int? = null) : Int {
+        val store = editStore()
 
         var id : Int
         if (_id == null) {
-            id = generateUniqueNodeId()
+            id = store.nodeIds.acquire()
         }
         else {
             id = _id
+            store.nodeIds.claim(id)
         }
 
-        mNodes.put(id, data)
+        val slot = store.nodeSlots.get(id, -1)
+        if (slot != -1) {
+            store.replaceData(slot, data)
+            markChanged()
+            return id
+        }
+
+        // a brand-new node is a component all by itself
+        store.addSlot(id, data)
+        markChanged()
         return id
     }
 
 
     /**
      * Adds an edge to this class.  Does not allow duplicate edges!
+     * Both nodes must already be in the graph.
      *
-     * O(n)
+     * O(1) amortized
      *
      * @param   startNodeId     The id of the first node (obviously you could use either
      *                          as the start for non-directed graphs).
@@ -119,7 +206,8 @@ class Graph<T>(
      *
      * @param   weight          Weight of this edge.  Defaults to 0
      *
-     * @return  The ID of this edge
+     * @return  The ID of this edge.  -1 if it's a duplicate or if either
+     *          node can't be found.
      *
      */
     fun addEdge(startNodeId : Int, endNodeId : Int, weight: Int = 0) : Int {
@@ -130,93 +218,336 @@ class Graph<T>(
             return -1
         }
 
-        val id = generateUniqueEdgeId()
-        mEdges.put(id, Edge(startNodeId, endNodeId, weight))
+        if ((mStore.nodeSlots.containsKey(startNodeId) == false) || (mStore.nodeSlots.containsKey(endNodeId) == false)) {
+            Log.e(TAG, "Tried to add an edge to a node that doesn't exist!")
+            return -1
+        }
+
+        val id = editStore().edgeIds.acquire()
+        addEdge(id, Edge(startNodeId, endNodeId, weight))
         return id
     }
 
 
     /**
-     * Private util to simplify a few things.  Just adds an edge with the given id.
+     * Runs a bunch of changes as one.  While inside the block, adding edges
+     * skips the connectivity bookkeeping; it's all redone once (in O(E))
+     * the next time anyone asks after the batch is over.
+     *
+     * Batches may be nested.  Everything else works as normal inside.
+     *
+     *      graph.batch {
+     *          val ids = addNodes(buttons)
+     *          addEdges(intArrayOf(ids[0], ids[1],  ids[1], ids[2]))
+     *      }
      */
-    private fun addEdge (id : Int, edge : Edge) {
-        mEdges.put(id, edge)
+    fun batch(block : Graph<T>.() -> Unit) {
+        if (mBatchDepth == 0) {
+            // skip the unions; they'll be done all at once later
+            editStore().connectivityDirty = true
+        }
+        mBatchDepth++
+        try {
+            block()
+        }
+        finally {
+            mBatchDepth--
+            if ((mBatchDepth == 0) && mBatchChanged) {
+                mBatchChanged = false
+                notifyListeners()
+            }
+        }
     }
 
 
     /**
-     * @return      the id of the edge with the given start and end nodes.
-     *              -1 if not found.
+     * Returns a number that changes whenever this Graph does (nodes or
+     * edges added or removed, or node data replaced).  A clone starts with
+     * the same version as its original.
      *
-     * Useful to see if an edge exists.
+     * O(1)
+     */
+    fun getVersion() : Long {
+        return mVersion
+    }
+
+
+    /**
+     * Registers a listener to hear about changes to this Graph.
+     * Clones don't inherit listeners.
+     */
+    fun addChangeListener(listener : GraphChangeListener) {
+        mListeners.add(listener)
+    }
+
+    /**
+     * @return  True if the listener was registered (and now isn't).
+     */
+    fun removeChangeListener(listener : GraphChangeListener) : Boolean {
+        return mListeners.remove(listener)
+    }
+
+
+    /**
+     * Every change goes through here: bumps the version and lets the
+     * listeners know (or, during a batch, remembers to tell them later).
+     */
+    private fun markChanged() {
+        mVersion++
+        if (mBatchDepth > 0) {
+            mBatchChanged = true
+        }
+        else {
+            notifyListeners()
+        }
+    }
+
+    private fun notifyListeners() {
+        // a copy, in case a listener removes itself
+        for (listener in mListeners.toTypedArray()) {
+            listener.onGraphChanged(mVersion)
+        }
+    }
+
+
+    /**
+     * Adds a whole bunch of nodes at once, each with a brand-new id.
+     * Room for all of them is made up front.
      *
-     * Preconditions:
-     *      Relies on [mDirected] to determine if direction matters
+     * O(n)
+     *
+     * @return  The ids of the new nodes, in the same order as the data.
+     */
+    fun addNodes(data : List<T>) : IntArray {
+        val store = editStore()
+        store.ensureCapacity(store.slotIds.size + data.size, store.edges.size)
+
+        val ids = IntArray(data.size)
+        batch {
+            for (i in data.indices) {
+                ids[i] = addNode(data[i])
+            }
+        }
+        return ids
+    }
+
+
+    /**
+     * Adds a whole bunch of edges at once.  Duplicates (of edges already in
+     * the Graph or of earlier pairs in the same call) and edges to nodes
+     * that don't exist are skipped quietly instead of being logged.
      *
      * O(n)
+     *
+     * @param   endpoints   Pairs of node ids: start0, end0, start1, end1, ...
+     *
+     * @param   weights     Weight of each edge (one per pair).  All 0 if null.
+     *
+     * @return  The id of each new edge, in the same order as the pairs.
+     *          -1 for a pair that was skipped.
+     *
+     * @throws  IllegalArgumentException if endpoints has an odd size or
+     *          weights is the wrong size.
      */
-    fun getEdgeId(startNodeId: Int, endNodeId: Int) : Int {
+    fun addEdges(endpoints : IntArray, weights : IntArray? = null) : IntArray {
+        if (endpoints.size % 2 != 0) {
+            throw IllegalArgumentException("endpoints must hold pairs, but has ${endpoints.size} ids")
+        }
+        val numPairs = endpoints.size / 2
+        if ((weights != null) && (weights.size != numPairs)) {
+            throw IllegalArgumentException("need $numPairs weights, got ${weights.size}")
+        }
+
+        val store = editStore()
+        store.ensureCapacity(store.slotIds.size, store.edges.size + numPairs)
+
+        val ids = IntArray(numPairs)
+        batch {
+            for (i in 0 until numPairs) {
+                val startNodeId = endpoints[2 * i]
+                val endNodeId = endpoints[2 * i + 1]
+                if ((store.edgeIndex.containsKey(endpointKey(startNodeId, endNodeId))) ||
+                    (store.nodeSlots.containsKey(startNodeId) == false) ||
+                    (store.nodeSlots.containsKey(endNodeId) == false)) {
+                    ids[i] = -1
+                    continue
+                }
 
-        // loop through the edges
-        mEdges.forEach() { it ->
-            if ((startNodeId == it.value.startNodeId) && (endNodeId == it.value.endNodeId)) {
-                return it.key
+                ids[i] = store.edgeIds.acquire()
+                addEdge(ids[i], Edge(startNodeId, endNodeId, weights?.get(i) ?: 0))
             }
+        }
+        return ids
+    }
 
-            // if not a directed graph, check the other way too
-            if (mDirected == false) {
-                if ((startNodeId == it.value.endNodeId) && (endNodeId == it.value.startNodeId)) {
-                    return it.key
-                }
+
+    /**
+     * Private util to simplify a few things.  Adds an edge with the given id
+     * and updates the indices.
+     */
+    private fun addEdge (id : Int, edge : Edge) {
+        val store = editStore()
+        store.edgeIds.claim(id)
+        store.edges.put(id, edge)
+        store.edgeIndex.put(endpointKey(edge.startNodeId, edge.endNodeId), id)
+
+        val startSlot = store.nodeSlots.get(edge.startNodeId, -1)
+        val endSlot = store.nodeSlots.get(edge.endNodeId, -1)
+        store.editableEdges(startSlot).add(id)
+        if (startSlot != endSlot) {
+            store.editableEdges(endSlot).add(id)
+            if (store.connectivityDirty == false) {
+                store.union(startSlot, endSlot)
             }
         }
+        markChanged()
+    }
+
 
-        // not found
-        return -1
+    /**
+     * Private util that removes the given edge and keeps the indices in sync.
+     *
+     * O(degree)
+     *
+     * @return  True if there was an edge with that id to remove.
+     */
+    private fun removeEdgeById(id : Int) : Boolean {
+        if (mStore.edges.containsKey(id) == false) {
+            return false
+        }
+
+        val store = editStore()
+        val edge = store.edges.remove(id)!!
+        store.edgeIds.release(id)
+        store.connectivityDirty = true
+
+        store.edgeIndex.remove(endpointKey(edge.startNodeId, edge.endNodeId), -1)
+        store.editableEdges(store.nodeSlots.get(edge.startNodeId, -1)).removeValue(id)
+        if (edge.startNodeId != edge.endNodeId) {
+            store.editableEdges(store.nodeSlots.get(edge.endNodeId, -1)).removeValue(id)
+        }
+        markChanged()
+        return true
     }
 
 
     /**
-     * Creates an exact duplicate of this graph
+     * Returns the store, ready to be changed.  If it's shared with a
+     * clone, this Graph gets its own copy first.  (The Graph left behind
+     * then has the old store to itself, and changes it in place.)
      *
-     * Returns NULL if something was wrong with the graph that prevents making a clone
-     * (probably a duplicate node Id).
+     * O(1), or O(V + E) bulk copying the first time after a [clone]
      */
-    fun clone() : Graph<T>? {
+    private fun editStore() : GraphStore<T> {
+        if (mStore.numGraphs > 1) {
+            mStore = mStore.fork()
+        }
+        return mStore
+    }
+
+
+    /**
+     * Packs the two endpoints of an edge into a single key for the store's edge index.
+     * For undirected graphs the smaller id always goes first, so (a, b) and
+     * (b, a) make the same key.
+     */
+    private fun endpointKey(startNodeId: Int, endNodeId: Int) : Long {
+        var first = startNodeId
+        var second = endNodeId
+        if ((mDirected == false) && (first > second)) {
+            first = endNodeId
+            second = startNodeId
+        }
+        return (first.toLong() shl 32) or (second.toLong() and 0xffffffffL)
+    }
 
-        val newGraph = Graph<T>()
 
-        // Copying the nodes is a little tricky as it's based on HashMap.
-        //
-        // Get a Set of keys (aka IDs) and then copy them one-by-one into the new
-        // graph
+    /**
+     * @return      the id of the edge with the given start and end nodes.
+     *              -1 if not found.
+     *
+     * Useful to see if an edge exists.
+     *
+     * Preconditions:
+     *      Relies on [mDirected] to determine if direction matters
+     *
+     * O(1)
+     */
+    fun getEdgeId(startNodeId: Int, endNodeId: Int) : Int {
+        return mStore.edgeIndex.get(endpointKey(startNodeId, endNodeId), -1)
+    }
 
-        val ids = mNodes.keys
-        val iterator = ids.iterator()
 
-        try {
-            while (iterator.hasNext()) {
-                val id = iterator.next()
-                val node = mNodes[id]
-                if (node == null) {
-                    throw NullPointerException("somehow we found a null node in clone()!!!")
-                }
-                else {
-                    newGraph.addNode(node, id)
+    /**
+     * Creates an exact duplicate of this graph (same directedness too).
+     *
+     * The two Graphs share their storage until one of them is changed.
+     * The first change to either one copies the flat tables for that one
+     * (O(V + E) bulk copies); the other keeps the old tables and changes
+     * them in place.  After that, only the edge lists of the nodes
+     * actually touched get copied.  The Edge objects themselves are
+     * shared, as are the node data.
+     *
+     * O(1) for the clone itself, O(V + E) on the first change
+     *
+     * Returns NULL if something was wrong with the graph that prevents making a clone
+     * (can't happen anymore, but callers still check).
+     */
+    fun clone() : Graph<T>? {
+        mStore.numGraphs++
+        val newGraph = Graph(mDirected, mIndexData, mStore)
+        newGraph.mVersion = mVersion
+        newGraph.mCachedGenus = mCachedGenus
+        newGraph.mGenusVersion = mGenusVersion
+        newGraph.mCachedStructureHash = mCachedStructureHash
+        newGraph.mStructureHashVersion = mStructureHashVersion
+        return newGraph
+    }
+
+
+    /**
+     * Makes a frozen, compressed-sparse-row copy of the structure of this
+     * Graph (see [GraphSnapshot]).  Later changes to the Graph don't affect
+     * the snapshot, and the snapshot can be shared between threads.
+     *
+     * The snapshot's indices follow the same order as [getAllNodeIds].
+     *
+     * O(V + E)
+     */
+    fun freeze() : GraphSnapshot {
+        val numSlots = mStore.slotIds.size
+
+        // first pass: how big is each row?
+        val offsets = IntArray(numSlots + 1)
+        for (slot in 0 until numSlots) {
+            val nodeId = mStore.slotIds[slot]
+            val edgeIds = mStore.slotEdges[slot]
+            var rowSize = 0
+            for (i in 0 until edgeIds.size) {
+                if ((mDirected == false) || (mStore.edges[edgeIds[i]]!!.startNodeId == nodeId)) {
+                    rowSize++
                 }
             }
-        }
-        catch (e : GraphNodeDuplicateIdException) {
-            e.printStackTrace()
-            return null
+            offsets[slot + 1] = offsets[slot] + rowSize
         }
 
-        // edges are a bit easier
-        mEdges.forEach() {
-            newGraph.addEdge(it.key, it.value)
+        // second pass: fill in the rows
+        val neighbors = IntArray(offsets[numSlots])
+        val edgeIdArray = IntArray(offsets[numSlots])
+        for (slot in 0 until numSlots) {
+            val edgeIds = mStore.slotEdges[slot]
+            var position = offsets[slot]
+            for (i in 0 until edgeIds.size) {
+                val neighborSlot = getNeighborSlot(slot, edgeIds[i], mDirected)
+                if (neighborSlot != -1) {
+                    neighbors[position] = neighborSlot
+                    edgeIdArray[position++] = edgeIds[i]
+                }
+            }
         }
 
-        return newGraph
+        return GraphSnapshot(mDirected, mStore.slotIds.toIntArray(), mStore.nodeSlots.copy(),
+                             offsets, neighbors, edgeIdArray, mStore.edges.size)
     }
 
 
@@ -224,7 +555,7 @@ class Graph<T>(
      * Returns a list of all the node IDs adjacent to a given node.
      * If none, this returns an empty list
      *
-     * O(n)
+     * O(degree)
      *
      * @param   nodeId      The id of the node in question.
      *
@@ -233,30 +564,66 @@ class Graph<T>(
      */
     fun getAllAdjacentTo(nodeId : Int, directed : Boolean = mDirected) : List<Int> {
 
-        val adjacenList = ArrayList<Int>()
-        val edgeList = getEdges(nodeId)
+        val adjacentIds = IntArray(getDegree(nodeId))
+        val count = getAdjacent(nodeId, adjacentIds, directed)
 
-        for (i in 0 until edgeList.size) {
-            val edge = edgeList[i]
-            if (directed) {
-                if (edge.startNodeId == nodeId) {
-                    // this is an edge that starts with our node
-                    // add it to our list.
-                    adjacenList.add(edge.endNodeId)
-                }
+        val adjacenList = ArrayList<Int>(count)
+        for (i in 0 until count) {
+            adjacenList.add(adjacentIds[i])
+        }
+        return adjacenList
+    }
+
+
+    /**
+     * Non-boxing version of [getAllAdjacentTo].  Fills dest with the ids
+     * of the nodes adjacent to the given node.
+     *
+     * O(degree)
+     *
+     * @param   dest        Where the ids go.  Must have room for at least
+     *                      [getDegree] ids.
+     *
+     * @param   directed    True indicates direction is important.  Defaults to
+     *                      the current directedness of this Graph.
+     *
+     * @return  The number of ids written to dest (0 if the node can't be found).
+     */
+    fun getAdjacent(nodeId : Int, dest : IntArray, directed : Boolean = mDirected) : Int {
+        val slot = mStore.nodeSlots.get(nodeId, -1)
+        if (slot == -1) {
+            return 0
+        }
+
+        val edgeIds = mStore.slotEdges[slot]
+        var count = 0
+        for (i in 0 until edgeIds.size) {
+            val edge = mStore.edges[edgeIds[i]]!!
+            if (edge.startNodeId == nodeId) {
+                // this is an edge that starts with our node
+                dest[count++] = edge.endNodeId
             }
-            else {
+            else if (directed == false) {
                 // NOT directed--just include the other node
-                if (edge.startNodeId == nodeId) {
-                    adjacenList.add(edge.endNodeId)
-                }
-                else {
-                    adjacenList.add(edge.startNodeId)
-                }
+                dest[count++] = edge.startNodeId
             }
         }
+        return count
+    }
 
-        return adjacenList
+
+    /**
+     * Returns the number of edges that touch the given node (coming or going).
+     * A self-loop counts once.  Returns 0 if the node can't be found.
+     *
+     * O(1)
+     */
+    fun getDegree(nodeId : Int) : Int {
+        val slot = mStore.nodeSlots.get(nodeId, -1)
+        if (slot == -1) {
+            return 0
+        }
+        return mStore.slotEdges[slot].size
     }
 
 
@@ -264,7 +631,20 @@ class Graph<T>(
      * Returns a copy of the List of all the node IDs for this Graph.
      */
     fun getAllNodeIds() : List<Int> {
-        return ArrayList(mNodes.keys)
+        val idList = ArrayList<Int>(mStore.slotIds.size)
+        for (slot in 0 until mStore.slotIds.size) {
+            idList.add(mStore.slotIds[slot])
+        }
+        return idList
+    }
+
+
+    /**
+     * Non-boxing version of [getAllNodeIds].  Returns a fresh array of all
+     * the node ids, in the same order as [getAllNodeIds].
+     */
+    fun getNodeIdArray() : IntArray {
+        return mStore.slotIds.toIntArray()
     }
 
 
@@ -276,7 +656,7 @@ class Graph<T>(
      * Note:    Returns a copy of the data (not the data itself)
      */
     fun getAllNodeData() : List<T> {
-        return ArrayList(mNodes.values)
+        return ArrayList(mStore.slotData)
     }
 
 
@@ -285,24 +665,33 @@ class Graph<T>(
      * Returns NULL if no data found for this id.
      */
     fun getNodeData(nodeId : Int) : T? {
-        return mNodes[nodeId]
+        val slot = mStore.nodeSlots.get(nodeId, -1)
+        if (slot == -1) {
+            return null
+        }
+        return mStore.slotData[slot]
     }
 
 
     /**
      * Returns the id of the first node to match the given data.
      *
-     * O(n)
+     * If this Graph was made with [mIndexData], a node matches only if it
+     * holds this very object (===), and if several do, which one you get
+     * isn't defined.  That's O(1).  Otherwise it's a scan using ==, O(n).
      *
      * @return  the key (id) or null if not found
      */
     fun getNodeId(data : T) : Int? {
 
-        // note:  the id is also the key
+        if (mStore.hasDataIndex()) {
+            val id = mStore.findIndexed(data)
+            return if (id == -1) null else id
+        }
 
-        mNodes.forEach { (key, value) ->
-            if (value == data) {
-                return key
+        for (slot in 0 until mStore.slotData.size) {
+            if (mStore.slotData[slot] == data) {
+                return mStore.slotIds[slot]
             }
         }
 
@@ -315,28 +704,7 @@ class Graph<T>(
      * For undirected graphs the order doesn't matter.
      */
     fun isAdjacent(startNodeId : Int, endNodeId : Int) : Boolean {
-        var found = false
-
-        // Simply go through all the edges and see if we have a match.
-        // Because this is kotlin we have to go through EVERYTHING even after
-        // we found what we were looking for (hence the if (!found) hack).
-        mEdges.forEach() { it ->
-            if (!found) {
-                val edge = it.value
-                if ((edge.startNodeId == startNodeId) && (edge.endNodeId == endNodeId)) {
-                    found = true
-                }
-
-                if (mDirected == false) {
-                    // special case for undirected graphs
-                    if ((edge.startNodeId == endNodeId) && (edge.endNodeId == startNodeId)) {
-                        found = true
-                    }
-                }
-            }
-        }
-
-        return found
+        return mStore.edgeIndex.containsKey(endpointKey(startNodeId, endNodeId))
     }
 
 
@@ -345,14 +713,60 @@ class Graph<T>(
      *
      * Genus = edges - vertices + 1
      *
+     * O(1).  The answer is cached until the Graph changes; the first call
+     * after a removal also pays for a connectivity check (see [isConnected]).
+     *
      * @throws  GraphNotConnectedException if the Graph is not connected
      */
     fun getGenus() : Int {
-        if (!isConnected()) {
+        if (mGenusVersion != mVersion) {
+            mCachedGenus = if (isConnected()) {
+                mStore.edges.size - mStore.slotIds.size + 1
+            }
+            else {
+                NOT_CONNECTED
+            }
+            mGenusVersion = mVersion
+        }
+
+        if (mCachedGenus == NOT_CONNECTED) {
             throw GraphNotConnectedException()
         }
+        return mCachedGenus
+    }
 
-        return mEdges.size - mNodes.size + 1
+
+    /**
+     * A 64-bit fingerprint of the shape of this Graph: which node ids it
+     * has, which of them are joined, the edge weights and whether it's
+     * directed.  Node data and edge ids don't count, and neither does the
+     * order things were added in, so two Graphs with the same shape always
+     * get the same hash, however they were built.
+     *
+     * Each node and edge is scrambled on its own and the results are
+     * added up (addition doesn't care about order).
+     *
+     * O(V + E) the first time after a change, O(1) after that (it's cached).
+     */
+    fun getStructureHash() : Long {
+        if (mStructureHashVersion != mVersion) {
+            var sum = 0L
+            for (slot in 0 until mStore.slotIds.size) {
+                sum += ZobristHasher.mix64(mStore.slotIds[slot] * HASH_GOLDEN + NODE_SALT)
+            }
+
+            var edgeSlot = mStore.edges.nextSlot(0)
+            while (edgeSlot != -1) {
+                val edge = mStore.edges.valueAt(edgeSlot)
+                val endpoints = ZobristHasher.mix64(endpointKey(edge.startNodeId, edge.endNodeId) + EDGE_SALT)
+                sum += ZobristHasher.mix64(endpoints + edge.weight * HASH_GOLDEN)
+                edgeSlot = mStore.edges.nextSlot(edgeSlot + 1)
+            }
+
+            mCachedStructureHash = ZobristHasher.mix64(if (mDirected) sum.inv() else sum)
+            mStructureHashVersion = mVersion
+        }
+        return mCachedStructureHash
     }
 
 
@@ -370,59 +784,245 @@ class Graph<T>(
      *
      * todo:  write a Strongly Connected graph routine.  It will tell if in a directed
      *  graph any node can get to any node (nice to have, but not used in this app).
+     *
+     * O(1) while nodes and edges are only being added.  After a removal the
+     * connectivity info is rebuilt once, in O(E) (no recursion).
      */
     fun isConnected() : Boolean {
 
         // easy case first
-        if ((mNodes.size == 0) || (mEdges.size == 0)) {
+        if ((mStore.slotIds.size == 0) || (mStore.edges.size == 0)) {
             return false
         }
 
-        // create a list of visited nodes
-        val visited = ArrayList<Int>()
+        return getNumComponents() == 1
+    }
 
-        // start with any key/ID.  How about the first one?
-        val anId = mNodes.keys.iterator().next()
-        isConnectedHelper(anId, visited)
 
-        // If the size of the visited list is the same as our number of nodes,
-        // then we know that all were visited.  This can only happen if the
-        // graph is connected.
-        return (visited.size == mNodes.size)
+    /**
+     * Returns the number of connected components (pieces) of this Graph.
+     * Direction is ignored.  An empty Graph has 0 components.
+     *
+     * Same cost as [isConnected].
+     */
+    fun getNumComponents() : Int {
+        // rebuilding (if needed) doesn't change what the store holds, so
+        // it's fine to do even when the store is shared
+        return mStore.getNumComponents()
     }
 
 
     /**
-     * Does the recursive depth-first search of the Graph's edges
-     * (assumes that the Graph is undirected!).
+     * Walks the Graph breadth-first from the given node, visiting each
+     * reachable node once in order of distance.  Iterative, and uses
+     * scratch arrays kept by the Graph, so no allocation per step.
      *
-     * @param   nodeId          An unvisited node in the Graph.  This method will
-     *                          find all the edges that it connects to and so on.
+     * O(V + E) worst case
      *
-     * @param   visited         A list of visited node.  These will be added to as the
-     *                          nodes are visited.  Yes this data structure will BE MODIFIED.
+     * @param   startNodeId     Where to start.  Nothing happens if it isn't in the Graph.
+     *
+     * @param   directed        True means only follow edges in their direction.
+     *                          Defaults to the directedness of this Graph.
+     *
+     * @param   visitor         Called for each node.  Return false to stop.
+     *
+     * @return  The number of nodes visited.
+     *
+     * @throws  IllegalStateException if called from inside another traversal's visitor
      */
-    private fun isConnectedHelper(nodeId: Int, visited : ArrayList<Int>) {
+    fun breadthFirst(startNodeId : Int, directed : Boolean = mDirected, visitor : NodeVisitor) : Int {
+        val startSlot = mStore.nodeSlots.get(startNodeId, -1)
+        if (startSlot == -1) {
+            return 0
+        }
 
-        // start by adding this node to the visited list
-        visited.add(nodeId)
+        beginTraversal()
+        try {
+            // the work arrays are the queue: slots and their depths
+            var head = 0
+            var tail = 0
+            mWorkSlots[tail] = startSlot
+            mWorkInts[tail++] = 0
+            mVisited.set(startSlot)
+
+            while (head < tail) {
+                val slot = mWorkSlots[head]
+                val depth = mWorkInts[head++]
+                if (visitor.visit(mStore.slotIds[slot], depth) == false) {
+                    break
+                }
 
-        // For considering connectivity, we always use an undirected graph
-        val adjacentNodeIds = getAllAdjacentTo(nodeId, false)
-        adjacentNodeIds.forEach() { adjacentNodeId ->
-            if (visited.contains(adjacentNodeId) == false) {
-                // not found in the visited list, recurse on it!
-                isConnectedHelper(adjacentNodeId, visited)
+                val edgeIds = mStore.slotEdges[slot]
+                for (i in 0 until edgeIds.size) {
+                    val nextSlot = getNeighborSlot(slot, edgeIds[i], directed)
+                    if ((nextSlot != -1) && (mVisited.get(nextSlot) == false)) {
+                        mVisited.set(nextSlot)
+                        mWorkSlots[tail] = nextSlot
+                        mWorkInts[tail++] = depth + 1
+                    }
+                }
             }
+            return head
+        }
+        finally {
+            endTraversal()
         }
     }
 
 
+    /**
+     * Walks the Graph depth-first (pre-order) from the given node.  Uses an
+     * explicit stack, so long paths can't overflow anything.  Same rules
+     * and costs as [breadthFirst].
+     *
+     * @return  The number of nodes visited.
+     */
+    fun depthFirst(startNodeId : Int, directed : Boolean = mDirected, visitor : NodeVisitor) : Int {
+        val startSlot = mStore.nodeSlots.get(startNodeId, -1)
+        if (startSlot == -1) {
+            return 0
+        }
+
+        beginTraversal()
+        try {
+            mVisited.set(startSlot)
+            var count = 1
+            if (visitor.visit(startNodeId, 0) == false) {
+                return count
+            }
+
+            // the work arrays are the stack: slots and how far we've gotten
+            // through each one's edge list
+            var top = 0
+            mWorkSlots[top] = startSlot
+            mWorkInts[top++] = 0
+
+            while (top > 0) {
+                val slot = mWorkSlots[top - 1]
+                val edgeIds = mStore.slotEdges[slot]
+                val position = mWorkInts[top - 1]
+                if (position == edgeIds.size) {
+                    top--       // done with this one
+                    continue
+                }
+                mWorkInts[top - 1] = position + 1
+
+                val nextSlot = getNeighborSlot(slot, edgeIds[position], directed)
+                if ((nextSlot != -1) && (mVisited.get(nextSlot) == false)) {
+                    mVisited.set(nextSlot)
+                    count++
+                    if (visitor.visit(mStore.slotIds[nextSlot], top) == false) {
+                        break
+                    }
+                    mWorkSlots[top] = nextSlot
+                    mWorkInts[top++] = 0
+                }
+            }
+            return count
+        }
+        finally {
+            endTraversal()
+        }
+    }
+
+
+    /**
+     * Finds the number of steps along the shortest path between two nodes.
+     *
+     * O(V + E) worst case (breadth-first, stopping at the target)
+     *
+     * @param   directed    True means only follow edges in their direction.
+     *
+     * @return  The distance, or -1 if you can't get there from here
+     *          (or either node isn't in the Graph).
+     */
+    fun getDistance(fromNodeId : Int, toNodeId : Int, directed : Boolean = mDirected) : Int {
+        if (mStore.nodeSlots.containsKey(toNodeId) == false) {
+            return -1
+        }
+
+        var distance = -1
+        breadthFirst(fromNodeId, directed) { nodeId, depth ->
+            if (nodeId == toNodeId) {
+                distance = depth
+            }
+            distance == -1      // stop once found
+        }
+        return distance
+    }
+
+
+    /**
+     * @return  True if there's a path from one node to the other.
+     */
+    fun isReachable(fromNodeId : Int, toNodeId : Int, directed : Boolean = mDirected) : Boolean {
+        return getDistance(fromNodeId, toNodeId, directed) != -1
+    }
+
+
+    /**
+     * Returns the ids of all the nodes in the same connected component
+     * as the given node (including that node).  Direction is ignored.
+     * Empty if the node isn't in the Graph.
+     *
+     * O(size of the component)
+     */
+    fun getComponentOf(nodeId : Int) : IntArray {
+        val component = IntList()
+        breadthFirst(nodeId, false) { id, _ ->
+            component.add(id)
+            true
+        }
+        return component.toIntArray()
+    }
+
+
+    /**
+     * For traversals: the slot at the other end of the given edge,
+     * or -1 if direction matters and this edge points the wrong way.
+     */
+    private fun getNeighborSlot(slot : Int, edgeId : Int, directed : Boolean) : Int {
+        val edge = mStore.edges[edgeId]!!
+        val nodeId = mStore.slotIds[slot]
+        val otherId = if (edge.startNodeId == nodeId) {
+            edge.endNodeId
+        }
+        else if (directed) {
+            return -1
+        }
+        else {
+            edge.startNodeId
+        }
+        return mStore.nodeSlots.get(otherId, -1)
+    }
+
+
+    private fun beginTraversal() {
+        if (mTraversing) {
+            throw IllegalStateException("Graph traversals can't be nested")
+        }
+        mTraversing = true
+
+        val numSlots = mStore.slotIds.size
+        if (mWorkSlots.size < numSlots) {
+            val newSize = maxOf(numSlots, mWorkSlots.size * 2)
+            mWorkSlots = IntArray(newSize)
+            mWorkInts = IntArray(newSize)
+        }
+        mVisited.clear()
+    }
+
+
+    private fun endTraversal() {
+        mTraversing = false
+    }
+
+
     /**
      * Find all the edges that use the given node.
      * If none are found, the returned list will be empty.
      *
-     * O(n)
+     * O(degree)
      *
      * @param   nodeId      The id of the node in question
      *
@@ -431,13 +1031,15 @@ class Graph<T>(
      */
     protected fun getEdges(nodeId : Int) : List<Edge> {
 
-        val edgeList = ArrayList<Edge>()
+        val slot = mStore.nodeSlots.get(nodeId, -1)
+        if (slot == -1) {
+            return ArrayList()
+        }
 
-        mEdges.forEach() {
-            val edge = it.value
-            if ((edge.startNodeId == nodeId) || (edge.endNodeId == nodeId)) {
-                edgeList.add(edge)
-            }
+        val edgeIds = mStore.slotEdges[slot]
+        val edgeList = ArrayList<Edge>(edgeIds.size)
+        for (i in 0 until edgeIds.size) {
+            edgeList.add(mStore.edges[edgeIds[i]]!!)
         }
         return edgeList
     }
@@ -447,7 +1049,7 @@ class Graph<T>(
      * Returns the number of nodes in this graph.  Hope you didn't make any duplicates!
      */
     fun numNodes() : Int {
-        return mNodes.size
+        return mStore.slotIds.size
     }
 
     /**
@@ -455,7 +1057,7 @@ class Graph<T>(
      * the count for both A->B and B->A IF YOU WERE DUMB ENOUGH TO ENTER THOSE EDGES!
      */
     fun numEdges() : Int {
-        return mEdges.size
+        return mStore.edges.size
     }
 
 
@@ -472,10 +1074,20 @@ class Graph<T>(
      *              FALSE if the node can't be found.
      */
     fun removeNode(id : Int) : Boolean {
-        removeEdgesWithNode(id)
-        if (mNodes.remove(id) == null) {
+        val slot = mStore.nodeSlots.get(id, -1)
+        if (slot == -1) {
             return false
         }
+        // one change as far as the listeners are concerned
+        batch {
+            removeEdgesWithNode(id)
+
+            // fill the hole with the node from the last slot
+            val store = editStore()
+            store.removeSlot(slot)
+            store.nodeIds.release(id)
+            markChanged()
+        }
         return true
     }
 
@@ -485,39 +1097,33 @@ class Graph<T>(
      * edges are removed first!
      */
     fun removeAllNodes() {
-        removeAllEdges()
-        mNodes.clear()
+        if (mStore.slotIds.size > 0) {
+            editStore().clearNodes()
+            markChanged()
+        }
     }
 
 
     /**
      * Removes all the edges that use a given node.  Does not remove that node.
      *
-     * O(n)
+     * O(degree * degree) -- each removal also has to update the neighbor's list
      *
      * @return      The number of edges that were removed.
      */
     fun removeEdgesWithNode(nodeId : Int) : Int {
-        var count = 0
-
-        // Holds the ids of the edges we want to remove
-        val edgesToRemove = mutableSetOf<Int>()
-
-        // determine which edges use this node and put them in our remove list
-        mEdges.forEach() {
-            val edge = it.value
-            if ((edge.startNodeId == nodeId) || (edge.endNodeId == nodeId)) {
-                edgesToRemove.add(it.key)
-            }
+        val slot = mStore.nodeSlots.get(nodeId, -1)
+        if (slot == -1) {
+            return 0
         }
 
-        // finally remove the edges we collected
+        // copy, as removing an edge modifies the list
+        val edgesToRemove = mStore.slotEdges[slot].toIntArray()
         edgesToRemove.forEach() { id ->
-            count++
-            mEdges.remove(id)
+            removeEdgeById(id)
         }
 
-        return count
+        return edgesToRemove.size
     }
 
 
@@ -525,36 +1131,16 @@ class Graph<T>(
      * Removes the specified edge.  For undirected graphs this will try both directions,
      * removing both if they both exist.
      *
-     * O(n)
+     * O(degree)
      *
      * @return  True if an edge was successfully removed.
      */
     fun removeEdge(startNodeId: Int, endNodeId: Int) : Boolean {
-        var found = false
-        var id = 0      // dummy value to keep kotlin from complaining
-
-        // find the edge in question
-        mEdges.forEach() {
-            val edge = it.value
-            if ((edge.startNodeId == startNodeId) && (edge.endNodeId == endNodeId)) {
-                found = true
-                id = it.key
-            }
-
-            // check the reverse for undirected graphs
-            if (mDirected == false) {
-                if ((edge.startNodeId == endNodeId) && (edge.endNodeId == startNodeId)) {
-                    found = true
-                    id = it.key
-                }
-            }
-        }
-
-        if (found) {
-            mEdges.remove(id)
+        val id = getEdgeId(startNodeId, endNodeId)
+        if (id == -1) {
+            return false
         }
-
-        return found
+        return removeEdgeById(id)
     }
 
 
@@ -562,7 +1148,10 @@ class Graph<T>(
      * Quite simply does what it says.  Nodes will remain untouched.
      */
     fun removeAllEdges() {
-        mEdges.clear()
+        if (mStore.edges.size > 0) {
+            editStore().clearEdges()
+            markChanged()
+        }
     }
 
 
@@ -573,7 +1162,7 @@ class Graph<T>(
      *              - null if the id is not valid
      */
     fun getEdgeFromId(id : Int) : Edge? {
-        return mEdges.get(id)
+        return mStore.edges[id]
     }
 
 
@@ -581,32 +1170,24 @@ class Graph<T>(
      * Finds the edge data from the endpoints of this edge.  If the graph is undirected,
      * then start/end doesn't matter.
      *
+     * O(1)
+     *
      * @return      - relevant edge data
      *              - null if could not be found
      */
     fun getEdgeFromNodes(startNodeId: Int, endNodeId: Int) : Edge? {
-
-        var foundEdge : Edge? = null
-
-        mEdges.forEach { (_, edge) ->
-            if ((edge.startNodeId == startNodeId) && (edge.endNodeId == endNodeId)) {
-                foundEdge = edge
-            }
-
-            if (mDirected == false) {
-                if ((edge.startNodeId == endNodeId) && (edge.endNodeId == startNodeId)) {
-                    foundEdge = edge
-                }
-            }
+        val id = getEdgeId(startNodeId, endNodeId)
+        if (id == -1) {
+            return null
         }
-        return foundEdge
+        return mStore.edges[id]
     }
 
     /**
      * Returns all the ids for all the edges in a list
      */
     fun getAllEdgeIds() : Set<Int> {
-        return mEdges.keys
+        return mEdgeIdView
     }
 
     /**
@@ -615,7 +1196,13 @@ class Graph<T>(
      * Note that this does NOT inlude the ids.  Use [getAllEdgeIds] for that.
      */
     fun getAllEdges() : List<Edge> {
-        return ArrayList(mEdges.values)
+        val edgeList = ArrayList<Edge>(mStore.edges.size)
+        var edgeSlot = mStore.edges.nextSlot(0)
+        while (edgeSlot != -1) {
+            edgeList.add(mStore.edges.valueAt(edgeSlot))
+            edgeSlot = mStore.edges.nextSlot(edgeSlot + 1)
+        }
+        return edgeList
     }
 
 
@@ -626,17 +1213,16 @@ class Graph<T>(
      *      Uses the .toString() method of the T class
      */
     override fun toString(): String {
-        var nodeStr = " Nodes[${mNodes.size}]:"
+        var nodeStr = " Nodes[${mStore.slotIds.size}]:"
 
         // display the nodes.
-        mNodes.forEach() {
-            nodeStr += " (${it.key}: ${it.value.toString()})"
+        for (slot in 0 until mStore.slotIds.size) {
+            nodeStr += " (${mStore.slotIds[slot]}: ${mStore.slotData[slot].toString()})"
         }
 
         // the edges
-        var edgeStr = "Edges[${mEdges.size}]:"
-        mEdges.forEach() {
-            val edge = it.value
+        var edgeStr = "Edges[${mStore.edges.size}]:"
+        getAllEdges().forEach() { edge ->
             edgeStr += " (${edge.startNodeId}, ${edge.endNodeId}: ${edge.weight})"
         }
 
@@ -650,6 +1236,17 @@ class Graph<T>(
 
     companion object {
         const val TAG = "Graph"
+
+        /** starting size of the per-slot arrays */
+        private const val INITIAL_SLOTS = GraphStore.INITIAL_SLOTS
+
+        /** cached genus meaning "not connected" (a real genus is never negative) */
+        private const val NOT_CONNECTED = -1
+
+        /** for [getStructureHash], so nodes and edges don't look alike */
+        private const val HASH_GOLDEN = -0x61c8864680b583ebL
+        private const val NODE_SALT = 0x3c6ef372fe94f82bL
+        private const val EDGE_SALT = -0x5ab00ac5a8ff2d3bL
     }
 
 }
@@ -0,0 +1,19 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Hears about changes to a Graph.  Register with [Graph.addChangeListener].
+ */
+fun interface GraphChangeListener {
+
+    /**
+     * Called after the Graph changes: nodes or edges added or removed, or
+     * a node given new data.  During a [Graph.batch] this is called just
+     * once, when the batch is over.
+     *
+     * Modifying the Graph from in here will call this again, so be careful.
+     *
+     * @param   version     The Graph's new version (see [Graph.getVersion]).
+     */
+    fun onGraphChanged(version : Long)
+
+}
@@ -0,0 +1,124 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * A frozen, read-only copy of the shape of a [Graph], made by [Graph.freeze].
+ *
+ * The nodes are numbered densely from 0 until [numNodes] (their "index"),
+ * and the adjacency is stored in compressed-sparse-row (CSR) form:  the
+ * neighbors of node i are the indices neighbors[offsets[i] until offsets[i + 1]].
+ * Everything lives in a few flat IntArrays, so walking it is about as
+ * cache-friendly as it gets.
+ *
+ * For an undirected graph every edge shows up in the rows of both its ends
+ * (a self-loop just once).  For a directed graph a row only holds the
+ * nodes that the edges point TO.
+ *
+ * Node data and edge weights are not part of the snapshot.  Nothing in
+ * here ever changes, so it's safe to share between threads.
+ *
+ *	USAGE:
+ *		for (i in 0 until snapshot.numNodes) {
+ *			for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+ *				val neighbor = snapshot.neighborAt(pos)
+ *				...
+ *			}
+ *		}
+ */
+class GraphSnapshot internal constructor(
+
+    /** Tells whether the Graph was directed */
+    val directed : Boolean,
+
+    /** index -> node id */
+    private val mNodeIds : IntArray,
+
+    /** node id -> index */
+    private val mIndices : IntIntHashMap,
+
+    /** Where each node's row starts in [neighbors].  Has numNodes + 1 items. */
+    internal val offsets : IntArray,
+
+    /** All the rows of neighbor indices, back to back */
+    internal val neighbors : IntArray,
+
+    /** The id of the edge behind each entry in [neighbors] */
+    private val mEdgeIds : IntArray,
+
+    /** Number of edges in the Graph */
+    val numEdges : Int
+) {
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /** Number of nodes.  Indices run from 0 until this. */
+    val numNodes : Int
+        get() = mNodeIds.size
+
+    /**
+     * @return  The Graph's id for the node at this index.
+     */
+    fun getNodeId(index : Int) : Int {
+        return mNodeIds[index]
+    }
+
+    /**
+     * @return  The index of the node with this id, or -1 if it wasn't in the Graph.
+     */
+    fun indexOf(nodeId : Int) : Int {
+        return mIndices.get(nodeId, -1)
+    }
+
+    /**
+     * @return  The number of neighbors in the row for this index (for an undirected
+     *          graph that's the degree, self-loops counting once).
+     */
+    fun getDegree(index : Int) : Int {
+        return offsets[index + 1] - offsets[index]
+    }
+
+    /** Position in the neighbor list where this node's row begins */
+    fun neighborsStart(index : Int) : Int {
+        return offsets[index]
+    }
+
+    /** Position just past the end of this node's row */
+    fun neighborsEnd(index : Int) : Int {
+        return offsets[index + 1]
+    }
+
+    /** The index of the neighbor at a position between [neighborsStart] and [neighborsEnd] */
+    fun neighborAt(position : Int) : Int {
+        return neighbors[position]
+    }
+
+    /** The id of the edge leading to the neighbor at this position */
+    fun edgeIdAt(position : Int) : Int {
+        return mEdgeIds[position]
+    }
+
+    /**
+     * Copies the neighbor indices of a node into dest.
+     *
+     * @return  The number copied (the same as [getDegree]).
+     */
+    fun copyNeighbors(index : Int, dest : IntArray, destOffset : Int = 0) : Int {
+        val start = offsets[index]
+        val count = offsets[index + 1] - start
+        System.arraycopy(neighbors, start, dest, destOffset, count)
+        return count
+    }
+
+    /**
+     * Returns a copy of all the node ids, in index order.
+     */
+    fun getNodeIds() : IntArray {
+        return mNodeIds.copyOf()
+    }
+
+    override fun toString() : String {
+        return "GraphSnapshot[nodes = $numNodes, edges = $numEdges, directed = $directed]"
+    }
+
+}
@@ -0,0 +1,384 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.BitSet
+import java.util.IdentityHashMap
+
+/**
+ * Everything a [Graph] knows, pulled out into one object so that clones
+ * can share it.
+ *
+ * A clone starts out pointing at the same GraphStore as its original.
+ * The first of them to change anything calls [fork] and gets a store of
+ * its own; the other one keeps this store and changes it in place.  Forking copies the flat tables (a handful of
+ * System.arraycopy calls) but NOT the per-node edge lists: those stay
+ * shared until a particular node's list is actually modified, at which
+ * point just that list is copied (see [editableEdges]).
+ *
+ * The Graph does all the bookkeeping; this class just holds the data,
+ * the union-find used for connectivity and (optionally) the reverse
+ * index from node data to node ids.
+ */
+internal class GraphStore<T> private constructor(
+
+    /**
+     * The nodes.  These three lists run in parallel: the node in slot i
+     * has id slotIds[i], data slotData[i] and touches the edges whose
+     * ids are in slotEdges[i] (a self-loop is listed just once).
+     */
+    val slotIds : IntList,
+    val slotData : ArrayList<T>,
+    val slotEdges : ArrayList<IntList>,
+
+    /**
+     * Which of the lists in slotEdges belong to this store alone (and so
+     * may be changed in place).  The rest are shared with another store.
+     */
+    private val mOwnedEdgeLists : BitSet,
+
+    /** node id -> slot */
+    val nodeSlots : IntIntHashMap,
+
+    /** edge id -> edge */
+    val edges : IntHashMap<Edge>,
+
+    /** packed endpoints -> edge id (see Graph.endpointKey()) */
+    val edgeIndex : LongIntHashMap,
+
+    /** which node ids are taken */
+    val nodeIds : IdAllocator,
+
+    /** which edge ids are taken */
+    val edgeIds : IdAllocator,
+
+    /**
+     * Union-find over the slots.  parents[slot] is the parent slot (a root
+     * is its own parent) and treeSizes[root] is the number of nodes under it.
+     */
+    private var mParents : IntArray,
+    private var mTreeSizes : IntArray,
+
+    /** Number of connected components (valid when not dirty) */
+    private var mNumComponents : Int,
+
+    /** True when a removal has made the union-find out of date */
+    var connectivityDirty : Boolean,
+
+    /**
+     * Node data -> the ids of the nodes holding it, matched by identity
+     * (===).  Usually just one id per list.  Null if the Graph doesn't
+     * keep this index.
+     */
+    private val mDataIndex : IdentityHashMap<T, IntList>?
+) {
+
+    constructor(indexData : Boolean) : this(IntList(), ArrayList(), ArrayList(), BitSet(),
+                                            IntIntHashMap(), IntHashMap(), LongIntHashMap(),
+                                            IdAllocator(), IdAllocator(),
+                                            IntArray(INITIAL_SLOTS), IntArray(INITIAL_SLOTS), 0, false,
+                                            if (indexData) IdentityHashMap() else null)
+
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /**
+     * How many Graphs are using this store.  If it's more than one, a
+     * Graph must [fork] before it changes anything.  Graph keeps this
+     * up to date (clones add one, forks take one away).
+     */
+    var numGraphs = 1
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Returns a copy of this store that may be changed without affecting
+     * this one.  The per-node edge lists are NOT copied; they're marked as
+     * shared in the new store and copied one at a time on demand.
+     *
+     * The Graph that forks stops using this store, so [numGraphs] goes
+     * down by one.  Every edge list is now shared with the new store, so
+     * this one doesn't own any of them anymore either.
+     *
+     * O(V + E), but it's all bulk array copies
+     */
+    fun fork() : GraphStore<T> {
+        numGraphs--
+        mOwnedEdgeLists.clear()
+        return GraphStore(slotIds.copy(), ArrayList(slotData), ArrayList(slotEdges), BitSet(),
+                          nodeSlots.copy(), edges.copy(), edgeIndex.copy(),
+                          nodeIds.copy(), edgeIds.copy(),
+                          mParents.copyOf(), mTreeSizes.copyOf(), mNumComponents, connectivityDirty,
+                          copyDataIndex())
+    }
+
+    private fun copyDataIndex() : IdentityHashMap<T, IntList>? {
+        if (mDataIndex == null) {
+            return null
+        }
+        val newIndex = IdentityHashMap<T, IntList>(mDataIndex.size)
+        for ((data, ids) in mDataIndex) {
+            newIndex[data] = ids.copy()
+        }
+        return newIndex
+    }
+
+    /**
+     * Returns the edge list for a slot, ready to be modified.  If the list
+     * is shared with another store, it's copied first.
+     */
+    fun editableEdges(slot : Int) : IntList {
+        if (mOwnedEdgeLists.get(slot) == false) {
+            slotEdges[slot] = slotEdges[slot].copy()
+            mOwnedEdgeLists.set(slot)
+        }
+        return slotEdges[slot]
+    }
+
+    /**
+     * Grows everything so that it can hold the given number of nodes and
+     * edges without resizing again.
+     */
+    fun ensureCapacity(numNodes : Int, numEdges : Int) {
+        slotIds.ensureCapacity(numNodes)
+        slotData.ensureCapacity(numNodes)
+        slotEdges.ensureCapacity(numNodes)
+        nodeSlots.ensureCapacity(numNodes)
+        ensureUnionFindCapacity(numNodes)
+
+        edges.ensureCapacity(numEdges)
+        edgeIndex.ensureCapacity(numEdges)
+    }
+
+    /**
+     * Adds a new node in the next slot.  It starts as a component of its own.
+     *
+     * @return  The new slot
+     */
+    fun addSlot(id : Int, data : T) : Int {
+        val newSlot = slotIds.size
+        nodeSlots.put(id, newSlot)
+        slotIds.add(id)
+        slotData.add(data)
+        slotEdges.add(IntList())
+        mOwnedEdgeLists.set(newSlot)
+        indexData(data, id)
+
+        ensureUnionFindCapacity(newSlot + 1)
+        mParents[newSlot] = newSlot
+        mTreeSizes[newSlot] = 1
+        mNumComponents++
+        return newSlot
+    }
+
+    /**
+     * Removes the node in the given slot by moving the node in the last slot
+     * into its place.  The node's edges must already be gone.
+     */
+    fun removeSlot(slot : Int) {
+        val id = slotIds[slot]
+        unindexData(slotData[slot], id)
+        val lastSlot = slotIds.size - 1
+        if (slot != lastSlot) {
+            val lastId = slotIds[lastSlot]
+            slotIds[slot] = lastId
+            slotData[slot] = slotData[lastSlot]
+            slotEdges[slot] = slotEdges[lastSlot]
+            mOwnedEdgeLists.set(slot, mOwnedEdgeLists.get(lastSlot))
+            nodeSlots.put(lastId, slot)
+        }
+        slotIds.removeLast()
+        slotData.removeAt(lastSlot)
+        slotEdges.removeAt(lastSlot)
+        mOwnedEdgeLists.clear(lastSlot)
+        nodeSlots.remove(id, -1)
+
+        // the slots have moved around, so the union-find is no good
+        connectivityDirty = true
+    }
+
+    /**
+     * Gives the node in the given slot new data.
+     */
+    fun replaceData(slot : Int, data : T) {
+        val id = slotIds[slot]
+        unindexData(slotData[slot], id)
+        slotData[slot] = data
+        indexData(data, id)
+    }
+
+    /**
+     * Looks up a node by its data using the reverse index.
+     *
+     * O(1)
+     *
+     * @return  The id of a node holding exactly this object, or -1 if there
+     *          isn't one.
+     *
+     * @throws  IllegalStateException if this store has no index
+     */
+    fun findIndexed(data : T) : Int {
+        if (mDataIndex == null) {
+            throw IllegalStateException("This Graph doesn't index its data")
+        }
+        val ids = mDataIndex[data] ?: return -1
+        return ids[0]
+    }
+
+    fun hasDataIndex() : Boolean {
+        return mDataIndex != null
+    }
+
+    private fun indexData(data : T, id : Int) {
+        if (mDataIndex == null) {
+            return
+        }
+        var ids = mDataIndex[data]
+        if (ids == null) {
+            ids = IntList(1)
+            mDataIndex[data] = ids
+        }
+        ids.add(id)
+    }
+
+    private fun unindexData(data : T, id : Int) {
+        if (mDataIndex == null) {
+            return
+        }
+        val ids = mDataIndex[data] ?: return
+        ids.removeValue(id)
+        if (ids.isEmpty()) {
+            mDataIndex.remove(data)
+        }
+    }
+
+    /**
+     * Forgets every node (and so every edge).
+     */
+    fun clearNodes() {
+        clearEdges()
+        slotIds.clear()
+        slotData.clear()
+        slotEdges.clear()
+        mOwnedEdgeLists.clear()
+        nodeSlots.clear()
+        nodeIds.clear()
+        mDataIndex?.clear()
+        mNumComponents = 0
+        connectivityDirty = false
+    }
+
+    /**
+     * Forgets every edge.  The nodes stay.
+     */
+    fun clearEdges() {
+        edges.clear()
+        edgeIndex.clear()
+        edgeIds.clear()
+        for (slot in 0 until slotEdges.size) {
+            if (mOwnedEdgeLists.get(slot)) {
+                slotEdges[slot].clear()
+            }
+            else {
+                slotEdges[slot] = IntList()
+                mOwnedEdgeLists.set(slot)
+            }
+        }
+
+        // every node is on its own now
+        rebuildConnectivity()
+    }
+
+    /**
+     * Returns the number of connected components, rebuilding the union-find
+     * first if it's out of date.
+     */
+    fun getNumComponents() : Int {
+        if (connectivityDirty) {
+            rebuildConnectivity()
+        }
+        return mNumComponents
+    }
+
+    /**
+     * Starts the union-find over: every node on its own, then every edge
+     * joins its two ends.
+     *
+     * O(E) (well, O(E * inverse Ackermann))
+     */
+    fun rebuildConnectivity() {
+        val numSlots = slotIds.size
+        ensureUnionFindCapacity(numSlots)
+        for (slot in 0 until numSlots) {
+            mParents[slot] = slot
+            mTreeSizes[slot] = 1
+        }
+        mNumComponents = numSlots
+
+        var edgeSlot = edges.nextSlot(0)
+        while (edgeSlot != -1) {
+            val edge = edges.valueAt(edgeSlot)
+            union(nodeSlots.get(edge.startNodeId, -1), nodeSlots.get(edge.endNodeId, -1))
+            edgeSlot = edges.nextSlot(edgeSlot + 1)
+        }
+
+        connectivityDirty = false
+    }
+
+    /**
+     * Joins the components that hold these two slots (if they're not
+     * already the same component).  The smaller tree goes under the bigger.
+     */
+    fun union(slotA : Int, slotB : Int) {
+        var rootA = findRoot(slotA)
+        var rootB = findRoot(slotB)
+        if (rootA == rootB) {
+            return
+        }
+
+        if (mTreeSizes[rootA] < mTreeSizes[rootB]) {
+            val temp = rootA
+            rootA = rootB
+            rootB = temp
+        }
+        mParents[rootB] = rootA
+        mTreeSizes[rootA] += mTreeSizes[rootB]
+        mNumComponents--
+    }
+
+
+    /**
+     * Finds the root of the tree that holds the given slot, halving
+     * the path along the way.
+     */
+    private fun findRoot(slot : Int) : Int {
+        var current = slot
+        while (mParents[current] != current) {
+            mParents[current] = mParents[mParents[current]]
+            current = mParents[current]
+        }
+        return current
+    }
+
+    private fun ensureUnionFindCapacity(numSlots : Int) {
+        if (numSlots > mParents.size) {
+            val newSize = maxOf(numSlots, mParents.size * 2)
+            mParents = mParents.copyOf(newSize)
+            mTreeSizes = mTreeSizes.copyOf(newSize)
+        }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+        /** starting size of the per-slot arrays */
+        const val INITIAL_SLOTS = 16
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Suggests the next give or take while the player is solving.  It listens
+ * to a [ChipFiringEngine] and keeps a firing script that still wins from
+ * wherever the player has got to.
+ *
+ *	HOW IT WORKS:
+ *		Firing is linear: playing a script s ends at amounts - L * s, in
+ *		any order.  So when the player fires node v some number of times,
+ *		whether it was the hint or not, the script that's left is just s
+ *		with those times taken off s[v].  That's O(1), where solving again
+ *		means a whole [DollarGameSolver] run.  Only setting an amount
+ *		directly (which changes what the board can reach) means solving
+ *		again, and that waits until the next hint is asked for.
+ *
+ *		Adding the same number to every node's entry doesn't change where a
+ *		script ends up (giving with everyone moves nothing), so the script
+ *		is kept as raw entries plus one shared offset.  The fewest moves
+ *		come from the offset that makes the median entry 0.  A count of the
+ *		nodes above, below and at 0, and a count of how many nodes have each
+ *		raw entry, let the offset be nudged one step at a time in O(1); each
+ *		nudge saves at least one move, so the nudging costs O(1) amortized
+ *		for every move the player makes.
+ *
+ *		Hints are taken from a cursor that goes around the nodes, so when
+ *		the player follows them it's O(1) amortized per hint (O(n) at worst,
+ *		well under a millisecond for hundreds of nodes).
+ *
+ *	SOLVING IN THE BACKGROUND:
+ *		[getHint] solves right there when it has to, which is too slow for
+ *		the UI thread on a big board.  [getHintLater] has a
+ *		[SolvabilityOracle] do it instead.  Moves the player makes while
+ *		that's going on are saved up and taken off the new script when it
+ *		arrives; setting an amount meanwhile means solving again.
+ *
+ * Only undirected, connected boards (same as [DollarGameSolver]).
+ * Not thread safe; use it on the engine's thread.
+ */
+class HintEngine(
+
+    /** The engine the player is using.  The hint engine listens to it until [detach]. */
+    val engine : ChipFiringEngine
+) : ChipFiringListener {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    private val mSolver = DollarGameSolver(engine.snapshot)
+
+    /** the script still to play is mScript[i] + mOffset, by index */
+    private val mScript = LongArray(engine.snapshot.numNodes)
+    private var mOffset = 0L
+
+    /** raw script entry -> how many nodes have it */
+    private val mEntryCounts = LongIntHashMap()
+
+    /** how many nodes still have gives (or takes) left to do */
+    private var mNumGives = 0
+    private var mNumTakes = 0
+
+    /** sum of |mScript[i] + mOffset| */
+    private var mMovesLeft = 0L
+
+    private var mWinnable = false
+
+    /** true when the amounts were set directly and the script must be found again */
+    private var mStale = true
+
+    /** where to start looking for the next hint */
+    private var mCursor = 0
+
+    /** fires made while solving in the background, by index (null when not solving) */
+    private var mPendingFires : LongArray? = null
+
+    /** how many times an amount has been set, so background solves can tell they're out of date */
+    private var mAmountSets = 0
+
+    /** who's waiting for [getHintLater] */
+    private var mWaiting : ((SolverMove?) -> Unit)? = null
+
+
+    init {
+        engine.addListener(this)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * The next move to make: a node and how many times it should give
+     * (negative for take) in all.  Any order works, so doing just one give
+     * or take of it is fine too.
+     *
+     * O(1) amortized, or a whole [DollarGameSolver.solve] if the amounts
+     * were set since the last hint.
+     *
+     * @return  Null if the board is already solved or can't be won.
+     */
+    fun getHint() : SolverMove? {
+        refresh()
+        if ((mWinnable == false) || engine.isSolved() || (mMovesLeft == 0L)) {
+            return null
+        }
+
+        val numNodes = mScript.size
+        while (mScript[mCursor] + mOffset == 0L) {
+            mCursor = (mCursor + 1) % numNodes
+        }
+        val times = (mScript[mCursor] + mOffset).coerceIn(Int.MIN_VALUE.toLong(), Int.MAX_VALUE.toLong())
+        return SolverMove(engine.snapshot.getNodeId(mCursor), times.toInt())
+    }
+
+    /**
+     * Same as [getHint], but if the board has to be solved again it's done
+     * in the background by the oracle, and the listener hears about it
+     * later on the oracle's delivery thread (which must be this engine's
+     * thread).  Only the latest listener is called.  It gets null when
+     * [getHint] would, and also if the amounts are too big to solve.
+     *
+     * O(1) amortized here; the solving is done elsewhere.
+     *
+     * @return  True if the listener was called before this returned.
+     */
+    fun getHintLater(oracle : SolvabilityOracle, listener : (SolverMove?) -> Unit) : Boolean {
+        if (mStale == false) {
+            mWaiting = null
+            listener(getHint())
+            return true
+        }
+        mWaiting = listener
+        if (mPendingFires == null) {
+            solveInBackground(oracle)
+        }
+        return false
+    }
+
+    /**
+     * The number of single gives and takes that still win from here.
+     * 0 when solved, -1 if the board can't be won.  O(1)
+     */
+    fun getMovesLeft() : Long {
+        refresh()
+        return if (mWinnable) mMovesLeft else -1L
+    }
+
+    fun isWinnable() : Boolean {
+        refresh()
+        return mWinnable
+    }
+
+    /**
+     * Stops listening to the engine.
+     */
+    fun detach() {
+        engine.removeListener(this)
+        mWaiting = null
+    }
+
+
+    override fun onFired(index : Int, times : Int) {
+        fired(index, times.toLong())
+    }
+
+    override fun onSetFired(indices : IntArray, count : Int, times : Int) {
+        for (i in 0 until count) {
+            fired(indices[i], times.toLong())
+        }
+    }
+
+    override fun onScriptFired(script : IntArray) {
+        for (i in script.indices) {
+            fired(i, script[i].toLong())
+        }
+    }
+
+    override fun onAmountSet(index : Int) {
+        mStale = true
+        mAmountSets++
+    }
+
+
+    /**
+     * A node fired: take it off the script, or save it up for the script
+     * that's being found in the background.
+     */
+    private fun fired(index : Int, times : Long) {
+        if (mStale == false) {
+            changeEntry(index, -times)
+        }
+        else {
+            mPendingFires?.let { it[index] += times }
+        }
+    }
+
+    /**
+     * Has the oracle solve the current amounts.  When the script comes
+     * back, the fires made since are taken off it and the waiting
+     * listener gets its hint.
+     */
+    private fun solveInBackground(oracle : SolvabilityOracle) {
+        val amountSets = mAmountSets
+        val pendingFires = LongArray(mScript.size)
+        mPendingFires = pendingFires
+        oracle.solve(engine.snapshot, engine.getAmounts()) { result ->
+            mPendingFires = null
+            if (mStale && (amountSets != mAmountSets)) {
+                // the amounts were set meanwhile, so this script is no good
+                if (mWaiting != null) {
+                    solveInBackground(oracle)
+                }
+                return@solve
+            }
+            val waiting = mWaiting
+            mWaiting = null
+            if (mStale) {
+                if (result == null) {
+                    // too big to solve: no hint this time (the next ask tries again)
+                    waiting?.invoke(null)
+                    return@solve
+                }
+                load(result)
+                for (i in pendingFires.indices) {
+                    changeEntry(i, -pendingFires[i])
+                }
+            }
+            waiting?.invoke(getHint())
+        }
+    }
+
+    /**
+     * Solves the board again, if the amounts were set since last time.
+     *
+     * Same cost as [DollarGameSolver.solve]
+     */
+    private fun refresh() {
+        if (mStale == false) {
+            return
+        }
+        load(mSolver.solve(engine.getAmounts()))
+    }
+
+    /**
+     * Starts over with a new script from the solver.  O(V)
+     */
+    private fun load(result : SolverResult) {
+        mStale = false
+        mWinnable = result.winnable
+        mEntryCounts.clear()
+        mOffset = 0L
+        mNumGives = 0
+        mNumTakes = 0
+        mMovesLeft = 0L
+        for (i in mScript.indices) {
+            mScript[i] = result.script?.get(i) ?: 0L
+            addEntry(mScript[i])
+        }
+    }
+
+    /**
+     * Adds delta to one node's script entry, then moves the offset if that
+     * saves moves.
+     *
+     * O(1) amortized
+     */
+    private fun changeEntry(index : Int, delta : Long) {
+        if (delta == 0L) {
+            return
+        }
+        removeEntry(mScript[index])
+        mScript[index] += delta
+        addEntry(mScript[index])
+        rebalance()
+    }
+
+    private fun addEntry(raw : Long) {
+        mEntryCounts.put(raw, mEntryCounts.get(raw, 0) + 1)
+        val times = raw + mOffset
+        when {
+            times > 0L -> mNumGives++
+            times < 0L -> mNumTakes++
+        }
+        mMovesLeft += Math.abs(times)
+    }
+
+    private fun removeEntry(raw : Long) {
+        val count = mEntryCounts.get(raw, 0) - 1
+        if (count == 0) {
+            mEntryCounts.remove(raw, 0)
+        }
+        else {
+            mEntryCounts.put(raw, count)
+        }
+        val times = raw + mOffset
+        when {
+            times > 0L -> mNumGives--
+            times < 0L -> mNumTakes--
+        }
+        mMovesLeft -= Math.abs(times)
+    }
+
+    /**
+     * Nudges the offset towards the median, one step at a time, as long
+     * as each step saves moves.  Lowering it by 1 saves a move for every
+     * node with gives left and costs one for every other node (and the
+     * other way around for raising it).
+     */
+    private fun rebalance() {
+        while (true) {
+            val numZeros = mScript.size - mNumGives - mNumTakes
+            if (mNumGives > mNumTakes + numZeros) {
+                val newZeros = mEntryCounts.get(1L - mOffset, 0)
+                mMovesLeft -= mNumGives - mNumTakes - numZeros
+                mNumTakes += numZeros
+                mNumGives -= newZeros
+                mOffset--
+            }
+            else if (mNumTakes > mNumGives + numZeros) {
+                val newZeros = mEntryCounts.get(-1L - mOffset, 0)
+                mMovesLeft -= mNumTakes - mNumGives - numZeros
+                mNumGives += numZeros
+                mNumTakes -= newZeros
+                mOffset++
+            }
+            else {
+                return
+            }
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.BitSet
+
+/**
+ * Hands out non-negative Int ids, always giving the LOWEST id that
+ * isn't currently in use.
+ *
+ * Ids that have never been used are handed out in order from a
+ * high-water mark.  Ids that are released go onto a min-heap so they
+ * can be re-used lowest first.  A BitSet remembers which ids are taken,
+ * which also lets a caller claim a specific id of its own choosing.
+ *
+ *      peek() / acquire()      O(1) amortized, O(log f) when there are
+ *                              f released ids waiting to be re-used
+ *      claim() / release()     O(1), O(log f)
+ *
+ * Negative ids are ignored (they can never conflict with anything this
+ * hands out).  The BitSet grows to the largest id claimed, so claiming
+ * a huge id costs memory.
+ *
+ * Not thread safe.
+ */
+class IdAllocator {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** the ids that are taken */
+    private val mUsed = BitSet()
+
+    /**
+     * Every id below this has been used at some point.  Those that have
+     * since been released are in the heap.
+     */
+    private var mHighWater = 0
+
+    /**
+     * Min-heap of released ids below [mHighWater].  It may hold stale
+     * entries (ids that were claimed again or listed twice); those are
+     * thrown away when they reach the top.
+     */
+    private var mHeap = IntArray(INITIAL_HEAP_SIZE)
+    private var mHeapSize = 0
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Returns the lowest id that's not in use.  Does NOT reserve it.
+     */
+    fun peek() : Int {
+        while ((mHeapSize > 0) && mUsed.get(mHeap[0])) {
+            popHeap()
+        }
+        if (mHeapSize > 0) {
+            return mHeap[0]
+        }
+
+        // skip past any ids that were claimed directly
+        while (mUsed.get(mHighWater)) {
+            mHighWater++
+        }
+        return mHighWater
+    }
+
+    /**
+     * Reserves and returns the lowest id that's not in use.
+     */
+    fun acquire() : Int {
+        val id = peek()
+        claim(id)
+        return id
+    }
+
+    /**
+     * Marks a specific id as being in use.  Claiming an id that's
+     * already in use does nothing.
+     */
+    fun claim(id : Int) {
+        if (id >= 0) {
+            mUsed.set(id)
+        }
+    }
+
+    /**
+     * Makes an id available again.
+     *
+     * @return  True if the id had been in use.
+     */
+    fun release(id : Int) : Boolean {
+        if ((id < 0) || (mUsed.get(id) == false)) {
+            return false
+        }
+        mUsed.clear(id)
+        if (id < mHighWater) {
+            pushHeap(id)
+        }
+        return true
+    }
+
+    fun isUsed(id : Int) : Boolean {
+        return (id >= 0) && mUsed.get(id)
+    }
+
+    /**
+     * Releases every id.
+     */
+    fun clear() {
+        mUsed.clear()
+        mHighWater = 0
+        mHeapSize = 0
+    }
+
+
+    /**
+     * Returns an independent copy of this allocator.
+     */
+    fun copy() : IdAllocator {
+        val newAllocator = IdAllocator()
+        newAllocator.mUsed.or(mUsed)
+        newAllocator.mHighWater = mHighWater
+        newAllocator.mHeap = mHeap.copyOf()
+        newAllocator.mHeapSize = mHeapSize
+        return newAllocator
+    }
+
+
+    private fun pushHeap(id : Int) {
+        if (mHeapSize == mHeap.size) {
+            mHeap = mHeap.copyOf(mHeap.size * 2)
+        }
+
+        // sift up
+        var i = mHeapSize++
+        while (i > 0) {
+            val parent = (i - 1) / 2
+            if (mHeap[parent] <= id) {
+                break
+            }
+            mHeap[i] = mHeap[parent]
+            i = parent
+        }
+        mHeap[i] = id
+    }
+
+    private fun popHeap() {
+        mHeapSize--
+        if (mHeapSize == 0) {
+            return
+        }
+
+        // sift the last item down from the top
+        val id = mHeap[mHeapSize]
+        var i = 0
+        while (true) {
+            var child = 2 * i + 1
+            if (child >= mHeapSize) {
+                break
+            }
+            if ((child + 1 < mHeapSize) && (mHeap[child + 1] < mHeap[child])) {
+                child++
+            }
+            if (mHeap[child] >= id) {
+                break
+            }
+            mHeap[i] = mHeap[child]
+            i = child
+        }
+        mHeap[i] = id
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+        private const val INITIAL_HEAP_SIZE = 16
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * A hash map from Int keys to objects that never boxes its keys.
+ * It works just like [IntIntHashMap] (open addressing, linear probing,
+ * iterate with [nextSlot]); only the values differ.
+ *
+ * Not thread safe.
+ */
+class IntHashMap<V>(expectedSize : Int = 0) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    private var mKeys : IntArray
+    private var mValues : Array<Any?>
+    private var mFilled : BooleanArray
+
+    /** table size - 1.  The table size is always a power of 2 */
+    private var mMask : Int
+
+    /** number of entries before the table must grow */
+    private var mThreshold : Int
+
+    /** number of entries in the map */
+    var size = 0
+        private set
+
+    init {
+        val capacity = tableSizeFor(expectedSize)
+        mKeys = IntArray(capacity)
+        mValues = arrayOfNulls(capacity)
+        mFilled = BooleanArray(capacity)
+        mMask = capacity - 1
+        mThreshold = (capacity * MAX_LOAD_FACTOR).toInt()
+    }
+
+
+    /**
+     * A live, read-only view of the keys.  Iterating it boxes every key,
+     * so prefer [nextSlot] in anything that's called a lot.
+     */
+    val keys : Set<Int> = object : AbstractSet<Int>() {
+
+        override val size : Int
+            get() = this@IntHashMap.size
+
+        override fun contains(element : Int) : Boolean {
+            return containsKey(element)
+        }
+
+        override fun iterator() : Iterator<Int> {
+            return object : Iterator<Int> {
+                var mNext = nextSlot(0)
+
+                override fun hasNext() : Boolean {
+                    return mNext != -1
+                }
+
+                override fun next() : Int {
+                    if (mNext == -1) {
+                        throw NoSuchElementException()
+                    }
+                    val key = mKeys[mNext]
+                    mNext = nextSlot(mNext + 1)
+                    return key
+                }
+            }
+        }
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    fun isEmpty() : Boolean {
+        return size == 0
+    }
+
+    /**
+     * @return  The value for this key, or null if the key isn't here.
+     */
+    operator fun get(key : Int) : V? {
+        val slot = findSlot(key)
+        return if (slot == -1) null else valueAt(slot)
+    }
+
+    fun containsKey(key : Int) : Boolean {
+        return findSlot(key) != -1
+    }
+
+    /**
+     * Maps key to value.
+     *
+     * @return  The value that was replaced, or null if this is a new key.
+     */
+    fun put(key : Int, value : V) : V? {
+        var slot = mixHash(key) and mMask
+        while (mFilled[slot]) {
+            if (mKeys[slot] == key) {
+                val oldValue = valueAt(slot)
+                mValues[slot] = value
+                return oldValue
+            }
+            slot = (slot + 1) and mMask
+        }
+
+        mFilled[slot] = true
+        mKeys[slot] = key
+        mValues[slot] = value
+        size++
+        if (size > mThreshold) {
+            rehash(mKeys.size * 2)
+        }
+        return null
+    }
+
+    /**
+     * Removes the mapping for this key.
+     *
+     * @return  The value that was removed, or null if there was nothing to remove.
+     */
+    fun remove(key : Int) : V? {
+        val slot = findSlot(key)
+        if (slot == -1) {
+            return null
+        }
+        val oldValue = valueAt(slot)
+        removeSlot(slot)
+        return oldValue
+    }
+
+    /**
+     * Grows the table (if needed) so it can hold expectedSize entries
+     * without rehashing again.  Handy before adding lots of entries.
+     */
+    fun ensureCapacity(expectedSize : Int) {
+        val capacity = tableSizeFor(expectedSize)
+        if (capacity > mKeys.size) {
+            rehash(capacity)
+        }
+    }
+
+    fun clear() {
+        if (size > 0) {
+            mFilled.fill(false)
+            mValues.fill(null)
+            size = 0
+        }
+    }
+
+    /**
+     * Returns a copy of this map.  The values themselves are shared, not copied.
+     */
+    fun copy() : IntHashMap<V> {
+        val newMap = IntHashMap<V>()
+        newMap.mKeys = mKeys.copyOf()
+        newMap.mValues = mValues.copyOf()
+        newMap.mFilled = mFilled.copyOf()
+        newMap.mMask = mMask
+        newMap.mThreshold = mThreshold
+        newMap.size = size
+        return newMap
+    }
+
+    /**
+     * @return  The first filled slot at or after fromSlot, or -1 if there are no more.
+     */
+    fun nextSlot(fromSlot : Int) : Int {
+        for (slot in fromSlot until mFilled.size) {
+            if (mFilled[slot]) {
+                return slot
+            }
+        }
+        return -1
+    }
+
+    /** The key in a slot found by [nextSlot] */
+    fun keyAt(slot : Int) : Int {
+        return mKeys[slot]
+    }
+
+    /** The value in a slot found by [nextSlot] */
+    @Suppress("UNCHECKED_CAST")
+    fun valueAt(slot : Int) : V {
+        return mValues[slot] as V
+    }
+
+
+    /**
+     * @return  The slot holding key, or -1 if it's not in the table.
+     */
+    private fun findSlot(key : Int) : Int {
+        var slot = mixHash(key) and mMask
+        while (mFilled[slot]) {
+            if (mKeys[slot] == key) {
+                return slot
+            }
+            slot = (slot + 1) and mMask
+        }
+        return -1
+    }
+
+    /**
+     * Empties the given slot, then slides back any entries further along the
+     * probe run that could live closer to their home slot.
+     */
+    private fun removeSlot(slot : Int) {
+        var hole = slot
+        var current = (slot + 1) and mMask
+        while (mFilled[current]) {
+            val home = mixHash(mKeys[current]) and mMask
+            if (((current - home) and mMask) >= ((current - hole) and mMask)) {
+                mKeys[hole] = mKeys[current]
+                mValues[hole] = mValues[current]
+                hole = current
+            }
+            current = (current + 1) and mMask
+        }
+        mFilled[hole] = false
+        mValues[hole] = null
+        size--
+    }
+
+    private fun rehash(newCapacity : Int) {
+        val oldKeys = mKeys
+        val oldValues = mValues
+        val oldFilled = mFilled
+
+        mKeys = IntArray(newCapacity)
+        mValues = arrayOfNulls(newCapacity)
+        mFilled = BooleanArray(newCapacity)
+        mMask = newCapacity - 1
+        mThreshold = (newCapacity * MAX_LOAD_FACTOR).toInt()
+
+        for (i in oldKeys.indices) {
+            if (oldFilled[i]) {
+                var slot = mixHash(oldKeys[i]) and mMask
+                while (mFilled[slot]) {
+                    slot = (slot + 1) and mMask
+                }
+                mFilled[slot] = true
+                mKeys[slot] = oldKeys[i]
+                mValues[slot] = oldValues[i]
+            }
+        }
+    }
+
+}
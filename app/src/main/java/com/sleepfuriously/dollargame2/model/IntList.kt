@@ -0,0 +1,183 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * A growable list of Ints backed by a plain IntArray, so nothing
+ * is ever boxed.
+ *
+ * Removing by value swaps the last item into the hole, so the order
+ * of the items is NOT preserved.  That's fine for the neighbor and
+ * edge lists it was written for.
+ *
+ * Not thread safe.
+ */
+class IntList(initialCapacity : Int = DEFAULT_CAPACITY) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    private var mData = IntArray(maxOf(initialCapacity, 1))
+
+    /** number of items in the list */
+    var size = 0
+        private set
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    fun isEmpty() : Boolean {
+        return size == 0
+    }
+
+    /**
+     * Adds the value to the end of the list.
+     *
+     * O(1) amortized
+     */
+    fun add(value : Int) {
+        if (size == mData.size) {
+            mData = mData.copyOf(mData.size * 2)
+        }
+        mData[size++] = value
+    }
+
+    /**
+     * @throws  IndexOutOfBoundsException if index is not in [0, size)
+     */
+    operator fun get(index : Int) : Int {
+        if ((index < 0) || (index >= size)) {
+            throw IndexOutOfBoundsException("index $index, size $size")
+        }
+        return mData[index]
+    }
+
+    /**
+     * @throws  IndexOutOfBoundsException if index is not in [0, size)
+     */
+    operator fun set(index : Int, value : Int) {
+        if ((index < 0) || (index >= size)) {
+            throw IndexOutOfBoundsException("index $index, size $size")
+        }
+        mData[index] = value
+    }
+
+    /**
+     * @return  The index of the first occurrence of value, or -1 if it's not here.
+     *
+     * O(n)
+     */
+    fun indexOf(value : Int) : Int {
+        for (i in 0 until size) {
+            if (mData[i] == value) {
+                return i
+            }
+        }
+        return -1
+    }
+
+    fun contains(value : Int) : Boolean {
+        return indexOf(value) != -1
+    }
+
+    /**
+     * Removes the item at the given index by moving the last item into its place.
+     *
+     * O(1)
+     *
+     * @return  The item that was removed.
+     */
+    fun removeAtSwap(index : Int) : Int {
+        val removed = get(index)
+        size--
+        mData[index] = mData[size]
+        return removed
+    }
+
+    /**
+     * Removes the first occurrence of value (moving the last item into its place).
+     *
+     * O(n)
+     *
+     * @return  True if the value was found and removed.
+     */
+    fun removeValue(value : Int) : Boolean {
+        val index = indexOf(value)
+        if (index == -1) {
+            return false
+        }
+        removeAtSwap(index)
+        return true
+    }
+
+    /**
+     * Removes the last item.
+     *
+     * @throws  IndexOutOfBoundsException if the list is empty
+     */
+    fun removeLast() : Int {
+        return removeAtSwap(size - 1)
+    }
+
+    fun clear() {
+        size = 0
+    }
+
+    /**
+     * Makes sure the list can hold minCapacity items without growing.
+     */
+    fun ensureCapacity(minCapacity : Int) {
+        if (minCapacity > mData.size) {
+            mData = mData.copyOf(maxOf(minCapacity, mData.size * 2))
+        }
+    }
+
+    /**
+     * Copies the items into dest starting at destOffset.
+     *
+     * @return  The number of items copied (always [size]).
+     */
+    fun copyInto(dest : IntArray, destOffset : Int = 0) : Int {
+        System.arraycopy(mData, 0, dest, destOffset, size)
+        return size
+    }
+
+    /**
+     * Returns a fresh array holding just the items in this list.
+     */
+    fun toIntArray() : IntArray {
+        return mData.copyOf(size)
+    }
+
+    /**
+     * Returns an independent copy of this list.
+     */
+    fun copy() : IntList {
+        val newList = IntList(maxOf(size, 1))
+        System.arraycopy(mData, 0, newList.mData, 0, size)
+        newList.size = size
+        return newList
+    }
+
+    override fun toString() : String {
+        val builder = StringBuilder("[")
+        for (i in 0 until size) {
+            if (i > 0) {
+                builder.append(", ")
+            }
+            builder.append(mData[i])
+        }
+        return builder.append("]").toString()
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+        private const val DEFAULT_CAPACITY = 4
+    }
+
+}
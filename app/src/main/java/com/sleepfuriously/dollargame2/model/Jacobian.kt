@@ -0,0 +1,104 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.math.BigInteger
+
+/**
+ * The Jacobian (also called the sandpile group, or the critical group)
+ * of a connected, undirected board.  Two Dollar Game boards with the same
+ * total are the same "up to moves" exactly when they differ by an element
+ * of this group, so:
+ *
+ *		- [order] is how many really different boards there are for any
+ *		  given total (it's also the number of spanning trees), and
+ *		- [invariants] say how the group is built:  it's the product of
+ *		  the cyclic groups Z/d for each d.
+ *
+ * The full Picard group is Z x Jacobian (the Z is the total).
+ *
+ * Figured from the Smith normal form of the reduced Laplacian (see
+ * [SmithNormalForm]); which node is left out doesn't matter.
+ */
+class Jacobian private constructor(
+
+    /** The Smith normal form this came from */
+    val smithForm : SmithNormalForm
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /**
+     * The invariant factors, each dividing the next.  Empty if the group
+     * is trivial (the board is a tree).
+     */
+    val invariants : List<BigInteger>
+        get() = smithForm.invariants
+
+    /** Number of elements in the group (the number of spanning trees) */
+    val order : BigInteger = smithForm.getDeterminant()
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /** True if the group is cyclic (at most one invariant factor) */
+    fun isCyclic() : Boolean {
+        return invariants.size <= 1
+    }
+
+    /** True if there's only one element (every winnable board is the same) */
+    fun isTrivial() : Boolean {
+        return invariants.isEmpty()
+    }
+
+    /**
+     * Something like "Z/2 x Z/6", or "0" for the trivial group.
+     */
+    override fun toString() : String {
+        if (invariants.isEmpty()) {
+            return "0"
+        }
+        return invariants.joinToString(" x ") { "Z/$it" }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /**
+         * Figures the Jacobian of a board.
+         *
+         * @throws  IllegalArgumentException for a directed board
+         *
+         * @throws  GraphNotConnectedException if the board isn't connected
+         *          (or has no nodes)
+         */
+        fun of(snapshot : GraphSnapshot) : Jacobian {
+            if (snapshot.directed) {
+                throw IllegalArgumentException("The Jacobian is only for undirected boards")
+            }
+            if (snapshot.numNodes == 0) {
+                throw GraphNotConnectedException()
+            }
+
+            val smithForm = SmithNormalForm.of(Laplacian.reduced(snapshot, 0))
+
+            // a disconnected board has a singular reduced Laplacian
+            if (smithForm.isSingular()) {
+                throw GraphNotConnectedException()
+            }
+            return Jacobian(smithForm)
+        }
+
+        /** Same as [of], straight from a Graph */
+        fun <T> of(graph : Graph<T>) : Jacobian {
+            return of(graph.freeze())
+        }
+    }
+
+}
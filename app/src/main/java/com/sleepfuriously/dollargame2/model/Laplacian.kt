@@ -0,0 +1,317 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.math.BigInteger
+
+/**
+ * The Laplacian matrix of a board, stored sparse.  Almost all of the
+ * Dollar Game math is linear algebra on this matrix:  if x is a firing
+ * script (how many times each node gives, negative for takes), then
+ * playing it changes the amounts by exactly  -L * x.  So a whole script
+ * is one matrix-vector multiply, no matter how many moves are in it.
+ *
+ * L = D - A, where D holds the degrees and A the adjacency (self-loops
+ * don't count for either, since they never move any money).  For a
+ * directed board it's built from the point of view of the money:  column
+ * i says what one give by node i does to everyone, so the diagonal is the
+ * out-degree and row j has a -1 for each node with an edge INTO j.
+ *
+ * The REDUCED Laplacian leaves out the row and column of one node, the
+ * "sink" (q in the solver).  Its determinant counts the spanning trees
+ * and its Smith normal form gives the Picard group.  Matrix indices then
+ * skip the sink (see [toMatrixIndex] and [toNodeIndex]).
+ *
+ * Stored as compressed-sparse-rows, same as [GraphSnapshot]:  the
+ * entries of row r are at positions rowStart(r) until rowEnd(r), and the
+ * diagonal always comes first (even when it's 0).  Immutable, so it's
+ * safe to share between threads.
+ *
+ *	OVERFLOW:
+ *		Three ways to multiply, depending on how big the numbers are:
+ *			IntArray  -> LongArray      can't overflow, fastest
+ *			LongArray -> LongArray      throws ArithmeticException on overflow
+ *			BigInteger                  exact, always, and slow
+ */
+class Laplacian private constructor(
+
+    /** Number of rows (and columns) */
+    val size : Int,
+
+    /** The index of the node left out, or -1 for a full Laplacian */
+    val sink : Int,
+
+    /** Where each row starts in [columns] and [values].  Has size + 1 items. */
+    private val mRowOffsets : IntArray,
+
+    /** The column of each entry */
+    private val mColumns : IntArray,
+
+    /** The value of each entry */
+    private val mValues : IntArray
+) {
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /** Number of entries stored (including the diagonal ones) */
+    val numEntries : Int
+        get() = mValues.size
+
+    fun isReduced() : Boolean {
+        return sink != -1
+    }
+
+    /** Position of the first entry of a row (its diagonal) */
+    fun rowStart(row : Int) : Int {
+        return mRowOffsets[row]
+    }
+
+    /** Position just past the end of a row */
+    fun rowEnd(row : Int) : Int {
+        return mRowOffsets[row + 1]
+    }
+
+    fun columnAt(position : Int) : Int {
+        return mColumns[position]
+    }
+
+    fun valueAt(position : Int) : Int {
+        return mValues[position]
+    }
+
+    /** The diagonal entry of a row (the node's degree).  O(1) */
+    fun getDiagonal(row : Int) : Int {
+        return mValues[mRowOffsets[row]]
+    }
+
+    /**
+     * One entry of the matrix.
+     *
+     * O(degree)
+     */
+    operator fun get(row : Int, column : Int) : Int {
+        for (pos in mRowOffsets[row] until mRowOffsets[row + 1]) {
+            if (mColumns[pos] == column) {
+                return mValues[pos]
+            }
+        }
+        return 0
+    }
+
+    /**
+     * Turns a snapshot index into a row/column number (they're the same
+     * unless this is reduced).
+     *
+     * @return  -1 for the sink
+     */
+    fun toMatrixIndex(nodeIndex : Int) : Int {
+        return when {
+            sink == -1 || nodeIndex < sink -> nodeIndex
+            nodeIndex == sink -> -1
+            else -> nodeIndex - 1
+        }
+    }
+
+    /**
+     * Turns a row/column number back into a snapshot index.
+     */
+    fun toNodeIndex(matrixIndex : Int) : Int {
+        return if ((sink == -1) || (matrixIndex < sink)) matrixIndex else matrixIndex + 1
+    }
+
+    /**
+     * out = L * x.  Int entries times Int values can't overflow a Long
+     * (not even summed over a whole row), so this one never fails.
+     *
+     * O(V + E)
+     */
+    fun multiply(x : IntArray, out : LongArray) {
+        checkSizes(x.size, out.size)
+        for (row in 0 until size) {
+            var sum = 0L
+            for (pos in mRowOffsets[row] until mRowOffsets[row + 1]) {
+                sum += mValues[pos].toLong() * x[mColumns[pos]]
+            }
+            out[row] = sum
+        }
+    }
+
+    /**
+     * out = L * x, with every step checked.
+     *
+     * O(V + E)
+     *
+     * @throws  ArithmeticException if anything overflows a Long (use the
+     *          BigInteger version instead)
+     */
+    fun multiply(x : LongArray, out : LongArray) {
+        checkSizes(x.size, out.size)
+        for (row in 0 until size) {
+            var sum = 0L
+            for (pos in mRowOffsets[row] until mRowOffsets[row + 1]) {
+                sum = Math.addExact(sum, Math.multiplyExact(mValues[pos].toLong(), x[mColumns[pos]]))
+            }
+            out[row] = sum
+        }
+    }
+
+    /**
+     * L * x, exactly, whatever the size of the numbers.
+     *
+     * O(V + E) BigInteger operations
+     */
+    fun multiply(x : Array<BigInteger>) : Array<BigInteger> {
+        checkSizes(x.size, size)
+        return Array(size) { row ->
+            var sum = BigInteger.ZERO
+            for (pos in mRowOffsets[row] until mRowOffsets[row + 1]) {
+                val value = mValues[pos]
+                val entry = x[mColumns[pos]]
+                sum = when (value) {
+                    0 -> sum
+                    -1 -> sum.subtract(entry)
+                    else -> sum.add(entry.multiply(BigInteger.valueOf(value.toLong())))
+                }
+            }
+            sum
+        }
+    }
+
+    /**
+     * Makes a plain 2D copy of the matrix.  For small boards (and tests).
+     *
+     * O(size^2)
+     */
+    fun toDense() : Array<LongArray> {
+        val dense = Array(size) { LongArray(size) }
+        for (row in 0 until size) {
+            for (pos in mRowOffsets[row] until mRowOffsets[row + 1]) {
+                dense[row][mColumns[pos]] = mValues[pos].toLong()
+            }
+        }
+        return dense
+    }
+
+    private fun checkSizes(xSize : Int, outSize : Int) {
+        if ((xSize != size) || (outSize < size)) {
+            throw IllegalArgumentException("need vectors of size $size, got $xSize and $outSize")
+        }
+    }
+
+    override fun toString() : String {
+        return "Laplacian[size = $size, entries = $numEntries, sink = $sink]"
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /**
+         * The full Laplacian of a board.
+         *
+         * O(V + E)
+         */
+        fun of(snapshot : GraphSnapshot) : Laplacian {
+            return build(snapshot, -1)
+        }
+
+        /**
+         * The Laplacian with the row and column of the sink left out.
+         *
+         * O(V + E)
+         *
+         * @param   sink    Snapshot index of the node to leave out.
+         */
+        fun reduced(snapshot : GraphSnapshot, sink : Int) : Laplacian {
+            if ((sink < 0) || (sink >= snapshot.numNodes)) {
+                throw IndexOutOfBoundsException("no node at index $sink")
+            }
+            return build(snapshot, sink)
+        }
+
+        /** Same as [of], straight from a Graph */
+        fun <T> of(graph : Graph<T>) : Laplacian {
+            return of(graph.freeze())
+        }
+
+        /**
+         * Same as [reduced], straight from a Graph.
+         *
+         * @param   sinkNodeId  The Graph's id for the node to leave out.
+         */
+        fun <T> reduced(graph : Graph<T>, sinkNodeId : Int) : Laplacian {
+            val snapshot = graph.freeze()
+            val sink = snapshot.indexOf(sinkNodeId)
+            if (sink == -1) {
+                throw IllegalArgumentException("no node with id $sinkNodeId")
+            }
+            return build(snapshot, sink)
+        }
+
+
+        /**
+         * Fills in the CSR arrays with a counting sort.  Row j needs the
+         * nodes that send money TO j, which for a directed snapshot is the
+         * reverse of how its rows are stored; doing it this way works for
+         * both kinds.
+         */
+        private fun build(snapshot : GraphSnapshot, sink : Int) : Laplacian {
+            val numNodes = snapshot.numNodes
+            val size = if (sink == -1) numNodes else numNodes - 1
+
+            fun matrixIndex(nodeIndex : Int) : Int {
+                return if ((sink == -1) || (nodeIndex < sink)) nodeIndex else nodeIndex - 1
+            }
+
+            // count the entries of each row: the diagonal plus one per giver
+            val rowOffsets = IntArray(size + 1)
+            val diagonal = IntArray(numNodes)
+            for (i in 0 until numNodes) {
+                for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                    val j = snapshot.neighborAt(pos)
+                    if (j != i) {
+                        diagonal[i]++
+                        if ((i != sink) && (j != sink)) {
+                            rowOffsets[matrixIndex(j) + 1]++
+                        }
+                    }
+                }
+            }
+            for (row in 0 until size) {
+                rowOffsets[row + 1] += rowOffsets[row] + 1
+            }
+
+            val columns = IntArray(rowOffsets[size])
+            val values = IntArray(rowOffsets[size])
+            val fill = IntArray(size)
+            for (i in 0 until numNodes) {
+                if (i != sink) {
+                    val row = matrixIndex(i)
+                    columns[rowOffsets[row]] = row
+                    values[rowOffsets[row]] = diagonal[i]
+                    fill[row] = rowOffsets[row] + 1
+                }
+            }
+            for (i in 0 until numNodes) {
+                if (i == sink) {
+                    continue
+                }
+                for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                    val j = snapshot.neighborAt(pos)
+                    if ((j != i) && (j != sink)) {
+                        val row = matrixIndex(j)
+                        columns[fill[row]] = matrixIndex(i)
+                        values[fill[row]] = -1
+                        fill[row]++
+                    }
+                }
+            }
+
+            return Laplacian(size, sink, rowOffsets, columns, values)
+        }
+    }
+
+}
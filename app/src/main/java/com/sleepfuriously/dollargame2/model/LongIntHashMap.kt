@@ -0,0 +1,211 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * A hash map from Long keys to Int values that never boxes.  It's a twin
+ * of [IntIntHashMap] (see there for how to iterate it); handy when the key
+ * is really two Ints packed together.
+ *
+ * Not thread safe.
+ */
+class LongIntHashMap(expectedSize : Int = 0) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    private var mKeys : LongArray
+    private var mValues : IntArray
+    private var mFilled : BooleanArray
+
+    /** table size - 1.  The table size is always a power of 2 */
+    private var mMask : Int
+
+    /** number of entries before the table must grow */
+    private var mThreshold : Int
+
+    /** number of entries in the map */
+    var size = 0
+        private set
+
+
+    init {
+        val capacity = tableSizeFor(expectedSize)
+        mKeys = LongArray(capacity)
+        mValues = IntArray(capacity)
+        mFilled = BooleanArray(capacity)
+        mMask = capacity - 1
+        mThreshold = (capacity * MAX_LOAD_FACTOR).toInt()
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    fun isEmpty() : Boolean {
+        return size == 0
+    }
+
+    /**
+     * @return  The value for this key, or defaultValue if the key isn't here.
+     */
+    fun get(key : Long, defaultValue : Int) : Int {
+        val slot = findSlot(key)
+        return if (slot == -1) defaultValue else mValues[slot]
+    }
+
+    fun containsKey(key : Long) : Boolean {
+        return findSlot(key) != -1
+    }
+
+    /**
+     * Maps key to value, replacing any previous value.
+     */
+    fun put(key : Long, value : Int) {
+        var slot = mixHash(key) and mMask
+        while (mFilled[slot]) {
+            if (mKeys[slot] == key) {
+                mValues[slot] = value
+                return
+            }
+            slot = (slot + 1) and mMask
+        }
+
+        mFilled[slot] = true
+        mKeys[slot] = key
+        mValues[slot] = value
+        size++
+        if (size > mThreshold) {
+            rehash(mKeys.size * 2)
+        }
+    }
+
+    /**
+     * Removes the mapping for this key.
+     *
+     * @return  The value that was removed, or defaultValue if there was nothing to remove.
+     */
+    fun remove(key : Long, defaultValue : Int) : Int {
+        val slot = findSlot(key)
+        if (slot == -1) {
+            return defaultValue
+        }
+        val oldValue = mValues[slot]
+        removeSlot(slot)
+        return oldValue
+    }
+
+    /**
+     * Grows the table (if needed) so it can hold expectedSize entries
+     * without rehashing again.  Handy before adding lots of entries.
+     */
+    fun ensureCapacity(expectedSize : Int) {
+        val capacity = tableSizeFor(expectedSize)
+        if (capacity > mKeys.size) {
+            rehash(capacity)
+        }
+    }
+
+    fun clear() {
+        if (size > 0) {
+            mFilled.fill(false)
+            size = 0
+        }
+    }
+
+    /**
+     * Returns an independent copy of this map.  Just a few array copies.
+     */
+    fun copy() : LongIntHashMap {
+        val newMap = LongIntHashMap()
+        newMap.mKeys = mKeys.copyOf()
+        newMap.mValues = mValues.copyOf()
+        newMap.mFilled = mFilled.copyOf()
+        newMap.mMask = mMask
+        newMap.mThreshold = mThreshold
+        newMap.size = size
+        return newMap
+    }
+
+    /**
+     * @return  The first filled slot at or after fromSlot, or -1 if there are no more.
+     */
+    fun nextSlot(fromSlot : Int) : Int {
+        for (slot in fromSlot until mFilled.size) {
+            if (mFilled[slot]) {
+                return slot
+            }
+        }
+        return -1
+    }
+
+    /** The key in a slot found by [nextSlot] */
+    fun keyAt(slot : Int) : Long {
+        return mKeys[slot]
+    }
+
+    /** The value in a slot found by [nextSlot] */
+    fun valueAt(slot : Int) : Int {
+        return mValues[slot]
+    }
+
+
+    /**
+     * @return  The slot holding key, or -1 if it's not in the table.
+     */
+    private fun findSlot(key : Long) : Int {
+        var slot = mixHash(key) and mMask
+        while (mFilled[slot]) {
+            if (mKeys[slot] == key) {
+                return slot
+            }
+            slot = (slot + 1) and mMask
+        }
+        return -1
+    }
+
+    /**
+     * Empties the given slot, then slides back any entries further along the
+     * probe run that could live closer to their home slot.
+     */
+    private fun removeSlot(slot : Int) {
+        var hole = slot
+        var current = (slot + 1) and mMask
+        while (mFilled[current]) {
+            val home = mixHash(mKeys[current]) and mMask
+            if (((current - home) and mMask) >= ((current - hole) and mMask)) {
+                mKeys[hole] = mKeys[current]
+                mValues[hole] = mValues[current]
+                hole = current
+            }
+            current = (current + 1) and mMask
+        }
+        mFilled[hole] = false
+        size--
+    }
+
+    private fun rehash(newCapacity : Int) {
+        val oldKeys = mKeys
+        val oldValues = mValues
+        val oldFilled = mFilled
+
+        mKeys = LongArray(newCapacity)
+        mValues = IntArray(newCapacity)
+        mFilled = BooleanArray(newCapacity)
+        mMask = newCapacity - 1
+        mThreshold = (newCapacity * MAX_LOAD_FACTOR).toInt()
+
+        for (i in oldKeys.indices) {
+            if (oldFilled[i]) {
+                var slot = mixHash(oldKeys[i]) and mMask
+                while (mFilled[slot]) {
+                    slot = (slot + 1) and mMask
+                }
+                mFilled[slot] = true
+                mKeys[slot] = oldKeys[i]
+                mValues[slot] = oldValues[i]
+            }
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.math.BigInteger
+
+/**
+ * Exact integer determinants without the numbers blowing up along the
+ * way:  the determinant is found modulo a bunch of primes just under
+ * 2^31 (each one is plain Long arithmetic), and the Chinese remainder
+ * theorem puts the answer back together.  The Hadamard bound says how
+ * many primes are enough.
+ *
+ * Used by [SmithNormalForm] and [SpanningTrees].
+ */
+
+/** The biggest prime below 2^31, where the prime search starts */
+private const val FIRST_PRIME = 2147483647L
+
+/** Primes found so far, biggest first (shared, so guarded by itself) */
+private val sPrimes = ArrayList<Long>()
+
+/**
+ * The i-th prime below 2^31, counting down from the top.
+ */
+internal fun largePrime(i : Int) : Long {
+    synchronized(sPrimes) {
+        var candidate = if (sPrimes.isEmpty()) FIRST_PRIME + 2 else sPrimes[sPrimes.size - 1]
+        while (sPrimes.size <= i) {
+            candidate -= 2
+            if (BigInteger.valueOf(candidate).isProbablePrime(40)) {
+                sPrimes.add(candidate)
+            }
+        }
+        return sPrimes[i]
+    }
+}
+
+/**
+ * log2 of the Hadamard bound: |det| is at most the product of the
+ * lengths of the rows.
+ */
+internal fun hadamardBits(a : Array<LongArray>) : Double {
+    var bits = 0.0
+    for (row in a) {
+        var sumOfSquares = 0.0
+        for (value in row) {
+            sumOfSquares += value.toDouble() * value.toDouble()
+        }
+        if (sumOfSquares == 0.0) {
+            return Double.NEGATIVE_INFINITY     // a zero row: det is 0
+        }
+        bits += 0.5 * Math.log(sumOfSquares) / Math.log(2.0)
+    }
+    return bits
+}
+
+/**
+ * The determinant of a square matrix modulo a prime below 2^31, by
+ * Gaussian elimination.  a isn't changed.
+ *
+ * O(n^3)
+ */
+internal fun determinantMod(a : Array<LongArray>, p : Long) : Long {
+    val n = a.size
+    val m = Array(n) { i -> LongArray(n) { j -> Math.floorMod(a[i][j], p) } }
+    var det = 1L
+    for (t in 0 until n) {
+        var pivotRow = t
+        while ((pivotRow < n) && (m[pivotRow][t] == 0L)) {
+            pivotRow++
+        }
+        if (pivotRow == n) {
+            return 0L
+        }
+        if (pivotRow != t) {
+            val temp = m[t]
+            m[t] = m[pivotRow]
+            m[pivotRow] = temp
+            det = p - det
+        }
+
+        det = det * m[t][t] % p
+        val inverse = modInverse(m[t][t], p)
+        for (i in t + 1 until n) {
+            if (m[i][t] != 0L) {
+                val factor = m[i][t] * inverse % p
+                val rowI = m[i]
+                val rowT = m[t]
+                for (j in t until n) {
+                    rowI[j] = (rowI[j] + (p - factor) * rowT[j]) % p
+                }
+            }
+        }
+    }
+    return det % p
+}
+
+/**
+ * The exact determinant of a square matrix, sign and all.
+ *
+ * O(n^3 * (bits of the answer) / 30)
+ */
+internal fun exactDeterminant(a : Array<LongArray>) : BigInteger {
+    if (a.isEmpty()) {
+        return BigInteger.ONE
+    }
+    val bits = hadamardBits(a)
+    if (bits == Double.NEGATIVE_INFINITY) {
+        return BigInteger.ZERO
+    }
+
+    val numPrimes = primesNeeded(bits)
+    val residues = LongArray(numPrimes) { determinantMod(a, largePrime(it)) }
+    return combineResidues(residues)
+}
+
+/**
+ * How many of the [largePrime]s it takes to pin down a number between
+ * -2^bits and 2^bits (with a little to spare).
+ */
+internal fun primesNeeded(bits : Double) : Int {
+    return Math.ceil((bits + 2.0) / 30.0).toInt() + 1
+}
+
+/**
+ * Chinese remaindering:  given x mod largePrime(i) for i in 0 until
+ * residues.size, finds x (the one closest to 0).
+ *
+ * O(k^2) for k residues
+ */
+internal fun combineResidues(residues : LongArray) : BigInteger {
+    var result = BigInteger.ZERO
+    var modulus = BigInteger.ONE
+    for (i in residues.indices) {
+        val p = largePrime(i)
+        val bigP = BigInteger.valueOf(p)
+
+        // Garner's step: fix up result so it's also right mod p
+        val current = result.mod(bigP).toLong()
+        val step = Math.floorMod(residues[i] - current, p) * modInverse(modulus.mod(bigP).toLong(), p) % p
+        result = result.add(modulus.multiply(BigInteger.valueOf(step)))
+        modulus = modulus.multiply(bigP)
+    }
+    return if (result.shiftLeft(1) > modulus) result.subtract(modulus) else result
+}
+
+/**
+ * x^-1 mod p (p prime, x not a multiple of p).
+ */
+internal fun modInverse(x : Long, p : Long) : Long {
+    var result = 1L
+    var base = Math.floorMod(x, p)
+    var exponent = p - 2
+    while (exponent > 0) {
+        if ((exponent and 1L) == 1L) {
+            result = result * base % p
+        }
+        base = base * base % p
+        exponent = exponent shr 1
+    }
+    return result
+}
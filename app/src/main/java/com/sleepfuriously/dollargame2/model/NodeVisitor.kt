@@ -0,0 +1,22 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Callback for walking a Graph with [Graph.breadthFirst] or [Graph.depthFirst].
+ */
+fun interface NodeVisitor {
+
+    /**
+     * Called once for each node reached, starting with the start node.
+     *
+     * Don't modify the Graph or start another traversal of it from in here.
+     *
+     * @param   nodeId      The id of the node being visited.
+     *
+     * @param   depth       Number of steps from the start node along the search.
+     *                      For a breadth-first walk this is the shortest distance.
+     *
+     * @return  True to keep going, false to stop the traversal right here.
+     */
+    fun visit(nodeId : Int, depth : Int) : Boolean
+
+}
@@ -0,0 +1,511 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Finds a solution to a Dollar Game board that uses the fewest possible
+ * gives and takes.  [DollarGameSolver] finds *a* solution quickly; this
+ * finds the best one, which can take a lot longer (it's a search).
+ *
+ *	HOW IT WORKS:
+ *		Moves can be done in any order and end up in the same place, so
+ *		only one order is searched: moves are sorted by node index, and a
+ *		node never both gives and takes.  That makes every set of moves show
+ *		up exactly once.
+ *
+ *		The search is IDA* (iterative-deepening A*).  The lower bound on the
+ *		moves still needed is ceil(total debt / biggest degree), since no one
+ *		move can pay off more debt than that.  The fast solver's answer is
+ *		the upper bound: if nothing shorter turns up, it was already the best.
+ *
+ *		Each round of deepening is split up by first move and run across a
+ *		ForkJoinPool.  A [TranspositionTable] remembers which positions have
+ *		already been shown to need too many moves.
+ *
+ *		Positions are keyed by a [ZobristHasher] hash of the amounts, which
+ *		is kept up to date in O(degree) per move.
+ *
+ * The search stops after [maxExpansions] positions.  When that happens,
+ * the result is the best solution found so far, and it's marked as not
+ * proven optimal.
+ *
+ * Only undirected, connected boards (same as [DollarGameSolver]).
+ */
+class OptimalSolver(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot,
+
+    /** Where the work gets done */
+    private val mPool : ForkJoinPool = ForkJoinPool.commonPool(),
+
+    /**
+     * Remembers positions between rounds (and between calls to [solve]).
+     * Its counters show how well it's doing.  Don't share one table between
+     * solvers for different boards: the same amounts mean something else
+     * on a different shape.
+     */
+    val table : TranspositionTable = TranspositionTable(DEFAULT_TABLE_BYTES),
+
+    /** Give up after looking at this many positions */
+    val maxExpansions : Long = DEFAULT_MAX_EXPANSIONS
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** The biggest degree of any node (at least 1), for the heuristic */
+    private val mMaxDegree : Int
+
+    /** Makes the position keys */
+    private val mHasher : ZobristHasher
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("The solver only works on undirected boards")
+        }
+
+        val numNodes = snapshot.numNodes
+        var maxDegree = 1
+        for (i in 0 until numNodes) {
+            maxDegree = maxOf(maxDegree, snapshot.getDegree(i))
+        }
+        mMaxDegree = maxDegree
+        mHasher = ZobristHasher(numNodes)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Finds the shortest solution for these amounts.
+     *
+     * @param   amounts     The money in each node, by snapshot index.
+     *
+     * @throws  GraphNotConnectedException if the board isn't connected
+     */
+    fun solve(amounts : IntArray) : OptimalResult {
+        val startTime = System.nanoTime()
+
+        // the fast solver says if it's possible at all, and gives an upper bound
+        val quick = DollarGameSolver(snapshot).solve(amounts)
+        if (quick.winnable == false) {
+            return OptimalResult(false, false, ArrayList(), 0L, 0L, 0, System.nanoTime() - startTime)
+        }
+
+        val search = Search(amounts)
+        val bound = quick.getNumMoves()
+        var threshold = search.startHeuristic
+        var iterations = 0
+
+        while (threshold < bound) {
+            iterations++
+            search.runRound(threshold)
+
+            val found = search.getSolution()
+            if (found != null) {
+                return OptimalResult(true, true, found, search.expanded.get(), search.tableHits.get(),
+                                     iterations, System.nanoTime() - startTime)
+            }
+            if (search.outOfBudget.get()) {
+                return OptimalResult(true, false, quick.getMoves(), search.expanded.get(),
+                                     search.tableHits.get(), iterations, System.nanoTime() - startTime)
+            }
+
+            // the next smallest total that got cut off
+            val next = search.nextThreshold.get()
+            if (next == Int.MAX_VALUE) {
+                break
+            }
+            threshold = next
+        }
+
+        // nothing shorter than the fast solver's answer
+        return OptimalResult(true, true, quick.getMoves(), search.expanded.get(), search.tableHits.get(),
+                             iterations, System.nanoTime() - startTime)
+    }
+
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    //  internal classes
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    /**
+     * Everything about one call to [solve] that the threads share.
+     */
+    private inner class Search(val amounts : IntArray) {
+
+        val startKey : Long
+        val startDebt : Long
+        val startHeuristic : Int
+
+        /** positions looked at (all rounds) */
+        val expanded = AtomicLong()
+
+        /** positions skipped thanks to the table */
+        val tableHits = AtomicLong()
+
+        /** smallest f that went over the threshold this round */
+        val nextThreshold = AtomicInteger(Int.MAX_VALUE)
+
+        /** set when someone finds a solution or the budget runs out */
+        val stop = AtomicBoolean()
+        val outOfBudget = AtomicBoolean()
+
+        /** the winning moves, and which first move they started with */
+        private var mSolution : IntArray? = null
+        private var mSolutionTask = Int.MAX_VALUE
+
+        init {
+            var debt = 0L
+            for (i in amounts.indices) {
+                if (amounts[i] < 0) {
+                    debt -= amounts[i]
+                }
+            }
+            startKey = mHasher.hashOf(amounts)
+            startDebt = debt
+            startHeuristic = heuristic(debt)
+        }
+
+        fun runRound(threshold : Int) {
+            nextThreshold.set(Int.MAX_VALUE)
+            val tasks = ArrayList<RoundTask>()
+            for (i in 0 until snapshot.numNodes) {
+                tasks.add(RoundTask(this, threshold, i, GIVE, tasks.size))
+                tasks.add(RoundTask(this, threshold, i, TAKE, tasks.size))
+            }
+            mPool.invoke(object : RecursiveAction() {
+                override fun compute() {
+                    invokeAll(tasks)
+                }
+            })
+        }
+
+        /**
+         * Takes a solution found by one of the tasks.  They're all the same
+         * length (everything in a round has the same threshold), but if
+         * several come in, the one from the lowest-numbered task wins.
+         */
+        @Synchronized
+        fun offerSolution(moves : IntArray, taskNumber : Int) {
+            if (taskNumber < mSolutionTask) {
+                mSolution = moves
+                mSolutionTask = taskNumber
+            }
+            stop.set(true)
+        }
+
+        /**
+         * Turns the winning moves (if any) into a list of [SolverMove]s.
+         */
+        @Synchronized
+        fun getSolution() : List<SolverMove>? {
+            val moves = mSolution ?: return null
+            val list = ArrayList<SolverMove>()
+            var i = 0
+            while (i < moves.size) {
+                val node = moves[i] shr 1
+                val direction = moves[i] and 1
+                var count = 0
+                while ((i < moves.size) && (moves[i] == moves[i - count])) {
+                    count++
+                    i++
+                }
+                list.add(SolverMove(snapshot.getNodeId(node), if (direction == GIVE) count else -count))
+            }
+            return list
+        }
+
+        fun heuristic(debt : Long) : Int {
+            return ((debt + mMaxDegree - 1) / mMaxDegree).toInt()
+        }
+    }
+
+
+    /**
+     * One round of the search, for all the move lists that start with one
+     * particular move.  A plain depth-first search with its own stack, so
+     * long solutions can't overflow anything.
+     */
+    private inner class RoundTask(
+        val search : Search,
+        val threshold : Int,
+        val firstNode : Int,
+        val firstDirection : Int,
+        val taskNumber : Int
+    ) : RecursiveAction() {
+
+        private val mAmounts = search.amounts.copyOf()
+        private var mDebt = search.startDebt
+        private var mKey = search.startKey
+
+        /** the moves made so far, each packed as node * 2 + direction */
+        private val mMoves = IntArray(threshold + 1)
+
+        /** for each depth, the next move to try there */
+        private val mNextMoves = IntArray(threshold + 1)
+
+        private var mExpanded = 0L
+        private var mNextThreshold = Int.MAX_VALUE
+
+        override fun compute() {
+            if (threshold == 0) {
+                return
+            }
+            try {
+                search()
+            }
+            finally {
+                search.expanded.addAndGet(mExpanded)
+                search.nextThreshold.accumulateAndGet(mNextThreshold) { a, b -> minOf(a, b) }
+            }
+        }
+
+        private fun search() {
+            val firstMove = firstNode * 2 + firstDirection
+            if (tryMove(firstMove, 0) != DESCEND) {
+                return
+            }
+
+            var depth = 1
+            mNextMoves[depth] = firstMove
+            while (true) {
+                val move = mNextMoves[depth]
+                if (move == NO_MOVE) {
+                    // nothing under the previous move worked: remember that
+                    depth--
+                    val failedMove = mMoves[depth]
+                    rememberFailure(failedMove, threshold - (depth + 1))
+                    undo(failedMove)
+                    if (depth == 0) {
+                        return
+                    }
+                    continue
+                }
+
+                mNextMoves[depth] = nextMove(move, mMoves[depth - 1])
+                when (tryMove(move, depth)) {
+                    DESCEND -> {
+                        depth++
+                        mNextMoves[depth] = move        // the same move may come again
+                    }
+                    STOP -> return
+                }
+            }
+        }
+
+        /**
+         * Makes a move and decides what to do next.  Unless it says to
+         * descend, the move has been undone again.
+         *
+         * @return  DESCEND, PRUNED or STOP (solved or out of time)
+         */
+        private fun tryMove(move : Int, depth : Int) : Int {
+            apply(move)
+            mMoves[depth] = move
+            val numMoves = depth + 1
+
+            mExpanded++
+            if ((mExpanded and CHECK_MASK) == 0L) {
+                if (search.stop.get()) {
+                    return STOP
+                }
+                if (search.expanded.get() + mExpanded > maxExpansions) {
+                    search.outOfBudget.set(true)
+                    search.stop.set(true)
+                    return STOP
+                }
+            }
+
+            if (mDebt == 0L) {
+                search.offerSolution(mMoves.copyOf(numMoves), taskNumber)
+                return STOP
+            }
+
+            val total = numMoves + search.heuristic(mDebt)
+            if (total > threshold) {
+                mNextThreshold = minOf(mNextThreshold, total)
+                undo(move)
+                return PRUNED
+            }
+
+            val failedBudget = knownFailure(move)
+            if (failedBudget >= threshold - numMoves) {
+                // no solution in failedBudget more moves, but maybe in one more
+                search.tableHits.incrementAndGet()
+                mNextThreshold = minOf(mNextThreshold, numMoves + failedBudget + 1)
+                undo(move)
+                return PRUNED
+            }
+            return DESCEND
+        }
+
+        /**
+         * The move after this one at the same depth, or [NO_MOVE].  Moves
+         * never go backwards, and a node can't take after giving.
+         */
+        private fun nextMove(move : Int, previousMove : Int) : Int {
+            var next = move + 1
+            if ((next shr 1) == (previousMove shr 1)) {
+                next++
+            }
+            return if ((next shr 1) >= snapshot.numNodes) NO_MOVE else next
+        }
+
+        private fun apply(move : Int) {
+            fire(move shr 1, if ((move and 1) == GIVE) 1 else -1)
+        }
+
+        private fun undo(move : Int) {
+            fire(move shr 1, if ((move and 1) == GIVE) -1 else 1)
+        }
+
+        /**
+         * One give (times = 1) or take (-1), keeping the debt and key up to date.
+         *
+         * O(degree)
+         */
+        private fun fire(node : Int, times : Int) {
+            val start = snapshot.neighborsStart(node)
+            val end = snapshot.neighborsEnd(node)
+            change(node, -times * (end - start))
+            for (pos in start until end) {
+                change(snapshot.neighborAt(pos), times)
+            }
+        }
+
+        private fun change(node : Int, delta : Int) {
+            val oldAmount = mAmounts[node]
+            val newAmount = oldAmount + delta
+            mAmounts[node] = newAmount
+            mKey = mHasher.update(mKey, node, oldAmount, newAmount)
+            if (oldAmount < 0) {
+                mDebt += oldAmount
+            }
+            if (newAmount < 0) {
+                mDebt -= newAmount
+            }
+        }
+
+        /**
+         * The table key for the current position: what comes next depends
+         * on the position AND on which moves are still allowed (the last move).
+         */
+        private fun tableKey(lastMove : Int) : Long {
+            return mKey xor (lastMove.toLong() * -0x61c8864680b583ebL)
+        }
+
+        private fun rememberFailure(lastMove : Int, budget : Int) {
+            // the move has NOT been undone yet, so mKey is the position after it
+            // a bigger budget means more work went into it, so it's worth more
+            table.put(tableKey(lastMove), budget, budget)
+        }
+
+        /**
+         * The biggest budget that's known to fail from here (with the same
+         * moves allowed), or -1 if the table doesn't know.
+         */
+        private fun knownFailure(lastMove : Int) : Int {
+            val entry = table.get(tableKey(lastMove))
+            return if (entry == TranspositionTable.MISSING) -1 else TranspositionTable.valueOf(entry)
+        }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /** 16 MB (1M entries) */
+        const val DEFAULT_TABLE_BYTES = 16L shl 20
+
+        const val DEFAULT_MAX_EXPANSIONS = 50_000_000L
+
+        private const val GIVE = 0
+        private const val TAKE = 1
+        private const val NO_MOVE = -1
+
+        /** what [RoundTask.tryMove] says to do */
+        private const val DESCEND = 0
+        private const val PRUNED = 1
+        private const val STOP = 2
+
+        /** how often (in positions) each thread checks if it should stop */
+        private const val CHECK_MASK = 0x3ffL
+
+        /**
+         * Convenience for solving straight from a Graph, using the common pool.
+         *
+         * @param   amountOf    Gets the amount from a node's data.  A node
+         *                      with no data counts as 0.
+         */
+        fun <T> solve(graph : Graph<T>, amountOf : (T) -> Int) : OptimalResult {
+            val snapshot = graph.freeze()
+            val amounts = IntArray(snapshot.numNodes)
+            for (i in 0 until snapshot.numNodes) {
+                val data = graph.getNodeData(snapshot.getNodeId(i))
+                amounts[i] = if (data == null) 0 else amountOf(data)
+            }
+            return OptimalSolver(snapshot).solve(amounts)
+        }
+    }
+
+}
+
+
+/**
+ * What [OptimalSolver.solve] found.
+ */
+class OptimalResult(
+
+    /** True if the game can be won at all */
+    val winnable : Boolean,
+
+    /**
+     * True if [moves] is known to be as short as possible.  False if the
+     * search ran out of budget first (or the game can't be won).
+     */
+    val optimal : Boolean,
+
+    /** The solution, grouped by node.  Order doesn't matter. */
+    val moves : List<SolverMove>,
+
+    /** Number of positions the search looked at */
+    val nodesExpanded : Long,
+
+    /** Number of times the transposition table saved a search */
+    val tableHits : Long,
+
+    /** Number of IDA* rounds */
+    val iterations : Int,
+
+    val elapsedNanos : Long
+) {
+
+    /** The number of single gives and takes in [moves] */
+    fun getNumMoves() : Int {
+        var count = 0
+        for (move in moves) {
+            count += Math.abs(move.times)
+        }
+        return count
+    }
+
+    override fun toString() : String {
+        return "OptimalResult[winnable = $winnable, optimal = $optimal, moves = ${getNumMoves()}, " +
+               "expanded = $nodesExpanded, tableHits = $tableHits, iterations = $iterations, " +
+               "ms = ${elapsedNanos / 1000000}]"
+    }
+
+}
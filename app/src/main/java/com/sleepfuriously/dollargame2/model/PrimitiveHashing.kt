@@ -0,0 +1,39 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Little helpers shared by the open-addressing maps ([IntIntHashMap],
+ * [IntHashMap], [LongIntHashMap]).
+ */
+
+/** The tables are kept at most half full so that linear probes stay short. */
+internal const val MAX_LOAD_FACTOR = 0.5f
+
+/**
+ * Scrambles an Int key so that runs of consecutive ids don't pile up
+ * in the same part of the table (Fibonacci hashing).
+ */
+internal fun mixHash(key : Int) : Int {
+    val h = key * -0x61c88647       // 0x9E3779B9, the golden ratio
+    return h xor (h ushr 16)
+}
+
+/**
+ * Same as [mixHash], but for Long keys.
+ */
+internal fun mixHash(key : Long) : Int {
+    var h = key * -0x61c8864680b583ebL
+    h = h xor (h ushr 32)
+    return mixHash(h.toInt())
+}
+
+/**
+ * Returns the table size (a power of two) needed to hold the given
+ * number of entries without going over [MAX_LOAD_FACTOR].
+ */
+internal fun tableSizeFor(expectedEntries : Int) : Int {
+    val needed = maxOf((expectedEntries / MAX_LOAD_FACTOR).toLong() + 1L, 4L)
+    if (needed > (1L shl 30)) {
+        throw IllegalStateException("Too many entries for a hash table: $expectedEntries")
+    }
+    return Integer.highestOneBit((needed - 1).toInt()) shl 1
+}
@@ -0,0 +1,428 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Finds the Baker-Norine rank of a board: how many dollars of extra debt,
+ * placed anywhere at all, the board can take and still be won.  A board
+ * that can't be won has rank -1.  A rank of 0 means it can be won, but
+ * one more dollar of debt in the wrong place would spoil it.  That makes
+ * the rank a much better measure of how easy a board is than how far its
+ * total is from the genus.
+ *
+ *	HOW IT WORKS:
+ *		The rank is at least k exactly when the board can be won after ANY
+ *		k dollars are taken away.  Taking them one at a time, that's: for
+ *		every node v, the board with one dollar less at v has rank at least
+ *		k - 1.  Each k is tried in turn (iterative deepening), starting
+ *		just past the lower bound, until one fails.
+ *
+ *		Every board in the search is replaced by its q-reduced form (see
+ *		[DollarGameSolver]).  Boards that can be moved into each other
+ *		have the same reduced form and the same rank, so the reduced form
+ *		is the key into a [TranspositionTable] that remembers what's been
+ *		proven about each one (a lower and an upper bound on its rank).
+ *
+ *		The first dollar taken is split up by node and run across a
+ *		ForkJoinPool.  The first task to find a failure stops the others.
+ *
+ *	BOUNDS (d = total, g = genus):
+ *		Riemann-Roch:   rank >= d - g, and if d > 2g - 2, rank = d - g.
+ *		Clifford:       if the board can be won and d <= 2g - 2, rank <= d / 2.
+ *		These settle many boards with no search at all, and cut the search
+ *		off early everywhere else.
+ *
+ * The search is exponential in the rank, so it stops when [timeBudgetMillis]
+ * runs out.  The result then holds the best bounds found so far, marked as
+ * not exact.
+ *
+ * Only undirected, connected boards (same as [DollarGameSolver]).
+ */
+class RankCalculator(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot,
+
+    /** Where the work gets done */
+    private val mPool : ForkJoinPool = ForkJoinPool.commonPool(),
+
+    /**
+     * Remembers reduced boards between rounds (and between calls to
+     * [rank]).  Don't share one table between calculators for different
+     * boards.
+     */
+    val table : TranspositionTable = TranspositionTable(DEFAULT_TABLE_BYTES),
+
+    /** Give up after this long and report bounds instead */
+    val timeBudgetMillis : Long = DEFAULT_TIME_BUDGET_MILLIS
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** edges - nodes + 1, not counting self-loops */
+    val genus : Int
+
+    /** Makes the table keys */
+    private val mHasher : ZobristHasher
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("The rank is only worked out for undirected boards")
+        }
+
+        val numNodes = snapshot.numNodes
+        var ends = 0
+        for (i in 0 until numNodes) {
+            for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                if (snapshot.neighborAt(pos) != i) {
+                    ends++
+                }
+            }
+        }
+        genus = ends / 2 - numNodes + 1
+        mHasher = ZobristHasher(numNodes)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Finds the rank of the board with these amounts.
+     *
+     * @param   amounts     The money in each node, by snapshot index.
+     *
+     * @throws  GraphNotConnectedException if the board isn't connected
+     */
+    fun rank(amounts : IntArray) : RankResult {
+        val startTime = System.nanoTime()
+        val numNodes = snapshot.numNodes
+
+        var total = 0L
+        for (amount in amounts) {
+            total += amount
+        }
+
+        val reduced = LongArray(numNodes)
+        val winnable = DollarGameSolver(snapshot).reduceInto(amounts, reduced)
+        if ((winnable == false) || (total < 0L)) {
+            return RankResult(-1, -1, true, 0L, 0L, 0, System.nanoTime() - startTime)
+        }
+        if (total > 2L * genus - 2) {
+            val rank = minOf(total - genus, Int.MAX_VALUE.toLong()).toInt()
+            return RankResult(rank, rank, true, 0L, 0L, 0, System.nanoTime() - startTime)
+        }
+
+        // from here on the total is at most 2g - 2, so everything fits in Ints
+        val search = Search(IntArray(numNodes) { reduced[it].toInt() }, total.toInt(), startTime)
+        var lower = lowerBound(total.toInt())
+        var upper = upperBound(total.toInt())
+        var iterations = 0
+
+        while (lower < upper) {
+            iterations++
+            when (search.runRound(lower + 1)) {
+                YES -> lower++
+                NO -> upper = lower
+                else -> return RankResult(lower, upper, false, search.positions.get(), search.tableHits.get(),
+                                          iterations, System.nanoTime() - startTime)
+            }
+        }
+        return RankResult(lower, upper, true, search.positions.get(), search.tableHits.get(),
+                          iterations, System.nanoTime() - startTime)
+    }
+
+
+    /** Riemann-Roch: the smallest rank a winnable board with this total can have */
+    private fun lowerBound(total : Int) : Int {
+        return maxOf(0, total - genus)
+    }
+
+    /** Riemann-Roch and Clifford: the biggest rank a winnable board with this total can have */
+    private fun upperBound(total : Int) : Int {
+        return if (total > 2 * genus - 2) total - genus else total / 2
+    }
+
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    //  internal classes
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    /**
+     * Everything about one call to [rank] that the threads share.
+     */
+    private inner class Search(
+
+        /** The q-reduced starting board */
+        val start : IntArray,
+
+        val total : Int,
+
+        startTime : Long
+    ) {
+
+        val deadline = startTime + timeBudgetMillis * 1000000L
+
+        /** boards reduced (all rounds) */
+        val positions = AtomicLong()
+
+        /** boards answered by the table */
+        val tableHits = AtomicLong()
+
+        /** set when someone finds a failure or the time runs out */
+        val stop = AtomicBoolean()
+        val failed = AtomicBoolean()
+        val outOfTime = AtomicBoolean()
+
+        /**
+         * Does the starting board have rank at least k?
+         *
+         * @return  YES, NO, or UNKNOWN if the time ran out first.
+         */
+        fun runRound(k : Int) : Int {
+            stop.set(false)
+            failed.set(false)
+            val tasks = ArrayList<RoundTask>()
+            for (v in 0 until snapshot.numNodes) {
+                tasks.add(RoundTask(this, k, v))
+            }
+            mPool.invoke(object : RecursiveAction() {
+                override fun compute() {
+                    invokeAll(tasks)
+                }
+            })
+
+            return when {
+                failed.get() -> NO
+                outOfTime.get() -> UNKNOWN
+                else -> YES
+            }
+        }
+
+        /** True (and everyone is told to stop) once the deadline has passed */
+        fun checkTime() : Boolean {
+            if (System.nanoTime() - deadline > 0L) {
+                outOfTime.set(true)
+                stop.set(true)
+            }
+            return stop.get()
+        }
+    }
+
+
+    /**
+     * One round of the search, for the boards where the first dollar is
+     * taken from one particular node.  Each level of the search has its
+     * own row in [mBoards], so nothing is allocated once it gets going.
+     */
+    private inner class RoundTask(
+        val search : Search,
+        val k : Int,
+        val firstNode : Int
+    ) : RecursiveAction() {
+
+        private val mSolver = DollarGameSolver(snapshot)
+
+        /** the q-reduced board at each level of the search */
+        private val mBoards = Array(k + 1) { IntArray(snapshot.numNodes) }
+
+        private val mScratch = IntArray(snapshot.numNodes)
+        private val mReduced = LongArray(snapshot.numNodes)
+
+        private var mPositions = 0L
+        private var mTableHits = 0L
+
+        override fun compute() {
+            System.arraycopy(search.start, 0, mBoards[0], 0, snapshot.numNodes)
+            try {
+                if (childAtLeast(0, firstNode, k - 1) == NO) {
+                    search.failed.set(true)
+                    search.stop.set(true)
+                }
+            }
+            finally {
+                search.positions.addAndGet(mPositions)
+                search.tableHits.addAndGet(mTableHits)
+            }
+        }
+
+        /**
+         * Takes a dollar from node v of the board at this level, reduces
+         * it into the next level, and asks if that has rank at least k.
+         *
+         * @return  YES, NO or UNKNOWN (stopped early)
+         */
+        private fun childAtLeast(level : Int, v : Int, k : Int) : Int {
+            mPositions++
+            if (((mPositions and CHECK_MASK) == 0L) && search.checkTime()) {
+                return UNKNOWN
+            }
+            if (search.stop.get()) {
+                return UNKNOWN
+            }
+
+            System.arraycopy(mBoards[level], 0, mScratch, 0, snapshot.numNodes)
+            mScratch[v]--
+            if (mSolver.reduceInto(mScratch, mReduced) == false) {
+                return NO
+            }
+            val child = mBoards[level + 1]
+            for (i in child.indices) {
+                child[i] = mReduced[i].toInt()
+            }
+            return atLeast(level + 1, k)
+        }
+
+        /**
+         * Does the (reduced, winnable) board at this level have rank at
+         * least k?  Tries the bounds, then the table, then every node.
+         *
+         * O(n * (V + E)) per board looked at, and up to n^k boards
+         */
+        private fun atLeast(level : Int, k : Int) : Int {
+            val total = search.total - level
+            if (k <= lowerBound(total)) {
+                return YES
+            }
+            if (k > upperBound(total)) {
+                return NO
+            }
+
+            val key = mHasher.hashOf(mBoards[level])
+            val entry = table.get(key)
+            var known = if (entry == TranspositionTable.MISSING) UNKNOWN_BOUNDS else TranspositionTable.valueOf(entry)
+            if (lowerOf(known) >= k) {
+                mTableHits++
+                return YES
+            }
+            if (upperOf(known) < k) {
+                mTableHits++
+                return NO
+            }
+
+            var answer = YES
+            for (v in 0 until snapshot.numNodes) {
+                answer = childAtLeast(level, v, k - 1)
+                if (answer != YES) {
+                    break
+                }
+            }
+
+            // someone may have stored something meanwhile; that's fine, it's only lost
+            known = when (answer) {
+                YES -> bounds(maxOf(lowerOf(known), k), upperOf(known))
+                NO -> bounds(lowerOf(known), minOf(upperOf(known), k - 1))
+                else -> return answer
+            }
+            table.put(key, known, k)
+            return answer
+        }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /** 4 MB (256K entries) */
+        const val DEFAULT_TABLE_BYTES = 4L shl 20
+
+        const val DEFAULT_TIME_BUDGET_MILLIS = 2000L
+
+        /** answers to "is the rank at least k?" */
+        private const val YES = 1
+        private const val NO = 0
+        private const val UNKNOWN = -1
+
+        /** how often (in boards) each thread checks the clock */
+        private const val CHECK_MASK = 0xffL
+
+        /**
+         * A table value holds a lower bound + 1 (low 16 bits) and an upper
+         * bound (high 15 bits) on the rank.  An upper bound too big to fit
+         * is just left out, which is always safe.
+         */
+        private const val NO_UPPER = 0x7fff
+        private const val UNKNOWN_BOUNDS = NO_UPPER shl 16
+
+        private fun bounds(lower : Int, upper : Int) : Int {
+            return (minOf(upper, NO_UPPER) shl 16) or (minOf(lower + 1, 0xffff))
+        }
+
+        private fun lowerOf(bounds : Int) : Int {
+            return (bounds and 0xffff) - 1
+        }
+
+        private fun upperOf(bounds : Int) : Int {
+            val upper = bounds ushr 16
+            return if (upper == NO_UPPER) Int.MAX_VALUE else upper
+        }
+
+        /**
+         * Convenience for finding the rank straight from a Graph, using the
+         * common pool.
+         *
+         * @param   amountOf    Gets the amount from a node's data.  A node
+         *                      with no data counts as 0.
+         */
+        fun <T> rank(graph : Graph<T>, amountOf : (T) -> Int) : RankResult {
+            val snapshot = graph.freeze()
+            val amounts = IntArray(snapshot.numNodes)
+            for (i in 0 until snapshot.numNodes) {
+                val data = graph.getNodeData(snapshot.getNodeId(i))
+                amounts[i] = if (data == null) 0 else amountOf(data)
+            }
+            return RankCalculator(snapshot).rank(amounts)
+        }
+    }
+
+}
+
+
+/**
+ * What [RankCalculator.rank] found.  When [exact] is true, [rank] and
+ * [upperBound] are the same.
+ */
+class RankResult(
+
+    /** The rank, or (if not exact) the most it's known to be at least */
+    val rank : Int,
+
+    /** The most the rank could be */
+    val upperBound : Int,
+
+    /** False if the time ran out before the bounds met */
+    val exact : Boolean,
+
+    /** Number of boards the search reduced */
+    val positions : Long,
+
+    /** Number of times the table saved a search */
+    val tableHits : Long,
+
+    /** Number of values of k tried */
+    val iterations : Int,
+
+    val elapsedNanos : Long
+) {
+
+    /** True if the game can be won (rank 0 or more) */
+    fun isWinnable() : Boolean {
+        return rank >= 0
+    }
+
+    override fun toString() : String {
+        return "RankResult[rank = $rank, upperBound = $upperBound, exact = $exact, positions = $positions, " +
+               "tableHits = $tableHits, iterations = $iterations, ms = ${elapsedNanos / 1000000}]"
+    }
+
+}
@@ -0,0 +1,499 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.atomic.AtomicIntegerArray
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Runs a board as an abelian sandpile: any node with at least as many
+ * dollars as edges topples (gives to every neighbor), over and over,
+ * until nobody can.  The dollar game and the sandpile are the same
+ * chip-firing rules; this is for studying boards, not for playing them.
+ *
+ *	HOW IT WORKS:
+ *		It doesn't matter what order nodes topple in, the end is always the
+ *		same (that's the "abelian" part).  So the unstable nodes go in a
+ *		queue, and each one topples as many times in a row as it can when
+ *		it comes up (amount / degree times, all at once), which leaves it
+ *		stable.
+ *		A neighbor goes in the queue when the dollars it gets take it from
+ *		stable to unstable, so nobody is ever in the queue twice and an
+ *		IntArray ring buffer the size of the board is enough.
+ *
+ *		The queue is worked in waves: everything in it when a wave starts.
+ *		With a ForkJoinPool, big waves are split up across the cores.  The
+ *		amounts are an AtomicIntegerArray then, and nothing is locked: only
+ *		the node's own task takes dollars off it (the rest only add), so a
+ *		node is still added to the next wave exactly once.
+ *
+ *		Without a sink some boards never stabilize.  On a connected board
+ *		that's exactly when every node has toppled at least once, so that's
+ *		when it stops.  With a sink (a node that never topples and swallows
+ *		everything it's given) it always stabilizes.
+ *
+ * O(V + E) to start, then O(degree) per node that topples each time it
+ * comes up.  Nothing is allocated once the stabilizer is made.
+ *
+ * Only undirected, connected boards.  One stabilizer may be used for many
+ * sandpiles on the same board, but not by two threads at once.
+ */
+class SandpileStabilizer(
+
+    /** The shape of the board */
+    val snapshot : GraphSnapshot,
+
+    /** The index of the node that swallows dollars, or [NO_SINK] */
+    val sink : Int = NO_SINK,
+
+    /** Where big waves get done.  Null does everything on the calling thread. */
+    private val mPool : ForkJoinPool? = null
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** the queue of unstable nodes, by index */
+    private val mRing : IntArray
+
+    /** the amounts while working in parallel (null if there's no pool) */
+    private val mAtomicAmounts : AtomicIntegerArray?
+
+    /** how many edges of each node go to the node itself */
+    private val mLoops : IntArray
+
+    /** mStamps[i] == mRun when node i has toppled in this run (the avalanche's area) */
+    private val mStamps : IntArray
+    private var mRun = 0
+
+    /**
+     * The most dollars a stable board with no sink can have: the sum of
+     * degree - 1 (no limit if some node can't topple at all).
+     */
+    private val mMostStable : Long
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("The stabilizer only works on undirected boards")
+        }
+        val numNodes = snapshot.numNodes
+        if ((sink != NO_SINK) && ((sink < 0) || (sink >= numNodes))) {
+            throw IllegalArgumentException("no node at sink index $sink")
+        }
+
+        // Both waves can be in the ring at once when working in parallel.
+        mRing = IntArray(if (mPool == null) numNodes else numNodes * 2)
+        mAtomicAmounts = if (mPool == null) null else AtomicIntegerArray(numNodes)
+        mLoops = IntArray(numNodes)
+        mStamps = IntArray(numNodes)
+
+        var mostStable = 0L
+        var allTopple = true
+        for (i in 0 until numNodes) {
+            mostStable += maxOf(snapshot.getDegree(i) - 1, 0)
+            for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                if (snapshot.neighborAt(pos) == i) {
+                    mLoops[i]++
+                }
+            }
+            if (snapshot.getDegree(i) == mLoops[i]) {
+                // never topples, so it can hold any amount
+                allTopple = false
+            }
+        }
+        mMostStable = if (allTopple) mostStable else Long.MAX_VALUE
+
+        if (isConnected() == false) {
+            throw IllegalArgumentException("The stabilizer only works on connected boards")
+        }
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Topples until the sandpile is stable.  The amounts are changed in
+     * place.  Nodes in debt just sit there and take what they're given.
+     * If it never stabilizes, the amounts are left wherever it stopped.
+     *
+     * O(V) to start, then O(degree) each time a node comes up
+     *
+     * @param   amounts     The dollars in each node, by snapshot index.
+     *                      The positive ones must add up to no more than
+     *                      Int.MAX_VALUE.
+     *
+     * @throws  ArithmeticException if the amounts are too big
+     */
+    fun stabilize(amounts : IntArray) : StabilizeResult {
+        val numNodes = snapshot.numNodes
+        if (amounts.size != numNodes) {
+            throw IllegalArgumentException("need $numNodes amounts, got ${amounts.size}")
+        }
+
+        var total = 0L
+        var positive = 0L
+        for (i in 0 until numNodes) {
+            if (i != sink) {
+                total += amounts[i]
+                positive += maxOf(amounts[i], 0)
+            }
+        }
+        if (positive > Int.MAX_VALUE) {
+            throw ArithmeticException("the amounts add up to more than an Int")
+        }
+        if ((sink == NO_SINK) && (total > mMostStable)) {
+            // too many dollars for any stable board
+            return StabilizeResult(0L, 0, 0, false)
+        }
+
+        var numQueued = 0
+        for (i in 0 until numNodes) {
+            if (isUnstable(i, amounts[i].toLong())) {
+                mRing[numQueued++] = i
+            }
+        }
+
+        nextRun()
+        if (mPool == null) {
+            return runSerial(amounts, numQueued)
+        }
+        return runParallel(mPool, amounts, numQueued)
+    }
+
+    /**
+     * Drops some dollars on one node of a stable sandpile and topples until
+     * it's stable again.  The topplings are the avalanche's size and the
+     * nodes that toppled are its area.  Only the dropped-on node is looked
+     * at to start, so the rest of the board should already be stable.
+     *
+     * Always done on the calling thread: most avalanches are small, and
+     * the start-up for parallel waves is O(V).
+     *
+     * O(1) to start, then O(degree) each time a node comes up
+     *
+     * @throws  ArithmeticException if the node would have more than
+     *          Int.MAX_VALUE dollars
+     */
+    fun drop(amounts : IntArray, index : Int, grains : Int = 1) : StabilizeResult {
+        val numNodes = snapshot.numNodes
+        if (amounts.size != numNodes) {
+            throw IllegalArgumentException("need $numNodes amounts, got ${amounts.size}")
+        }
+        if (index == sink) {
+            return StabilizeResult(0L, 0, 0, true)
+        }
+
+        amounts[index] = Math.addExact(amounts[index], grains)
+        var numQueued = 0
+        if (isUnstable(index, amounts[index].toLong())) {
+            mRing[numQueued++] = index
+        }
+
+        nextRun()
+        return runSerial(amounts, numQueued)
+    }
+
+    /**
+     * Drops one dollar on each of these nodes in turn, letting each
+     * avalanche finish before the next drop.
+     *
+     * @param   amounts     A stable sandpile, by snapshot index.  Changed
+     *                      in place.
+     *
+     * @param   sites       Where to drop, by snapshot index
+     *
+     * @return  The size (topplings) of each avalanche.  If one never ends,
+     *          it and the ones after it are -1.
+     */
+    fun avalanches(amounts : IntArray, sites : IntArray) : LongArray {
+        val sizes = LongArray(sites.size) { -1L }
+        for (i in sites.indices) {
+            val result = drop(amounts, sites[i])
+            if (result.stable == false) {
+                break
+            }
+            sizes[i] = result.topplings
+        }
+        return sizes
+    }
+
+
+    /**
+     * Works the queue on this thread.  The first numQueued slots of the
+     * ring hold the unstable nodes.
+     */
+    private fun runSerial(amounts : IntArray, numQueued : Int) : StabilizeResult {
+        val numNodes = snapshot.numNodes
+        val capacity = mRing.size
+        var head = 0
+        var tail = numQueued
+        var queued = numQueued
+
+        var topplings = 0L
+        var area = 0
+        var waves = 0
+        while (queued > 0) {
+            waves++
+            var waveLeft = queued
+            while (waveLeft > 0) {
+                val node = mRing[head]
+                head = if (head + 1 == capacity) 0 else head + 1
+                queued--
+                waveLeft--
+
+                val times = timesToTopple(node, amounts[node])
+                amounts[node] -= times * (snapshot.getDegree(node) - mLoops[node])
+                topplings += times
+
+                for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                    val neighbor = snapshot.neighborAt(pos)
+                    if ((neighbor == sink) || (neighbor == node)) {
+                        continue
+                    }
+                    val before = amounts[neighbor]
+                    amounts[neighbor] = before + times
+                    if ((isUnstable(neighbor, before.toLong()) == false) &&
+                        isUnstable(neighbor, before.toLong() + times)) {
+                        mRing[tail] = neighbor
+                        tail = if (tail + 1 == capacity) 0 else tail + 1
+                        queued++
+                    }
+                }
+
+                if (mStamps[node] != mRun) {
+                    mStamps[node] = mRun
+                    area++
+                    if ((sink == NO_SINK) && (area == numNodes)) {
+                        // everybody toppled: it'll go on forever
+                        return StabilizeResult(topplings, area, waves, false)
+                    }
+                }
+            }
+        }
+        return StabilizeResult(topplings, area, waves, true)
+    }
+
+    /**
+     * Works the queue in waves on the pool.  The first numQueued slots of
+     * the ring hold the unstable nodes.
+     */
+    private fun runParallel(pool : ForkJoinPool, amounts : IntArray, numQueued : Int) : StabilizeResult {
+        val numNodes = snapshot.numNodes
+        val atomicAmounts = mAtomicAmounts!!
+        for (i in 0 until numNodes) {
+            atomicAmounts.set(i, amounts[i])
+        }
+
+        val waveState = WaveState(atomicAmounts, numQueued.toLong())
+        var head = 0L
+        var waves = 0
+        var stable = true
+        while (waveState.tail.get() > head) {
+            val end = waveState.tail.get()
+            waves++
+            if (end - head < MIN_PARALLEL_WAVE) {
+                toppleWave(waveState, head, end)
+            }
+            else {
+                pool.invoke(WaveTask(waveState, head, end))
+            }
+            head = end
+
+            if ((sink == NO_SINK) && (waveState.area.get() == numNodes.toLong())) {
+                // everybody toppled: it'll go on forever
+                stable = false
+                break
+            }
+        }
+
+        for (i in 0 until numNodes) {
+            amounts[i] = atomicAmounts.get(i)
+        }
+        return StabilizeResult(waveState.topplings.get(), waveState.area.get().toInt(), waves, stable)
+    }
+
+    /**
+     * Topples the nodes at ring positions from until end, for a parallel
+     * run.  Only the task doing a node takes from it; others may be adding
+     * to it at the same time.
+     */
+    private fun toppleWave(state : WaveState, from : Long, end : Long) {
+        val amounts = state.amounts
+        val capacity = mRing.size
+        var topplings = 0L
+        var area = 0L
+        for (position in from until end) {
+            val node = mRing[(position % capacity).toInt()]
+
+            val times = timesToTopple(node, amounts.get(node))
+            val taken = times * (snapshot.getDegree(node) - mLoops[node])
+            val left = amounts.getAndAdd(node, -taken) - taken
+            topplings += times
+            if (isUnstable(node, left.toLong())) {
+                push(state, node)
+            }
+
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val neighbor = snapshot.neighborAt(pos)
+                if ((neighbor == sink) || (neighbor == node)) {
+                    continue
+                }
+                val before = amounts.getAndAdd(neighbor, times)
+                if ((isUnstable(neighbor, before.toLong()) == false) &&
+                    isUnstable(neighbor, before.toLong() + times)) {
+                    push(state, neighbor)
+                }
+            }
+
+            if (mStamps[node] != mRun) {
+                mStamps[node] = mRun
+                area++
+            }
+        }
+        state.topplings.addAndGet(topplings)
+        state.area.addAndGet(area)
+    }
+
+    /** Adds a node to the next wave of a parallel run. */
+    private fun push(state : WaveState, node : Int) {
+        val position = state.tail.getAndIncrement()
+        mRing[(position % mRing.size).toInt()] = node
+    }
+
+    /**
+     * Unstable: it can topple (the sink never does, and neither does a node
+     * whose only edges are loops, since that would change nothing).
+     */
+    private fun isUnstable(index : Int, amount : Long) : Boolean {
+        val degree = snapshot.getDegree(index)
+        return (index != sink) && (degree > mLoops[index]) && (amount >= degree)
+    }
+
+    /**
+     * How many topplings in a row make an unstable node stable.  It needs
+     * its degree to topple, but only loses the edges that aren't loops.
+     */
+    private fun timesToTopple(index : Int, amount : Int) : Int {
+        val degree = snapshot.getDegree(index)
+        return (amount - degree) / (degree - mLoops[index]) + 1
+    }
+
+    /** Starts a new run for the area stamps.  O(1), except once every 2 billion runs. */
+    private fun nextRun() {
+        if (mRun == Int.MAX_VALUE) {
+            mStamps.fill(0)
+            mRun = 0
+        }
+        mRun++
+    }
+
+    /**
+     * True if every node can be reached from node 0 (always true for an
+     * empty board).  Uses the ring as the search queue.
+     *
+     * O(V + E)
+     */
+    private fun isConnected() : Boolean {
+        val numNodes = snapshot.numNodes
+        if (numNodes == 0) {
+            return true
+        }
+        val seen = BooleanArray(numNodes)
+        seen[0] = true
+        mRing[0] = 0
+        var head = 0
+        var tail = 1
+        while (head < tail) {
+            val node = mRing[head++]
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val neighbor = snapshot.neighborAt(pos)
+                if (seen[neighbor] == false) {
+                    seen[neighbor] = true
+                    mRing[tail++] = neighbor
+                }
+            }
+        }
+        return tail == numNodes
+    }
+
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    //  classes
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    /**
+     * Everything about one parallel run that the tasks share.  Ring
+     * positions only ever go up; the slot is the position mod the ring's
+     * size.
+     */
+    private class WaveState(val amounts : AtomicIntegerArray, startTail : Long) {
+
+        /** where the next unstable node goes */
+        val tail = AtomicLong(startTail)
+
+        val topplings = AtomicLong()
+        val area = AtomicLong()
+    }
+
+    /**
+     * Topples the nodes at ring positions from until end (see
+     * [toppleWave]), splitting itself up while there are lots of them.
+     */
+    private inner class WaveTask(
+        val state : WaveState,
+        val from : Long,
+        val end : Long
+    ) : RecursiveAction() {
+
+        override fun compute() {
+            if (end - from > WAVE_CHUNK) {
+                val middle = (from + end) ushr 1
+                invokeAll(WaveTask(state, from, middle), WaveTask(state, middle, end))
+            }
+            else {
+                toppleWave(state, from, end)
+            }
+        }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /** For [sink]: every node topples */
+        const val NO_SINK = -1
+
+        /** Waves smaller than this aren't worth splitting up */
+        private const val MIN_PARALLEL_WAVE = 4096L
+
+        /** The most nodes one task does */
+        private const val WAVE_CHUNK = 1024L
+    }
+
+}
+
+
+/**
+ * What [SandpileStabilizer.stabilize] or [SandpileStabilizer.drop] did.
+ */
+class StabilizeResult(
+
+    /** The number of single topplings (the avalanche's size) */
+    val topplings : Long,
+
+    /** How many different nodes toppled (the avalanche's area) */
+    val area : Int,
+
+    /** How many times the queue was worked through */
+    val waves : Int,
+
+    /** False if it never would stabilize (only without a sink) */
+    val stable : Boolean
+)
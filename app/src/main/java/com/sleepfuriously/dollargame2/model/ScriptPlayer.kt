@@ -0,0 +1,148 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Plays a firing script on a [ChipFiringEngine] a piece at a time, so
+ * that each piece can be animated.  Call [next] whenever the UI is ready
+ * for the next move; the engine's listeners hear about every one.  Call
+ * [finish] to skip the rest and play it all at once.
+ *
+ * Each piece is either all of one node's gives (or takes), or just a
+ * single give or take (see [singleMoves]).  Nodes go in index order.
+ * Going through the whole script costs O(V + E) in all plus O(1) per
+ * single move, and nothing is allocated after the player is made.
+ *
+ * The script is checked up front: it has to be the right size, and the
+ * amounts at the end have to fit in Ints.  (Amounts part way through
+ * aren't checked.)
+ *
+ *	USAGE:
+ *		val player = ScriptPlayer(engine, result.script)
+ *		while (player.hasNext()) {
+ *			val move = player.next()
+ *			...     // animate move.nodeId giving move.times times
+ *		}
+ *
+ * Not thread safe.  Don't play anything else on the engine while a
+ * player is part way through.
+ */
+class ScriptPlayer(
+
+    /** The engine to play on */
+    val engine : ChipFiringEngine,
+
+    /** How many times each node gives (negative for takes), by index.  Copied. */
+    script : IntArray,
+
+    /** If true, every give or take is its own step.  Otherwise one step per node. */
+    val singleMoves : Boolean = false
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** What hasn't been played yet */
+    private val mRemaining : IntArray
+
+    /** Every index below this has nothing left to play */
+    private var mNextIndex = 0
+
+    /** Number of single gives and takes left */
+    private var mMovesLeft = 0L
+
+
+    init {
+        if (engine.canFireScript(script) == false) {
+            throw IllegalArgumentException("script is the wrong size or would overflow an amount")
+        }
+        mRemaining = script.copyOf()
+        for (times in script) {
+            mMovesLeft += Math.abs(times.toLong())
+        }
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Convenience for a solver's answer.
+     *
+     * @throws  IllegalArgumentException if there's no script (the game
+     *          can't be won), or it's too big for Ints
+     */
+    constructor(engine : ChipFiringEngine, result : SolverResult, singleMoves : Boolean = false) :
+            this(engine, toIntScript(result), singleMoves)
+
+    fun hasNext() : Boolean {
+        return mMovesLeft > 0L
+    }
+
+    /** Number of single gives and takes still to play */
+    fun getMovesLeft() : Long {
+        return mMovesLeft
+    }
+
+    /**
+     * Plays the next step.
+     *
+     * O(degree)
+     *
+     * @return  What was played: the id of the node and how many times it
+     *          gave (negative for takes).
+     *
+     * @throws  NoSuchElementException if there's nothing left
+     */
+    fun next() : SolverMove {
+        while ((mNextIndex < mRemaining.size) && (mRemaining[mNextIndex] == 0)) {
+            mNextIndex++
+        }
+        if (mNextIndex == mRemaining.size) {
+            throw NoSuchElementException()
+        }
+
+        val index = mNextIndex
+        val times = if (singleMoves) Integer.signum(mRemaining[index]) else mRemaining[index]
+        mRemaining[index] -= times
+        mMovesLeft -= Math.abs(times.toLong())
+        engine.fire(index, times)
+        return SolverMove(engine.snapshot.getNodeId(index), times)
+    }
+
+    /**
+     * Plays everything that's left in one go (see [ChipFiringEngine.fireScript]).
+     *
+     * O(V + E)
+     */
+    fun finish() {
+        if (mMovesLeft == 0L) {
+            return
+        }
+        engine.fireScript(mRemaining)
+        mRemaining.fill(0)
+        mNextIndex = mRemaining.size
+        mMovesLeft = 0L
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        private fun toIntScript(result : SolverResult) : IntArray {
+            val script = result.script ?: throw IllegalArgumentException("no solution to play")
+            val intScript = IntArray(script.size)
+            for (i in script.indices) {
+                if ((script[i] < Int.MIN_VALUE) || (script[i] > Int.MAX_VALUE)) {
+                    throw IllegalArgumentException("script is too big to play")
+                }
+                intScript[i] = script[i].toInt()
+            }
+            return intScript
+        }
+    }
+
+}
@@ -0,0 +1,773 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.math.BigInteger
+
+/**
+ * The Smith normal form of a [Laplacian] (usually a reduced one): the
+ * diagonal matrix D = U * L * V, for some invertible integer matrices U
+ * and V, where each diagonal entry divides the next.  The entries bigger
+ * than 1 (the "invariant factors") are what describe the Picard group /
+ * Jacobian of the board (see [Jacobian]).
+ *
+ *	HOW IT WORKS:
+ *		1.  Sparse elimination.  While some entry is 1 or -1, use it as a
+ *		    pivot: subtract its row from the other rows that touch its
+ *		    column, then drop the row and column (that's one diagonal 1).
+ *		    Pivots are picked to cause as little fill-in as possible.  On a
+ *		    Laplacian this gets rid of almost everything, and the rows stay
+ *		    sparse.
+ *		2.  Whatever is left (the "core") is copied into a dense matrix and
+ *		    diagonalized by the usual division-with-remainder row and column
+ *		    operations.
+ *		3.  The diagonal is sorted out with gcd/lcm so each entry divides
+ *		    the next.
+ *
+ *	OVERFLOW:
+ *		Steps 1 and 2 are Long arithmetic with exact (checked) operations.
+ *		If anything overflows, step 1 stops where it is (everything so far
+ *		is still good) and the core goes to a BigInteger version of step 2
+ *		that works modulo the core's determinant D.  That's allowed because
+ *		D times any unit vector is already in the lattice spanned by the
+ *		columns, and it keeps every number below D.  D itself is found
+ *		exactly with modular determinants (see ModularMath.kt).  A singular
+ *		core (D = 0) gets plain BigInteger elimination instead.  Either way
+ *		the answer is always exact.
+ *
+ * A few hundred nodes take milliseconds.  Big boards can leave a big core
+ * (a 30 x 30 grid leaves about 120 rows), and then the modular step costs
+ * O(core^3) operations on numbers the size of D, so seconds rather than
+ * milliseconds; fine for batch work.
+ */
+class SmithNormalForm private constructor(
+
+    /** Number of rows (and columns) of the matrix */
+    val size : Int,
+
+    /** The diagonal entries bigger than 1, smallest first; each divides the next */
+    val invariants : List<BigInteger>,
+
+    /** Number of diagonal entries that are 0 (the rank is size - numZeros) */
+    val numZeros : Int
+) {
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /** Number of diagonal entries that are 1 */
+    val numOnes : Int
+        get() = size - invariants.size - numZeros
+
+    fun isSingular() : Boolean {
+        return numZeros > 0
+    }
+
+    /**
+     * The absolute value of the determinant: the product of the diagonal
+     * (0 if singular).
+     */
+    fun getDeterminant() : BigInteger {
+        if (isSingular()) {
+            return BigInteger.ZERO
+        }
+        var product = BigInteger.ONE
+        for (factor in invariants) {
+            product = product.multiply(factor)
+        }
+        return product
+    }
+
+    /**
+     * The whole diagonal: the 1s, then the invariant factors, then the 0s.
+     *
+     * O(size)
+     */
+    fun getDiagonal() : List<BigInteger> {
+        val diagonal = ArrayList<BigInteger>(size)
+        for (i in 0 until numOnes) {
+            diagonal.add(BigInteger.ONE)
+        }
+        diagonal.addAll(invariants)
+        for (i in 0 until numZeros) {
+            diagonal.add(BigInteger.ZERO)
+        }
+        return diagonal
+    }
+
+    override fun toString() : String {
+        return "SmithNormalForm[size = $size, ones = $numOnes, invariants = $invariants, zeros = $numZeros]"
+    }
+
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    //  internal classes
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    /**
+     * Step 1: the sparse elimination on unit pivots.  Rows are kept as
+     * sorted (column, value) arrays; each column keeps a list of rows that
+     * might have something in it (some may be out of date, so they're
+     * checked before use).
+     */
+    private class SparseEliminator(laplacian : Laplacian) {
+
+        val size = laplacian.size
+
+        val rowColumns = Array(size) { NO_COLUMNS }
+        val rowValues = Array(size) { NO_VALUES }
+        val rowLengths = IntArray(size)
+
+        /** rows that may have an entry in each column (can be stale or repeated) */
+        val columnRows = Array(size) { IntList() }
+
+        /** exact number of entries in each column */
+        val columnCounts = IntArray(size)
+
+        val rowDone = BooleanArray(size)
+        val columnDone = BooleanArray(size)
+
+        /** how many unit pivots have been taken */
+        var numUnits = 0
+
+        /** where a new row is built before it replaces the old one */
+        private var mScratchColumns = IntArray(INITIAL_SCRATCH)
+        private var mScratchValues = LongArray(INITIAL_SCRATCH)
+
+        /** columns gained and lost by the row being built */
+        private val mGained = IntList()
+        private val mLost = IntList()
+
+
+        init {
+            for (row in 0 until size) {
+                // sort the row by column (packed so one LongArray sort does it)
+                val packed = LongArray(laplacian.rowEnd(row) - laplacian.rowStart(row))
+                var count = 0
+                for (pos in laplacian.rowStart(row) until laplacian.rowEnd(row)) {
+                    val value = laplacian.valueAt(pos)
+                    if (value != 0) {
+                        packed[count++] = (laplacian.columnAt(pos).toLong() shl 32) or
+                                          (value.toLong() and 0xffffffffL)
+                    }
+                }
+                packed.sort(0, count)
+
+                val columns = IntArray(count)
+                val values = LongArray(count)
+                for (i in 0 until count) {
+                    columns[i] = (packed[i] ushr 32).toInt()
+                    values[i] = packed[i].toInt().toLong()
+                    columnRows[columns[i]].add(row)
+                    columnCounts[columns[i]]++
+                }
+                rowColumns[row] = columns
+                rowValues[row] = values
+                rowLengths[row] = count
+            }
+        }
+
+        /**
+         * Takes unit pivots until there aren't any more.
+         *
+         * @return  False if it had to stop because of an overflow (the
+         *          matrix is still good, just not finished).
+         */
+        fun eliminate() : Boolean {
+            while (true) {
+                val pivot = findUnitPivot()
+                if (pivot == -1L) {
+                    return true
+                }
+                if (pivotOn((pivot ushr 32).toInt(), pivot.toInt()) == false) {
+                    return false
+                }
+            }
+        }
+
+        /**
+         * Finds the unit entry that should cause the least fill-in
+         * (Markowitz: (row length - 1) * (column count - 1)).
+         *
+         * O(entries)
+         *
+         * @return  The row in the high 32 bits and the column in the low,
+         *          or -1 if there are no unit entries left.
+         */
+        private fun findUnitPivot() : Long {
+            var best = -1L
+            var bestCost = Long.MAX_VALUE
+            for (row in 0 until size) {
+                if (rowDone[row]) {
+                    continue
+                }
+                val length = rowLengths[row]
+                if ((length - 1).toLong() >= bestCost) {
+                    continue        // can't beat it even with the emptiest column
+                }
+                val columns = rowColumns[row]
+                val values = rowValues[row]
+                for (pos in 0 until length) {
+                    if ((values[pos] == 1L) || (values[pos] == -1L)) {
+                        val cost = (length - 1).toLong() * (columnCounts[columns[pos]] - 1)
+                        if (cost < bestCost) {
+                            bestCost = cost
+                            best = (row.toLong() shl 32) or columns[pos].toLong()
+                            if (cost == 0L) {
+                                return best
+                            }
+                        }
+                    }
+                }
+            }
+            return best
+        }
+
+        /**
+         * Clears the pivot's column out of every other row, then retires
+         * the pivot's row and column.
+         *
+         * @return  False on overflow (nothing is retired then).
+         */
+        private fun pivotOn(row : Int, column : Int) : Boolean {
+            val pivotValue = rowValues[row][find(row, column)]
+            val rows = columnRows[column]
+            for (k in 0 until rows.size) {
+                val other = rows[k]
+                if ((other == row) || rowDone[other]) {
+                    continue
+                }
+                val pos = find(other, column)
+                if (pos < 0) {
+                    continue
+                }
+                // the pivot is its own inverse, so this zeroes the column
+                if (subtractRow(other, row, rowValues[other][pos], pivotValue) == false) {
+                    return false
+                }
+            }
+
+            rowDone[row] = true
+            columnDone[column] = true
+            val columns = rowColumns[row]
+            for (pos in 0 until rowLengths[row]) {
+                columnCounts[columns[pos]]--
+            }
+            columnRows[column].clear()
+            numUnits++
+            return true
+        }
+
+        /**
+         * row[target] -= (entry * pivot) * row[source], keeping the columns
+         * sorted and the column bookkeeping up to date.
+         *
+         * @return  False (with nothing changed) if it overflows.
+         */
+        private fun subtractRow(target : Int, source : Int, entry : Long, pivot : Long) : Boolean {
+            val targetColumns = rowColumns[target]
+            val targetValues = rowValues[target]
+            val targetLength = rowLengths[target]
+            val sourceColumns = rowColumns[source]
+            val sourceValues = rowValues[source]
+            val sourceLength = rowLengths[source]
+
+            val maxLength = targetLength + sourceLength
+            if (mScratchColumns.size < maxLength) {
+                mScratchColumns = IntArray(maxLength * 2)
+                mScratchValues = LongArray(maxLength * 2)
+            }
+            mGained.clear()
+            mLost.clear()
+
+            var t = 0
+            var s = 0
+            var length = 0
+            try {
+                val factor = Math.multiplyExact(entry, pivot)
+                while ((t < targetLength) || (s < sourceLength)) {
+                    val targetColumn = if (t < targetLength) targetColumns[t] else Int.MAX_VALUE
+                    val sourceColumn = if (s < sourceLength) sourceColumns[s] else Int.MAX_VALUE
+                    when {
+                        targetColumn < sourceColumn -> {
+                            mScratchColumns[length] = targetColumn
+                            mScratchValues[length++] = targetValues[t++]
+                        }
+                        targetColumn > sourceColumn -> {
+                            mScratchColumns[length] = sourceColumn
+                            mScratchValues[length++] = Math.negateExact(Math.multiplyExact(factor, sourceValues[s++]))
+                            mGained.add(sourceColumn)
+                        }
+                        else -> {
+                            val value = Math.subtractExact(targetValues[t++],
+                                                           Math.multiplyExact(factor, sourceValues[s++]))
+                            if (value == 0L) {
+                                mLost.add(targetColumn)
+                            }
+                            else {
+                                mScratchColumns[length] = targetColumn
+                                mScratchValues[length++] = value
+                            }
+                        }
+                    }
+                }
+            }
+            catch (e : ArithmeticException) {
+                return false
+            }
+
+            rowColumns[target] = mScratchColumns.copyOf(length)
+            rowValues[target] = mScratchValues.copyOf(length)
+            rowLengths[target] = length
+            for (i in 0 until mGained.size) {
+                columnCounts[mGained[i]]++
+                columnRows[mGained[i]].add(target)
+            }
+            for (i in 0 until mLost.size) {
+                columnCounts[mLost[i]]--
+            }
+            return true
+        }
+
+        /**
+         * @return  The position of column in the row, or a negative number.
+         */
+        private fun find(row : Int, column : Int) : Int {
+            return java.util.Arrays.binarySearch(rowColumns[row], 0, rowLengths[row], column)
+        }
+
+        /**
+         * The rows and columns that haven't been retired, as a dense matrix.
+         */
+        fun getCore() : Array<LongArray> {
+            val columnIndex = IntArray(size)
+            var numColumns = 0
+            for (column in 0 until size) {
+                if (columnDone[column] == false) {
+                    columnIndex[column] = numColumns++
+                }
+            }
+
+            val core = ArrayList<LongArray>()
+            for (row in 0 until size) {
+                if (rowDone[row] == false) {
+                    val dense = LongArray(numColumns)
+                    for (pos in 0 until rowLengths[row]) {
+                        dense[columnIndex[rowColumns[row][pos]]] = rowValues[row][pos]
+                    }
+                    core.add(dense)
+                }
+            }
+            return core.toTypedArray()
+        }
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        private const val INITIAL_SCRATCH = 64
+
+        private val NO_COLUMNS = IntArray(0)
+        private val NO_VALUES = LongArray(0)
+
+        /**
+         * Finds the Smith normal form of a Laplacian.
+         */
+        fun of(laplacian : Laplacian) : SmithNormalForm {
+            val eliminator = SparseEliminator(laplacian)
+            val finished = eliminator.eliminate()
+            val core = eliminator.getCore()
+
+            // the diagonal of the core, as absolute values
+            val pivots = ArrayList<BigInteger>()
+            var done = false
+            if (finished) {
+                try {
+                    diagonalizeLong(copyOf(core), pivots)
+                    done = true
+                }
+                catch (e : ArithmeticException) {
+                    pivots.clear()
+                }
+            }
+            if (done == false) {
+                val determinant = exactDeterminant(core).abs()
+                if (determinant.signum() == 0) {
+                    diagonalizeBig(toBig(core), pivots)
+                }
+                else {
+                    diagonalizeModular(core, determinant, pivots)
+                }
+            }
+
+            val numZeros = core.size - pivots.size
+            val invariants = toDivisorChain(pivots)
+            return SmithNormalForm(laplacian.size, invariants, numZeros)
+        }
+
+
+        /**
+         * Diagonalizes a dense matrix (in place) with row and column
+         * operations, adding the absolute value of each nonzero pivot to
+         * pivots.  The pivots don't necessarily divide each other yet.
+         *
+         * @throws  ArithmeticException on overflow
+         */
+        private fun diagonalizeLong(a : Array<LongArray>, pivots : MutableList<BigInteger>) {
+            val numRows = a.size
+            val numColumns = if (numRows == 0) 0 else a[0].size
+            for (t in 0 until minOf(numRows, numColumns)) {
+                // smallest nonzero entry left goes to (t, t)
+                var bestRow = -1
+                var bestColumn = -1
+                for (i in t until numRows) {
+                    for (j in t until numColumns) {
+                        if ((a[i][j] != 0L) &&
+                            ((bestRow == -1) || (absExact(a[i][j]) < absExact(a[bestRow][bestColumn])))) {
+                            bestRow = i
+                            bestColumn = j
+                        }
+                    }
+                }
+                if (bestRow == -1) {
+                    return      // the rest is all 0
+                }
+                swapRows(a, t, bestRow)
+                swapColumns(a, t, bestColumn)
+
+                while (true) {
+                    // clear column t and row t as far as division allows
+                    for (i in t + 1 until numRows) {
+                        if (a[i][t] != 0L) {
+                            val q = a[i][t] / a[t][t]
+                            for (j in t until numColumns) {
+                                a[i][j] = Math.subtractExact(a[i][j], Math.multiplyExact(q, a[t][j]))
+                            }
+                        }
+                    }
+                    for (j in t + 1 until numColumns) {
+                        if (a[t][j] != 0L) {
+                            val q = a[t][j] / a[t][t]
+                            for (i in t until numRows) {
+                                a[i][j] = Math.subtractExact(a[i][j], Math.multiplyExact(q, a[i][t]))
+                            }
+                        }
+                    }
+
+                    // any remainders?  The smallest becomes the new pivot.
+                    var smallest = absExact(a[t][t])
+                    var swapRow = -1
+                    var swapColumn = -1
+                    for (i in t + 1 until numRows) {
+                        if ((a[i][t] != 0L) && (absExact(a[i][t]) < smallest)) {
+                            smallest = absExact(a[i][t])
+                            swapRow = i
+                            swapColumn = -1
+                        }
+                    }
+                    for (j in t + 1 until numColumns) {
+                        if ((a[t][j] != 0L) && (absExact(a[t][j]) < smallest)) {
+                            smallest = absExact(a[t][j])
+                            swapRow = -1
+                            swapColumn = j
+                        }
+                    }
+                    when {
+                        swapRow != -1 -> swapRows(a, t, swapRow)
+                        swapColumn != -1 -> swapColumns(a, t, swapColumn)
+                        else -> break
+                    }
+                }
+                pivots.add(BigInteger.valueOf(absExact(a[t][t])))
+            }
+        }
+
+        /**
+         * Same as [diagonalizeLong], in BigIntegers.
+         */
+        private fun diagonalizeBig(a : Array<Array<BigInteger>>, pivots : MutableList<BigInteger>) {
+            val numRows = a.size
+            val numColumns = if (numRows == 0) 0 else a[0].size
+            for (t in 0 until minOf(numRows, numColumns)) {
+                var bestRow = -1
+                var bestColumn = -1
+                for (i in t until numRows) {
+                    for (j in t until numColumns) {
+                        if ((a[i][j].signum() != 0) &&
+                            ((bestRow == -1) || (a[i][j].abs() < a[bestRow][bestColumn].abs()))) {
+                            bestRow = i
+                            bestColumn = j
+                        }
+                    }
+                }
+                if (bestRow == -1) {
+                    return
+                }
+                swapRows(a, t, bestRow)
+                swapColumns(a, t, bestColumn)
+
+                while (true) {
+                    for (i in t + 1 until numRows) {
+                        if (a[i][t].signum() != 0) {
+                            val q = a[i][t].divide(a[t][t])
+                            for (j in t until numColumns) {
+                                a[i][j] = a[i][j].subtract(q.multiply(a[t][j]))
+                            }
+                        }
+                    }
+                    for (j in t + 1 until numColumns) {
+                        if (a[t][j].signum() != 0) {
+                            val q = a[t][j].divide(a[t][t])
+                            for (i in t until numRows) {
+                                a[i][j] = a[i][j].subtract(q.multiply(a[i][t]))
+                            }
+                        }
+                    }
+
+                    var smallest = a[t][t].abs()
+                    var swapRow = -1
+                    var swapColumn = -1
+                    for (i in t + 1 until numRows) {
+                        if ((a[i][t].signum() != 0) && (a[i][t].abs() < smallest)) {
+                            smallest = a[i][t].abs()
+                            swapRow = i
+                            swapColumn = -1
+                        }
+                    }
+                    for (j in t + 1 until numColumns) {
+                        if ((a[t][j].signum() != 0) && (a[t][j].abs() < smallest)) {
+                            smallest = a[t][j].abs()
+                            swapRow = -1
+                            swapColumn = j
+                        }
+                    }
+                    when {
+                        swapRow != -1 -> swapRows(a, t, swapRow)
+                        swapColumn != -1 -> swapColumns(a, t, swapColumn)
+                        else -> break
+                    }
+                }
+                pivots.add(a[t][t].abs())
+            }
+        }
+
+        /**
+         * Diagonalizes a square, non-singular matrix whose determinant is
+         * +/- d, doing all the arithmetic modulo d.  Pivots are built up
+         * with extended-gcd 2x2 operations (which can't grow anything past
+         * d), and each diagonal entry is taken as gcd(pivot, d).
+         *
+         * O(n^3) operations on numbers below d
+         */
+        private fun diagonalizeModular(core : Array<LongArray>, d : BigInteger, pivots : MutableList<BigInteger>) {
+            val n = core.size
+            val a = Array(n) { i -> Array(n) { j -> BigInteger.valueOf(core[i][j]).mod(d) } }
+            for (t in 0 until n) {
+                while (true) {
+                    // gather the gcd of column t into (t, t)
+                    for (i in t + 1 until n) {
+                        if (a[i][t].signum() != 0) {
+                            combineRows(a, t, i, t, d)
+                        }
+                    }
+
+                    // then the gcd of row t; that may mess up column t again
+                    var messy = false
+                    for (j in t + 1 until n) {
+                        if (a[t][j].signum() != 0) {
+                            combineColumns(a, t, j, t, d)
+                            messy = true
+                        }
+                    }
+                    if (messy == false) {
+                        break
+                    }
+                    var clean = true
+                    for (i in t + 1 until n) {
+                        if (a[i][t].signum() != 0) {
+                            clean = false
+                            break
+                        }
+                    }
+                    if (clean) {
+                        break
+                    }
+                }
+                pivots.add(a[t][t].gcd(d))
+            }
+        }
+
+        /**
+         * Row operations (mod d) that leave gcd(a[t][column], a[i][column])
+         * in row t and 0 in row i.  Unimodular, so nothing is lost.
+         */
+        private fun combineRows(a : Array<Array<BigInteger>>, t : Int, i : Int, column : Int, d : BigInteger) {
+            val top = a[t][column]
+            val bottom = a[i][column]
+            if (top.signum() == 0) {
+                swapRows(a, t, i)
+                return
+            }
+            val quotient = bottom.divideAndRemainder(top)
+            if (quotient[1].signum() == 0) {
+                // top already divides bottom
+                for (j in column until a.size) {
+                    a[i][j] = a[i][j].subtract(quotient[0].multiply(a[t][j])).mod(d)
+                }
+                return
+            }
+
+            val gcd = extendedGcd(top, bottom)
+            val x = gcd[1]
+            val y = gcd[2]
+            val u = top.divide(gcd[0])
+            val v = bottom.divide(gcd[0])
+            for (j in column until a.size) {
+                val rowT = a[t][j]
+                val rowI = a[i][j]
+                a[t][j] = x.multiply(rowT).add(y.multiply(rowI)).mod(d)
+                a[i][j] = u.multiply(rowI).subtract(v.multiply(rowT)).mod(d)
+            }
+        }
+
+        /**
+         * Same as [combineRows], but for columns t and j along a row.
+         */
+        private fun combineColumns(a : Array<Array<BigInteger>>, t : Int, j : Int, row : Int, d : BigInteger) {
+            val left = a[row][t]
+            val right = a[row][j]
+            if (left.signum() == 0) {
+                swapColumns(a, t, j)
+                return
+            }
+            val quotient = right.divideAndRemainder(left)
+            if (quotient[1].signum() == 0) {
+                for (i in row until a.size) {
+                    a[i][j] = a[i][j].subtract(quotient[0].multiply(a[i][t])).mod(d)
+                }
+                return
+            }
+
+            val gcd = extendedGcd(left, right)
+            val x = gcd[1]
+            val y = gcd[2]
+            val u = left.divide(gcd[0])
+            val v = right.divide(gcd[0])
+            for (i in row until a.size) {
+                val columnT = a[i][t]
+                val columnJ = a[i][j]
+                a[i][t] = x.multiply(columnT).add(y.multiply(columnJ)).mod(d)
+                a[i][j] = u.multiply(columnJ).subtract(v.multiply(columnT)).mod(d)
+            }
+        }
+
+        /**
+         * @return  [g, x, y] with a*x + b*y = g = gcd(a, b)
+         */
+        private fun extendedGcd(a : BigInteger, b : BigInteger) : Array<BigInteger> {
+            var oldR = a
+            var r = b
+            var oldX = BigInteger.ONE
+            var x = BigInteger.ZERO
+            var oldY = BigInteger.ZERO
+            var y = BigInteger.ONE
+            while (r.signum() != 0) {
+                val q = oldR.divide(r)
+                var temp = r
+                r = oldR.subtract(q.multiply(r))
+                oldR = temp
+                temp = x
+                x = oldX.subtract(q.multiply(x))
+                oldX = temp
+                temp = y
+                y = oldY.subtract(q.multiply(y))
+                oldY = temp
+            }
+            return arrayOf(oldR, oldX, oldY)
+        }
+
+        /**
+         * Turns a diagonal into Smith form:  repeatedly swapping a pair
+         * (a, b) for (gcd, lcm) keeps the product and ends with each entry
+         * dividing the next.  Returns only the entries bigger than 1.
+         *
+         * O(k^2) gcds, but the 1s are dropped first so k is small
+         */
+        private fun toDivisorChain(pivots : List<BigInteger>) : List<BigInteger> {
+            val chain = ArrayList<BigInteger>()
+            for (pivot in pivots) {
+                if (pivot != BigInteger.ONE) {
+                    chain.add(pivot)
+                }
+            }
+            for (i in chain.indices) {
+                for (j in i + 1 until chain.size) {
+                    val gcd = chain[i].gcd(chain[j])
+                    val lcm = chain[i].divide(gcd).multiply(chain[j])
+                    chain[i] = gcd
+                    chain[j] = lcm
+                }
+            }
+
+            // the gcds of small factors may have turned into 1s
+            val result = ArrayList<BigInteger>()
+            for (factor in chain) {
+                if (factor != BigInteger.ONE) {
+                    result.add(factor)
+                }
+            }
+            return result
+        }
+
+        /**
+         * Math.abs, but throws instead of returning a negative for Long.MIN_VALUE.
+         */
+        private fun absExact(value : Long) : Long {
+            if (value == Long.MIN_VALUE) {
+                throw ArithmeticException("overflow")
+            }
+            return Math.abs(value)
+        }
+
+        private fun copyOf(a : Array<LongArray>) : Array<LongArray> {
+            return Array(a.size) { a[it].copyOf() }
+        }
+
+        private fun toBig(a : Array<LongArray>) : Array<Array<BigInteger>> {
+            return Array(a.size) { i -> Array(a[i].size) { j -> BigInteger.valueOf(a[i][j]) } }
+        }
+
+        private fun <R> swapRows(a : Array<R>, i : Int, j : Int) {
+            if (i != j) {
+                val temp = a[i]
+                a[i] = a[j]
+                a[j] = temp
+            }
+        }
+
+        private fun swapColumns(a : Array<LongArray>, i : Int, j : Int) {
+            if (i != j) {
+                for (row in a) {
+                    val temp = row[i]
+                    row[i] = row[j]
+                    row[j] = temp
+                }
+            }
+        }
+
+        @JvmName("swapBigColumns")
+        private fun swapColumns(a : Array<Array<BigInteger>>, i : Int, j : Int) {
+            if (i != j) {
+                for (row in a) {
+                    val temp = row[i]
+                    row[i] = row[j]
+                    row[j] = temp
+                }
+            }
+        }
+    }
+
+}
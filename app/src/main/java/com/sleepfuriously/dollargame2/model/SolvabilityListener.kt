@@ -0,0 +1,19 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Hears what a [SolvabilityOracle] decided about a board.
+ */
+fun interface SolvabilityListener {
+
+    /**
+     * Called once for every check, unless it's overtaken by a newer one
+     * (or the oracle is cancelled) before its answer is ready.
+     *
+     * Easy boards and ones already in the cache are answered right away:
+     * the call comes on the caller's thread, before [SolvabilityOracle.check]
+     * returns (which then returns true).  Everything else is answered
+     * later, on the oracle's delivery thread (the UI thread in the app).
+     */
+    fun onVerdict(verdict : Solvability)
+
+}
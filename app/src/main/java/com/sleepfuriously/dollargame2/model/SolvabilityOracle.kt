@@ -0,0 +1,230 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Decides, exactly, whether the board a [Graph] describes can be won, and
+ * does the slow part off the caller's thread.  Made for the UI: call
+ * [check] after every change to the amounts or the edges, and the verdict
+ * shows up later on the delivery executor.
+ *
+ *	HOW IT DECIDES:
+ *		Most boards never leave the caller's thread.  A negative count
+ *		can't be won, and a count of at least the genus always can.  Next
+ *		the board's hash (its shape plus its amounts) is looked up in a
+ *		[TranspositionTable] of earlier verdicts.  Only boards that get
+ *		past all that are reduced by a [DollarGameSolver] in the
+ *		background.  The verdict then goes in the table (unless the
+ *		solver overflowed, which is reported as [Solvability.TOO_BIG]).
+ *
+ *	STALE ANSWERS:
+ *		Every check gets a number.  A background check that's been
+ *		overtaken by a newer one is skipped if it hasn't started, and its
+ *		verdict isn't delivered if it has (it's still cached, though).
+ *
+ * [check] must be called from one thread (the one that owns the Graph).
+ * The board is copied into a snapshot there, so the Graph may change
+ * while the background work goes on.
+ *
+ * [solve] uses the same threads to find a whole winning script (for
+ * [HintEngine.getHintLater]).
+ */
+class SolvabilityOracle(
+
+    /** Where verdicts are delivered (in the app, the UI thread) */
+    private val mDeliver : Executor,
+
+    /** Where the slow checks are done */
+    private val mWorker : Executor = ForkJoinPool.commonPool(),
+
+    /** Earlier verdicts, keyed by board hash.  Its counters show how well it's doing. */
+    val cache : TranspositionTable = TranspositionTable(DEFAULT_CACHE_BYTES)
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** the number of the newest check */
+    private val mLatest = AtomicLong()
+
+    /** goes up with every [cancel], so background solves know to keep quiet */
+    private val mCancels = AtomicLong()
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * Decides if the board can be won.  Easy and already-seen boards are
+     * answered right away (the listener is called before this returns);
+     * anything else is answered later, on the delivery executor.
+     *
+     * O(V + E) on the caller's thread, for the snapshot and the hash.
+     *
+     * @param   amountOf    Gets the amount from a node's data.  A node
+     *                      with no data counts as 0.
+     *
+     * @return  True if the listener has already been called.
+     *
+     * @throws  IllegalArgumentException if the Graph is directed
+     */
+    fun <T> check(graph : Graph<T>, amountOf : (T) -> Int, listener : SolvabilityListener) : Boolean {
+        if (graph.mDirected) {
+            throw IllegalArgumentException("Only undirected boards can be checked")
+        }
+        val request = mLatest.incrementAndGet()
+
+        if (graph.isConnected() == false) {
+            listener.onVerdict(Solvability.NOT_CONNECTED)
+            return true
+        }
+
+        val snapshot = graph.freeze()
+        val amounts = IntArray(snapshot.numNodes)
+        var total = 0L
+        for (i in 0 until snapshot.numNodes) {
+            val data = graph.getNodeData(snapshot.getNodeId(i))
+            amounts[i] = if (data == null) 0 else amountOf(data)
+            total += amounts[i]
+        }
+
+        // the easy cases
+        if (total < 0L) {
+            listener.onVerdict(Solvability.NOT_WINNABLE)
+            return true
+        }
+        if (total >= graph.getGenus()) {
+            listener.onVerdict(Solvability.WINNABLE)
+            return true
+        }
+
+        val key = boardKey(graph.getStructureHash(), snapshot, amounts)
+        val entry = cache.get(key)
+        if (entry != TranspositionTable.MISSING) {
+            listener.onVerdict(VERDICTS[TranspositionTable.valueOf(entry)])
+            return true
+        }
+
+        mWorker.execute {
+            if (mLatest.get() == request) {
+                val verdict = try {
+                    val winnable = DollarGameSolver(snapshot).reduceInto(amounts, LongArray(snapshot.numNodes))
+                    val verdict = if (winnable) Solvability.WINNABLE else Solvability.NOT_WINNABLE
+
+                    // bigger boards cost more to check again
+                    cache.put(key, verdict.ordinal, snapshot.numNodes)
+                    verdict
+                }
+                catch (e : ArithmeticException) {
+                    // not cached: it's not an answer about the board
+                    Solvability.TOO_BIG
+                }
+                mDeliver.execute {
+                    if (mLatest.get() == request) {
+                        listener.onVerdict(verdict)
+                    }
+                }
+            }
+        }
+        return false
+    }
+
+    /**
+     * Finds a winning script for a board in the background, with a
+     * [DollarGameSolver], and hands it to the listener on the delivery
+     * executor (never before this returns).  Unlike [check], a newer
+     * request doesn't overtake an older one; every result is delivered
+     * unless [cancel] is called first.
+     *
+     * O(V) on the caller's thread, to copy the amounts.
+     *
+     * @param   amounts     The amounts, by snapshot index.
+     *
+     * @param   listener    Gets the result, or null if the amounts are too
+     *                      big to work out (the solver would overflow).
+     */
+    fun solve(snapshot : GraphSnapshot, amounts : IntArray, listener : (SolverResult?) -> Unit) {
+        val cancels = mCancels.get()
+        val amountsCopy = amounts.copyOf()
+        mWorker.execute {
+            if (mCancels.get() == cancels) {
+                val result = try {
+                    DollarGameSolver(snapshot).solve(amountsCopy)
+                }
+                catch (e : ArithmeticException) {
+                    null
+                }
+                mDeliver.execute {
+                    if (mCancels.get() == cancels) {
+                        listener(result)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure nothing more gets delivered from the checks and solves
+     * made so far (for when the UI goes away).
+     */
+    fun cancel() {
+        mLatest.incrementAndGet()
+        mCancels.incrementAndGet()
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /** 256 KB (16K verdicts) */
+        const val DEFAULT_CACHE_BYTES = 256L shl 10
+
+        private val VERDICTS = Solvability.values()
+
+        private const val GOLDEN = -0x61c8864680b583ebL
+        private const val AMOUNT_SALT = 0x510e527fade682d1L
+
+        /**
+         * A hash of the whole board: the Graph's structure hash plus each
+         * node's amount, tied to its node id (not its snapshot index, which
+         * depends on the order the nodes were added in).
+         *
+         * O(V)
+         */
+        private fun boardKey(structureHash : Long, snapshot : GraphSnapshot, amounts : IntArray) : Long {
+            var sum = structureHash
+            for (i in 0 until snapshot.numNodes) {
+                val node = ZobristHasher.mix64(snapshot.getNodeId(i) * GOLDEN + AMOUNT_SALT)
+                sum += ZobristHasher.mix64(node + amounts[i] * GOLDEN)
+            }
+            return ZobristHasher.mix64(sum)
+        }
+    }
+
+}
+
+
+/**
+ * What a [SolvabilityOracle] can say about a board.
+ */
+enum class Solvability {
+
+    /** Some set of gives and takes gets everyone out of debt */
+    WINNABLE,
+
+    /** Nothing will ever get everyone out of debt */
+    NOT_WINNABLE,
+
+    /** The board has no nodes, or some of them can't be reached */
+    NOT_CONNECTED,
+
+    /** The amounts are too big to work out (the solver would overflow) */
+    TOO_BIG
+}
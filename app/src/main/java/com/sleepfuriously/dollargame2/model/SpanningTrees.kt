@@ -0,0 +1,333 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.math.BigInteger
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import kotlin.random.Random
+
+/**
+ * Counts and samples the spanning trees of an undirected board.
+ *
+ * The number of spanning trees is also the number of really different
+ * boards for any total (see [Jacobian]), so it says a lot more about a
+ * board than the genus does.  A random spanning tree is a good skeleton
+ * to build a new board on.
+ *
+ *	COUNTING:
+ *		Kirchhoff: the count is the determinant of the reduced Laplacian.
+ *		That's found modulo several primes just under 2^31 (plain Long
+ *		arithmetic, spread over a ForkJoinPool) and put back together with
+ *		the Chinese remainder theorem, so it's exact however big it gets.
+ *		Since the reduced Laplacian is positive definite, its determinant
+ *		is at most the product of the degrees (Hadamard), which says how
+ *		many primes are needed.
+ *
+ *		The nodes are numbered breadth-first from the sink so the matrix
+ *		is banded, and the elimination skips the zeros outside the band:
+ *		O(n * band^2) per prime instead of O(n^3) (a 30 x 30 grid has a
+ *		band of about 60).  Each thread uses one n x n IntArray no matter
+ *		how many primes it does.
+ *
+ *	SAMPLING:
+ *		Wilson's algorithm (loop-erased random walks) gives every spanning
+ *		tree exactly the same chance.  Expected time is about the mean
+ *		hitting time of the board, which is small for anything that fits on
+ *		a screen.  Uses two arrays made once, so sampling over and over
+ *		makes no garbage (with [sampleInto]).
+ *
+ * Counting may be done from several threads; sampling may not.
+ */
+class SpanningTrees(
+
+    /** The board */
+    val snapshot : GraphSnapshot,
+
+    /** Where the counting gets done */
+    private val mPool : ForkJoinPool = ForkJoinPool.commonPool()
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** True if every node can reach every other one */
+    private val mConnected : Boolean
+
+    /** The node left out of the reduced Laplacian (the one with the biggest degree) */
+    private val mSink : Int
+
+    /** node index -> row of the reduced Laplacian (-1 for the sink) */
+    private val mRows : IntArray
+
+    /** Each node's degree, not counting self-loops */
+    private val mDegrees : IntArray
+
+    @Volatile
+    private var mCount : BigInteger? = null
+
+    /** for Wilson's algorithm: which nodes are in the tree so far */
+    private val mInTree : BooleanArray
+
+    /** for Wilson's algorithm: the position (in the snapshot) of each node's next step */
+    private val mNext : IntArray
+
+
+    init {
+        if (snapshot.directed) {
+            throw IllegalArgumentException("Only undirected boards have spanning trees here")
+        }
+
+        val numNodes = snapshot.numNodes
+        mDegrees = IntArray(numNodes)
+        var sink = 0
+        for (i in 0 until numNodes) {
+            for (pos in snapshot.neighborsStart(i) until snapshot.neighborsEnd(i)) {
+                if (snapshot.neighborAt(pos) != i) {
+                    mDegrees[i]++
+                }
+            }
+            if (mDegrees[i] > mDegrees[sink]) {
+                sink = i
+            }
+        }
+        mSink = sink
+
+        // breadth-first numbering from the sink keeps the matrix banded
+        mRows = IntArray(numNodes) { -1 }
+        var reached = 0
+        if (numNodes > 0) {
+            val queue = IntArray(numNodes)
+            val seen = BooleanArray(numNodes)
+            queue[0] = sink
+            seen[sink] = true
+            var tail = 1
+            var head = 0
+            while (head < tail) {
+                val node = queue[head++]
+                if (node != sink) {
+                    mRows[node] = head - 2
+                }
+                for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                    val neighbor = snapshot.neighborAt(pos)
+                    if (seen[neighbor] == false) {
+                        seen[neighbor] = true
+                        queue[tail++] = neighbor
+                    }
+                }
+            }
+            reached = tail
+        }
+        mConnected = (numNodes > 0) && (reached == numNodes)
+
+        mInTree = BooleanArray(numNodes)
+        mNext = IntArray(numNodes)
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    fun isConnected() : Boolean {
+        return mConnected
+    }
+
+    /**
+     * The number of spanning trees.  0 if the board isn't connected (or
+     * has no nodes), 1 for a tree.  Remembered after the first call.
+     *
+     * O(n * band^2) per prime, and about (sum of log2(degree)) / 30 primes
+     */
+    fun count() : BigInteger {
+        val cached = mCount
+        if (cached != null) {
+            return cached
+        }
+        val count = if (mConnected) countTrees() else BigInteger.ZERO
+        mCount = count
+        return count
+    }
+
+    private fun countTrees() : BigInteger {
+        val size = snapshot.numNodes - 1
+        if (size == 0) {
+            return BigInteger.ONE
+        }
+
+        // Hadamard: det <= product of the diagonal
+        var bits = 0.0
+        for (i in 0 until snapshot.numNodes) {
+            if (i != mSink) {
+                bits += Math.log(mDegrees[i].toDouble()) / Math.log(2.0)
+            }
+        }
+        val numPrimes = primesNeeded(bits)
+        val primes = LongArray(numPrimes) { largePrime(it) }
+
+        // each task does every numTasks-th prime with its own matrix
+        val residues = LongArray(numPrimes)
+        val numTasks = minOf(numPrimes, mPool.parallelism)
+        val tasks = ArrayList<RecursiveAction>()
+        for (task in 0 until numTasks) {
+            tasks.add(object : RecursiveAction() {
+                override fun compute() {
+                    val matrix = IntArray(size * size)
+                    val rowEnds = IntArray(size)
+                    var i = task
+                    while (i < numPrimes) {
+                        residues[i] = determinantMod(primes[i], matrix, rowEnds)
+                        i += numTasks
+                    }
+                }
+            })
+        }
+        mPool.invoke(object : RecursiveAction() {
+            override fun compute() {
+                invokeAll(tasks)
+            }
+        })
+
+        return combineResidues(residues)
+    }
+
+    /**
+     * The determinant of the reduced Laplacian modulo p, by Gaussian
+     * elimination that only touches each row up to its last nonzero
+     * entry (rowEnds).
+     */
+    private fun determinantMod(p : Long, matrix : IntArray, rowEnds : IntArray) : Long {
+        val size = snapshot.numNodes - 1
+        val minusOne = (p - 1).toInt()
+
+        // fill in the reduced Laplacian, mod p
+        matrix.fill(0)
+        for (node in 0 until snapshot.numNodes) {
+            val row = mRows[node]
+            if (row == -1) {
+                continue
+            }
+            matrix[row * size + row] = mDegrees[node]
+            var rowEnd = row
+            for (pos in snapshot.neighborsStart(node) until snapshot.neighborsEnd(node)) {
+                val column = mRows[snapshot.neighborAt(pos)]
+                if ((column != -1) && (column != row)) {
+                    matrix[row * size + column] = minusOne
+                    rowEnd = maxOf(rowEnd, column)
+                }
+            }
+            rowEnds[row] = rowEnd
+        }
+
+        var det = 1L
+        for (t in 0 until size) {
+            val tStart = t * size
+            if (matrix[tStart + t] == 0) {
+                // find a row to swap in (rare: only when p divides a pivot)
+                var other = t + 1
+                while ((other < size) && (matrix[other * size + t] == 0)) {
+                    other++
+                }
+                if (other == size) {
+                    return 0L
+                }
+                val otherStart = other * size
+                for (j in t until size) {
+                    val temp = matrix[tStart + j]
+                    matrix[tStart + j] = matrix[otherStart + j]
+                    matrix[otherStart + j] = temp
+                }
+                val tempEnd = rowEnds[t]
+                rowEnds[t] = rowEnds[other]
+                rowEnds[other] = tempEnd
+                det = (p - det) % p
+            }
+
+            val pivot = matrix[tStart + t].toLong()
+            det = det * pivot % p
+            val inverse = modInverse(pivot, p)
+            val tEnd = rowEnds[t]
+            for (i in t + 1 until size) {
+                val iStart = i * size
+                if (matrix[iStart + t] == 0) {
+                    continue
+                }
+                val factor = p - (matrix[iStart + t] * inverse % p)
+                for (j in t until tEnd + 1) {
+                    val value = matrix[tStart + j]
+                    if (value != 0) {
+                        matrix[iStart + j] = ((matrix[iStart + j] + factor * value) % p).toInt()
+                    }
+                }
+                rowEnds[i] = maxOf(rowEnds[i], tEnd)
+            }
+        }
+        return det
+    }
+
+
+    /**
+     * Picks a spanning tree, every one with the same chance.
+     *
+     * @return  The ids of its edges (numNodes - 1 of them).
+     *
+     * @throws  GraphNotConnectedException if there isn't any spanning tree
+     */
+    fun sample(random : Random) : IntArray {
+        val edgeIds = IntArray(maxOf(snapshot.numNodes - 1, 0))
+        sampleInto(random, edgeIds)
+        return edgeIds
+    }
+
+    /**
+     * Same as [sample], but puts the edge ids into dest (which needs room
+     * for numNodes - 1 of them) and allocates nothing.
+     *
+     * @return  The number of edge ids written (numNodes - 1).
+     */
+    fun sampleInto(random : Random, dest : IntArray) : Int {
+        if (mConnected == false) {
+            throw GraphNotConnectedException()
+        }
+
+        val numNodes = snapshot.numNodes
+        mInTree.fill(false)
+        mInTree[mSink] = true
+        var count = 0
+        for (start in 0 until numNodes) {
+            // random walk until it hits the tree, remembering only the last
+            // way out of each node (that erases the loops)
+            var node = start
+            while (mInTree[node] == false) {
+                val degree = snapshot.getDegree(node)
+                val pos = snapshot.neighborsStart(node) + random.nextInt(degree)
+                mNext[node] = pos
+                node = snapshot.neighborAt(pos)
+            }
+
+            // add the loop-erased path to the tree
+            node = start
+            while (mInTree[node] == false) {
+                mInTree[node] = true
+                dest[count++] = snapshot.edgeIdAt(mNext[node])
+                node = snapshot.neighborAt(mNext[node])
+            }
+        }
+        return count
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+
+        /**
+         * Convenience for counting straight from a Graph.
+         */
+        fun <T> count(graph : Graph<T>) : BigInteger {
+            return SpanningTrees(graph.freeze()).count()
+        }
+    }
+
+}
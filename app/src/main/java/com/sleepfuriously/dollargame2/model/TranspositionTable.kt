@@ -0,0 +1,231 @@
+package com.sleepfuriously.dollargame2.model
+
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * A fixed-size cache of search results, keyed by a 64-bit position hash
+ * (see [ZobristHasher]).  Made for game-tree searches that keep running
+ * into the same positions by different routes.
+ *
+ * Everything lives in two LongArrays sized from a memory budget (16 bytes
+ * per entry), so it never grows and never makes garbage.  Each entry holds
+ * an Int value and a depth (how much work the value stands for, 0-65535).
+ *
+ *	REPLACEMENT:
+ *		When two positions land on the same spot, [ReplacementPolicy] says
+ *		who stays:
+ *			ALWAYS_REPLACE      the newest entry always wins.
+ *			DEPTH_PREFERRED     entries go in pairs; the deeper of the two
+ *			                    is kept and the other spot always takes the
+ *			                    newcomer.  Deep results are the expensive ones.
+ *
+ *	THREADS:
+ *		Many threads may share one table with no locking.  Each entry is
+ *		stored as (key XOR data, data), so if two threads write the same spot
+ *		at once, the mixed-up result just doesn't match any key and reads as
+ *		a miss.  Results can always be lost; they're never wrong.
+ */
+class TranspositionTable(
+
+    /** Roughly how many bytes to use.  At least 2 entries are always made. */
+    memoryBytes : Long,
+
+    val policy : ReplacementPolicy = ReplacementPolicy.DEPTH_PREFERRED
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** key xor data, for each entry */
+    private val mChecks : LongArray
+
+    /** value (high 32 bits) and depth + 1 (low 16 bits).  0 is empty. */
+    private val mData : LongArray
+
+    private val mMask : Int
+
+    private val mHits = LongAdder()
+    private val mMisses = LongAdder()
+    private val mStores = LongAdder()
+    private val mEvictions = LongAdder()
+
+
+    init {
+        val wanted = maxOf(memoryBytes / BYTES_PER_ENTRY, 2L)
+        val size = java.lang.Long.highestOneBit(minOf(wanted, MAX_ENTRIES.toLong())).toInt()
+        mChecks = LongArray(size)
+        mData = LongArray(size)
+        mMask = size - 1
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /** The number of entries the table can hold */
+    val capacity : Int
+        get() = mData.size
+
+    /**
+     * Looks up a position.
+     *
+     * @return  The entry (read it with [valueOf] and [depthOf]), or
+     *          [MISSING] if it's not here.
+     */
+    fun get(key : Long) : Long {
+        val slot = homeSlot(key)
+        var data = read(slot, key)
+        if ((data == MISSING) && (policy == ReplacementPolicy.DEPTH_PREFERRED)) {
+            data = read(slot xor 1, key)
+        }
+
+        if (data == MISSING) {
+            mMisses.increment()
+        }
+        else {
+            mHits.increment()
+        }
+        return data
+    }
+
+    /**
+     * Stores a result for a position, replacing any older result for it.
+     *
+     * @param   depth   How much work the value represents (clamped to 0-65534).
+     *                  Used to decide what to keep.
+     */
+    fun put(key : Long, value : Int, depth : Int) {
+        val data = (value.toLong() shl 32) or (depth.coerceIn(0, MAX_DEPTH) + 1).toLong()
+        val slot = homeSlot(key)
+        mStores.increment()
+
+        if (policy == ReplacementPolicy.ALWAYS_REPLACE) {
+            write(slot, key, data)
+            return
+        }
+
+        // depth preferred: the even slot of the pair keeps the deeper entry
+        val deepSlot = slot and 1.inv()
+        val newSlot = deepSlot or 1
+        when {
+            read(deepSlot, key) != MISSING -> write(deepSlot, key, data)
+            read(newSlot, key) != MISSING -> write(newSlot, key, data)
+            depth >= depthOf(mData[deepSlot]) -> {
+                // the old deep entry moves over to the other slot
+                if (mData[deepSlot] != 0L) {
+                    if (mData[newSlot] != 0L) {
+                        mEvictions.increment()
+                    }
+                    mChecks[newSlot] = mChecks[deepSlot]
+                    mData[newSlot] = mData[deepSlot]
+                }
+                mChecks[deepSlot] = key xor data
+                mData[deepSlot] = data
+            }
+            else -> write(newSlot, key, data)
+        }
+    }
+
+    /**
+     * Empties the table (but keeps the counters).
+     */
+    fun clear() {
+        mChecks.fill(0L)
+        mData.fill(0L)
+    }
+
+    /** Number of lookups that found something */
+    fun getHits() : Long {
+        return mHits.sum()
+    }
+
+    /** Number of lookups that found nothing */
+    fun getMisses() : Long {
+        return mMisses.sum()
+    }
+
+    /** Number of results stored */
+    fun getStores() : Long {
+        return mStores.sum()
+    }
+
+    /** Number of results thrown out to make room for another position */
+    fun getEvictions() : Long {
+        return mEvictions.sum()
+    }
+
+    fun resetCounters() {
+        mHits.reset()
+        mMisses.reset()
+        mStores.reset()
+        mEvictions.reset()
+    }
+
+
+    private fun homeSlot(key : Long) : Int {
+        return mixHash(key) and mMask
+    }
+
+    /**
+     * @return  The data in the slot if it belongs to key, else [MISSING].
+     */
+    private fun read(slot : Int, key : Long) : Long {
+        val data = mData[slot]
+        if ((data == 0L) || ((mChecks[slot] xor data) != key)) {
+            return MISSING
+        }
+        return data
+    }
+
+    private fun write(slot : Int, key : Long, data : Long) {
+        val oldData = mData[slot]
+        if ((oldData != 0L) && ((mChecks[slot] xor oldData) != key)) {
+            mEvictions.increment()
+        }
+        mChecks[slot] = key xor data
+        mData[slot] = data
+    }
+
+    override fun toString() : String {
+        return "TranspositionTable[capacity = $capacity, policy = $policy, hits = ${getHits()}, " +
+               "misses = ${getMisses()}, stores = ${getStores()}, evictions = ${getEvictions()}]"
+    }
+
+
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+    //  internal classes
+    //~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+
+    enum class ReplacementPolicy {
+        ALWAYS_REPLACE,
+        DEPTH_PREFERRED
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+        /** what [get] returns when there's nothing there */
+        const val MISSING = 0L
+
+        const val BYTES_PER_ENTRY = 16L
+
+        private const val MAX_DEPTH = 0xfffe
+        private const val MAX_ENTRIES = 1 shl 30
+
+        /** The value part of an entry from [get] */
+        fun valueOf(entry : Long) : Int {
+            return (entry ushr 32).toInt()
+        }
+
+        /** The depth part of an entry from [get] (-1 for an empty one) */
+        fun depthOf(entry : Long) : Int {
+            return (entry and 0xffffL).toInt() - 1
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.sleepfuriously.dollargame2.model
+
+/**
+ * Zobrist-style hashing of the amounts on a board: the hash of a board
+ * is the XOR of a random-looking 64-bit number for each (node, amount)
+ * pair.  Changing one amount just XORs out the old pair and XORs in the
+ * new one, so keeping a hash up to date through a give or take is
+ * O(degree) and allocates nothing.
+ *
+ * Amounts can be anything, so the per-pair numbers can't come from a
+ * table like in chess.  Instead each node gets a random seed and the
+ * pair number is a strong mix of seed and amount (see [pairHash]).
+ *
+ * The same seed always gives the same hashes, so hashes can be stored
+ * and compared later.  Immutable and thread safe.
+ */
+class ZobristHasher(
+
+    /** How many nodes (indices 0 until numNodes) */
+    val numNodes : Int,
+
+    seed : Long = DEFAULT_SEED
+) {
+
+    //---------------------------
+    //  data
+    //---------------------------
+
+    /** random number per node */
+    private val mNodeSeeds : LongArray
+
+
+    init {
+        val random = java.util.Random(seed)
+        mNodeSeeds = LongArray(numNodes) { random.nextLong() }
+    }
+
+
+    //---------------------------
+    //  functions
+    //---------------------------
+
+    /**
+     * The number for one node holding one amount.
+     */
+    fun pairHash(index : Int, amount : Int) : Long {
+        return mix64(mNodeSeeds[index] + amount.toLong() * GOLDEN)
+    }
+
+    /**
+     * Hashes all the amounts from scratch.
+     *
+     * O(n)
+     */
+    fun hashOf(amounts : IntArray) : Long {
+        var hash = 0L
+        for (i in 0 until numNodes) {
+            hash = hash xor pairHash(i, amounts[i])
+        }
+        return hash
+    }
+
+    /**
+     * Returns the hash after one node's amount changes.
+     *
+     * O(1)
+     */
+    fun update(hash : Long, index : Int, oldAmount : Int, newAmount : Int) : Long {
+        return hash xor pairHash(index, oldAmount) xor pairHash(index, newAmount)
+    }
+
+    /**
+     * Returns the hash after a node fires (gives times times, or takes if
+     * times is negative).  amounts must be the amounts BEFORE the firing;
+     * they aren't changed.
+     *
+     * O(degree)
+     */
+    fun afterFire(hash : Long, snapshot : GraphSnapshot, amounts : IntArray, index : Int, times : Int) : Long {
+        val start = snapshot.neighborsStart(index)
+        val end = snapshot.neighborsEnd(index)
+
+        // a self-loop moves nothing, so count only the edges that go elsewhere
+        var outgoing = 0
+        var result = hash
+        for (pos in start until end) {
+            val neighbor = snapshot.neighborAt(pos)
+            if (neighbor != index) {
+                outgoing++
+                result = update(result, neighbor, amounts[neighbor], amounts[neighbor] + times)
+            }
+        }
+        return update(result, index, amounts[index], amounts[index] - times * outgoing)
+    }
+
+
+    //---------------------------
+    //  constants
+    //---------------------------
+
+    companion object {
+        const val DEFAULT_SEED = 0x2b7e151628aed2a6L
+
+        private const val GOLDEN = -0x61c8864680b583ebL
+
+        /**
+         * Scrambles all 64 bits (the finalizer from SplitMix64).
+         */
+        fun mix64(value : Long) : Long {
+            var z = value
+            z = (z xor (z ushr 30)) * -0x40a7b892e31b1a47L
+            z = (z xor (z ushr 27)) * -0x6b2fb644ecceee15L
+            return z xor (z ushr 31)
+        }
+    }
+
+}
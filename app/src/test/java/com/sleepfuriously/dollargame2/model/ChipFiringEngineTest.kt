@@ -0,0 +1,303 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+
+
+internal class ChipFiringEngineTest {
+
+    @Test
+    fun giveTakeTest() {
+        // a triangle with a tail: 0-1, 1-2, 2-0, 2-3
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(-2, 1, 3, 0))
+        assertThat(engine.getTotal()).isEqualTo(2L)
+        assertThat(engine.getDebt()).isEqualTo(2L)
+        assertThat(engine.isSolved()).isFalse()
+
+        engine.give(2)
+        assertThat(engine.getAmounts().toList()).containsExactly(-1, 2, 0, 1)
+        assertThat(engine.getDebt()).isEqualTo(1L)
+
+        engine.take(0)
+        assertThat(engine.getAmounts().toList()).containsExactly(1, 1, -1, 1)
+        assertThat(engine.getNumInDebt()).isEqualTo(1)
+
+        engine.fire(1, 2)
+        assertThat(engine.getAmounts().toList()).containsExactly(3, -3, 1, 1)
+
+        engine.fire(1, -2)
+        engine.give(0)
+        assertThat(engine.getAmounts().toList()).containsExactly(-1, 2, 0, 1)
+
+        assertThat(engine.fireById(2, -1)).isTrue()
+        assertThat(engine.fireById(42, 1)).isFalse()
+        assertThat(engine.getAmountById(2)).isEqualTo(3)
+        assertThat(engine.getTotal()).isEqualTo(2L)
+        assertThat(engine.getNumMoves()).isEqualTo(8L)
+    }
+
+    @Test
+    fun solvedTest() {
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(2, -1, -1, 1))
+        assertThat(engine.isSolved()).isFalse()
+        engine.give(0)
+        assertThat(engine.isSolved()).isTrue()
+        assertThat(engine.getDebt()).isEqualTo(0L)
+
+        engine.setAmount(3, -5)
+        assertThat(engine.isSolved()).isFalse()
+        assertThat(engine.getDebt()).isEqualTo(5L)
+
+        // copies are independent
+        val copy = engine.copy()
+        copy.setAmount(3, 0)
+        assertThat(copy.isSolved()).isTrue()
+        assertThat(engine.isSolved()).isFalse()
+    }
+
+    @Test
+    fun directedAndSelfLoopTest() {
+        val graph = Graph<Int>(true)
+        graph.addNodes(listOf(0, 1, 2))
+        graph.addEdges(intArrayOf(0, 1,  0, 2,  2, 0,  1, 1))
+
+        val engine = ChipFiringEngine(graph.freeze())
+        engine.give(0)
+        assertThat(engine.getAmounts().toList()).containsExactly(-2, 1, 1)
+
+        // 1's only edge is to itself
+        engine.give(1)
+        assertThat(engine.getAmounts().toList()).containsExactly(-2, 1, 1)
+    }
+
+    @Test
+    fun listenerTest() {
+        val engine = ChipFiringEngine(buildBoard())
+        val fired = ArrayList<Int>()
+        val set = ArrayList<Int>()
+        var scripts = 0
+        var sets = 0
+        val listener = object : ChipFiringListener {
+            override fun onFired(index : Int, times : Int) {
+                fired.add(index * 100 + times)
+            }
+
+            override fun onAmountSet(index : Int) {
+                set.add(index)
+            }
+
+            override fun onSetFired(indices : IntArray, count : Int, times : Int) {
+                sets++
+            }
+
+            override fun onScriptFired(script : IntArray) {
+                scripts++
+            }
+        }
+        engine.addListener(listener)
+
+        engine.give(2)
+        engine.fire(3, -4)
+        engine.fire(3, 0)       // nothing to do
+        engine.setAmount(1, 7)
+        assertThat(fired).containsExactly(201, 296)
+        assertThat(set).containsExactly(1)
+        engine.fireScript(intArrayOf(1, 0, 0, 0))
+        assertThat(scripts).isEqualTo(1)
+        engine.fireSet(intArrayOf(0, 1), -1)
+        assertThat(sets).isEqualTo(1)
+
+        assertThat(engine.removeListener(listener)).isTrue()
+        engine.give(0)
+        assertThat(fired.size).isEqualTo(2)
+    }
+
+    @Test
+    fun lotsOfMovesTest() {
+        val numNodes = 1000
+        val graph = Graph<Int>()
+        val ids = graph.addNodes(List(numNodes) { it })
+        val endpoints = IntArray(numNodes * 4)
+        for (i in 0 until numNodes) {
+            endpoints[4 * i] = ids[i]
+            endpoints[4 * i + 1] = ids[(i + 1) % numNodes]
+            endpoints[4 * i + 2] = ids[i]
+            endpoints[4 * i + 3] = ids[(i * 7 + 3) % numNodes]
+        }
+        graph.addEdges(endpoints)
+
+        val engine = ChipFiringEngine(graph.freeze())
+        val random = java.util.Random(7)
+        for (i in 0 until 1000000) {
+            engine.fire(random.nextInt(numNodes), if (random.nextBoolean()) 1 else -1)
+        }
+
+        // the tallies must match a count done from scratch
+        var debt = 0L
+        var total = 0L
+        for (amount in engine.getAmounts()) {
+            total += amount
+            if (amount < 0) {
+                debt -= amount
+            }
+        }
+        assertThat(total).isEqualTo(0L)
+        assertThat(engine.getDebt()).isEqualTo(debt)
+        assertThat(engine.getNumMoves()).isEqualTo(1000000L)
+    }
+
+    @Test
+    fun fireScriptTest() {
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(-2, 1, 3, 0))
+        val oneAtATime = engine.copy()
+
+        val script = intArrayOf(3, -5, 0, 1000)
+        engine.fireScript(script)
+        for (i in 0 until 4) {
+            oneAtATime.fire(i, script[i])
+        }
+        assertThat(engine.getAmounts().toList()).isEqualTo(oneAtATime.getAmounts().toList())
+        assertThat(engine.getDebt()).isEqualTo(oneAtATime.getDebt())
+        assertThat(engine.getHash()).isEqualTo(oneAtATime.getHash())
+        assertThat(engine.getNumMoves()).isEqualTo(1008L)
+
+        // bad scripts change nothing
+        val before = engine.getAmounts().toList()
+        assertThat(engine.canFireScript(intArrayOf(1, 2))).isFalse()
+        assertThat(engine.canFireScript(intArrayOf(0, 0, 0, Int.MAX_VALUE))).isFalse()
+        var threw = false
+        try {
+            engine.fireScript(intArrayOf(0, 0, 0, Int.MAX_VALUE))
+        }
+        catch (e : ArithmeticException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+        assertThat(engine.getAmounts().toList()).isEqualTo(before)
+    }
+
+    @Test
+    fun fireSetTest() {
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(-2, 1, 3, 0))
+        val oneAtATime = engine.copy()
+
+        // the triangle gives together: only 2-3 moves anything
+        engine.fireSet(intArrayOf(0, 1, 2), 2)
+        assertThat(engine.getAmounts().toList()).containsExactly(-2, 1, 1, 2)
+        for (i in 0 until 3) {
+            oneAtATime.fire(i, 2)
+        }
+        assertThat(engine.getAmounts().toList()).isEqualTo(oneAtATime.getAmounts().toList())
+        assertThat(engine.getHash()).isEqualTo(oneAtATime.getHash())
+        assertThat(engine.getNumMoves()).isEqualTo(oneAtATime.getNumMoves())
+
+        // part of a buffer, and by id
+        engine.fireSet(intArrayOf(3, 0, 99), -1, 2)
+        oneAtATime.fire(3, -1)
+        oneAtATime.fire(0, -1)
+        assertThat(engine.fireSetById(intArrayOf(1, 3))).isTrue()
+        oneAtATime.give(1)
+        oneAtATime.give(3)
+        assertThat(engine.fireSetById(intArrayOf(1, 42))).isFalse()
+        assertThat(engine.getAmounts().toList()).isEqualTo(oneAtATime.getAmounts().toList())
+        assertThat(engine.getDebt()).isEqualTo(oneAtATime.getDebt())
+        assertThat(engine.getHash()).isEqualTo(oneAtATime.getHash())
+
+        // repeats change nothing, and don't leave anything marked
+        val before = engine.getAmounts().toList()
+        var threw = false
+        try {
+            engine.fireSet(intArrayOf(2, 1, 2))
+        }
+        catch (e : IllegalArgumentException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+        assertThat(engine.getAmounts().toList()).isEqualTo(before)
+        engine.fireSet(intArrayOf(2))
+        oneAtATime.give(2)
+        assertThat(engine.getAmounts().toList()).isEqualTo(oneAtATime.getAmounts().toList())
+
+        // directed: edges inside the set still move money (but loops don't)
+        val graph = Graph<Int>(true)
+        graph.addNodes(listOf(0, 1, 2))
+        graph.addEdges(intArrayOf(0, 1,  0, 2,  2, 0,  1, 1))
+        val directed = ChipFiringEngine(graph.freeze())
+        directed.fireSet(intArrayOf(0, 1))
+        assertThat(directed.getAmounts().toList()).containsExactly(-2, 1, 1)
+    }
+
+    @Test
+    fun scriptPlayerTest() {
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(-2, 1, 3, 0))
+        val allAtOnce = engine.copy()
+        allAtOnce.fireScript(intArrayOf(2, 0, -1, 0))
+
+        // one node at a time
+        var player = ScriptPlayer(engine.copy(), intArrayOf(2, 0, -1, 0))
+        assertThat(player.getMovesLeft()).isEqualTo(3L)
+        assertThat(player.next()).isEqualTo(SolverMove(0, 2))
+        assertThat(player.next()).isEqualTo(SolverMove(2, -1))
+        assertThat(player.hasNext()).isFalse()
+        assertThat(player.engine.getAmounts().toList()).isEqualTo(allAtOnce.getAmounts().toList())
+
+        // one move at a time, then the rest all at once
+        player = ScriptPlayer(engine.copy(), intArrayOf(2, 0, -1, 0), true)
+        assertThat(player.next()).isEqualTo(SolverMove(0, 1))
+        assertThat(player.getMovesLeft()).isEqualTo(2L)
+        player.finish()
+        assertThat(player.hasNext()).isFalse()
+        assertThat(player.engine.getAmounts().toList()).isEqualTo(allAtOnce.getAmounts().toList())
+        assertThat(player.engine.getNumMoves()).isEqualTo(3L)
+    }
+
+    @Test
+    fun hashTest() {
+        val engine = ChipFiringEngine(buildBoard(), intArrayOf(-2, 1, 3, 0))
+        val startHash = engine.getHash()
+        assertThat(startHash).isEqualTo(engine.hasher.hashOf(engine.getAmounts()))
+
+        // there and back again
+        engine.give(2)
+        assertThat(engine.getHash()).isNotEqualTo(startHash)
+        engine.take(2)
+        assertThat(engine.getHash()).isEqualTo(startHash)
+
+        // same position by a different route
+        val other = engine.copy()
+        engine.give(0)
+        engine.give(1)
+        other.give(1)
+        other.give(0)
+        assertThat(other.getHash()).isEqualTo(engine.getHash())
+
+        val fromScratch = ChipFiringEngine(engine.snapshot, null, engine.hasher)
+        fromScratch.setAmount(2, 5)
+        fromScratch.setAmount(0, -3)
+        assertThat(fromScratch.getHash()).isEqualTo(engine.getHash())
+        assertThat(engine.getAmounts().toList()).containsExactly(-3, 0, 5, 0)
+
+        val random = java.util.Random(3)
+        for (i in 0 until 1000) {
+            engine.fire(random.nextInt(4), random.nextInt(5) - 2)
+        }
+        assertThat(engine.getHash()).isEqualTo(engine.hasher.hashOf(engine.getAmounts()))
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * A triangle 0, 1, 2 with 3 hanging off of 2.  Node ids and
+     * snapshot indices are the same.
+     */
+    private fun buildBoard() : GraphSnapshot {
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 0,  2, 3))
+        return graph.freeze()
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+
+
+internal class DebtResolverTest {
+
+    @Test
+    fun pathTest() {
+        // 0 - 1 - 2: the money at 2 works its way over to 0
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2))
+        graph.addEdges(intArrayOf(0, 1,  1, 2))
+        val engine = ChipFiringEngine(graph.freeze(), intArrayOf(-1, 0, 2))
+
+        val result = DebtResolver(engine.snapshot).resolve(engine)
+        assertThat(result.solved).isTrue()
+        assertThat(result.script.toList()).containsExactly(0, 2, 4)
+        assertThat(result.numMoves).isEqualTo(6L)
+        assertThat(engine.getAmounts().toList()).containsExactly(1, 0, 0)
+        assertThat(engine.getNumMoves()).isEqualTo(6L)
+    }
+
+    @Test
+    fun neverMakesDebtTest() {
+        val random = Random(12)
+        for (round in 0 until 50) {
+            val board = buildGrid(random.nextInt(2, 8), random.nextInt(2, 8))
+            val amounts = IntArray(board.numNodes) { random.nextInt(-4, 6) }
+            val engine = ChipFiringEngine(board, amounts)
+            val startDebt = engine.getDebt()
+
+            val resolver = DebtResolver(board)
+            val result = resolver.resolve(engine)
+            for (i in amounts.indices) {
+                if (amounts[i] >= 0) {
+                    assertThat(engine.getAmount(i).toLong()).isAtLeast(0L)
+                }
+            }
+            assertThat(engine.getDebt()).isAtMost(startDebt)
+            assertThat(result.solved).isEqualTo(engine.isSolved())
+
+            // nothing more to do
+            assertThat(resolver.resolve(engine).numMoves).isEqualTo(0L)
+        }
+    }
+
+    @Test
+    fun bigBoardTest() {
+        val random = Random(3)
+        val board = buildGrid(100, 100)
+        val amounts = IntArray(board.numNodes) { random.nextInt(-3, 6) }
+        val engine = ChipFiringEngine(board, amounts)
+        val resolver = DebtResolver(board)
+
+        val result = resolver.resolve(engine)
+        assertThat(result.solved).isTrue()
+        assertThat(engine.isSolved()).isTrue()
+        assertThat(result.numMoves).isEqualTo(result.script.sumOf { it.toLong() })
+        assertThat(engine.getNumMoves()).isEqualTo(result.numMoves)
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+
+
+internal class DollarGameSolverTest {
+
+    @Test
+    fun simpleBoardsTest() {
+        // a path (a tree): winnable exactly when the total isn't negative
+        val path = buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 3))
+        val pathSolver = DollarGameSolver(path)
+        assertThat(pathSolver.solve(intArrayOf(-3, 1, 1, 1)).winnable).isTrue()
+        assertThat(pathSolver.solve(intArrayOf(-3, 1, 1, 0)).winnable).isFalse()
+        assertThat(pathSolver.solve(intArrayOf(5, -2, 0, -3)).winnable).isTrue()
+
+        // a square (genus 1): with a total of 0, a board is winnable only if
+        // some set of moves turns it into all 0s
+        val square = buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 3,  3, 0))
+        val squareSolver = DollarGameSolver(square)
+        assertThat(squareSolver.solve(intArrayOf(1, -1, 0, 0)).winnable).isFalse()
+        assertThat(squareSolver.solve(intArrayOf(2, -1, 0, -1)).winnable).isTrue()
+        assertThat(squareSolver.solve(intArrayOf(1, -2, 1, 0)).winnable).isTrue()
+
+        // already solved: nothing to do
+        val result = squareSolver.solve(intArrayOf(0, 3, 0, 1))
+        assertThat(result.winnable).isTrue()
+        assertThat(result.getNumMoves()).isEqualTo(0L)
+        assertThat(result.getMoves()).isEmpty()
+    }
+
+    @Test
+    fun genusBoundTest() {
+        // total >= genus is always winnable
+        val random = Random(12)
+        for (round in 0 until 200) {
+            val board = buildRandomBoard(random, 8, 14)
+            val genus = board.numEdges - board.numNodes + 1
+            val amounts = randomAmounts(random, board.numNodes, genus)
+            val result = DollarGameSolver(board).solve(amounts)
+            assertThat(result.winnable).isTrue()
+            checkSolution(board, amounts, result)
+        }
+    }
+
+    @Test
+    fun bruteForceTest() {
+        val random = Random(99)
+        for (round in 0 until 150) {
+            val board = buildRandomBoard(random, 4, 5)
+            val amounts = IntArray(4) { random.nextInt(-3, 4) }
+            val result = DollarGameSolver(board).solve(amounts, random.nextInt(4))
+
+            assertThat(result.winnable).isEqualTo(bruteForceWinnable(board, amounts))
+            checkSolution(board, amounts, result)
+            if (result.winnable == false) {
+                assertThat(result.reducedAmounts[result.q]).isLessThan(0L)
+            }
+        }
+    }
+
+    @Test
+    fun graphAndMovesTest() {
+        val graph = Graph<Int>()
+        graph.addNode(-2, 10)
+        graph.addNode(1, 20)
+        graph.addNode(1, 30)
+        graph.addEdge(10, 20)
+        graph.addEdge(10, 30)
+
+        val result = DollarGameSolver.solve(graph) { amount -> amount }
+        assertThat(result.winnable).isTrue()
+        assertThat(result.getMoves()).containsExactly(SolverMove(10, -1))
+        assertThat(result.getNumMoves()).isEqualTo(1L)
+    }
+
+    @Test
+    fun bigBoardTest() {
+        val random = Random(5)
+        val board = buildRandomBoard(random, 5000, 15000)
+        val amounts = randomAmounts(random, board.numNodes, board.numEdges - board.numNodes + 1)
+        val result = DollarGameSolver(board).solve(amounts)
+        assertThat(result.winnable).isTrue()
+        checkSolution(board, amounts, result)
+    }
+
+    /** Random boards are only a few edges across; these are hundreds */
+    @Test(timeout = 5000)
+    fun longBoardsTest() {
+        val random = Random(9)
+        val grid = buildGrid(30, 30)
+        val gridAmounts = randomAmounts(random, grid.numNodes, grid.numEdges - grid.numNodes + 1)
+        val gridResult = DollarGameSolver(grid).solve(gridAmounts)
+        assertThat(gridResult.winnable).isTrue()
+        checkSolution(grid, gridAmounts, gridResult)
+
+        // a cycle of 5000, every other node in debt
+        val numNodes = 5000
+        val cycle = buildBoard(numNodes, cycleEdges(numNodes))
+        val cycleAmounts = IntArray(numNodes) { if (it % 2 == 0) 1 else -1 }
+        cycleAmounts[0]++
+        val cycleResult = DollarGameSolver(cycle).solve(cycleAmounts)
+        assertThat(cycleResult.winnable).isTrue()
+        checkSolution(cycle, cycleAmounts, cycleResult)
+    }
+
+    @Test
+    fun notConnectedTest() {
+        val board = buildBoard(4, intArrayOf(0, 1,  2, 3))
+        var threw = false
+        try {
+            DollarGameSolver(board).solve(IntArray(4))
+        }
+        catch (e : GraphNotConnectedException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * Plays the solution (if any) and makes sure it wins.
+     */
+    private fun checkSolution(board : GraphSnapshot, amounts : IntArray, result : SolverResult) {
+        val engine = ChipFiringEngine(board, amounts)
+        assertThat(result.applyTo(engine)).isEqualTo(result.winnable)
+        if (result.winnable) {
+            assertThat(engine.isSolved()).isTrue()
+        }
+    }
+
+    /**
+     * Tries every firing script with entries from -RANGE to RANGE (q's
+     * entry fixed at 0) on a 4-node board.
+     */
+    private fun bruteForceWinnable(board : GraphSnapshot, amounts : IntArray) : Boolean {
+        val range = 8
+        val size = 2 * range + 1
+        for (code in 0 until size * size * size) {
+            val engine = ChipFiringEngine(board, amounts)
+            engine.fire(1, code % size - range)
+            engine.fire(2, (code / size) % size - range)
+            engine.fire(3, code / (size * size) - range)
+            if (engine.isSolved()) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Random amounts, some of them negative, adding up to total.
+     */
+    private fun randomAmounts(random : Random, numNodes : Int, total : Int) : IntArray {
+        val amounts = IntArray(numNodes) { random.nextInt(-5, 6) }
+        amounts[0] += total - amounts.sum()
+        return amounts
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+
+/**
+ * Checks [Graph.clone] against the old way of cloning (adding every node
+ * and edge to a brand-new Graph) on bigger graphs than [GraphTest] uses,
+ * and makes sure the copy-on-write clone and its original stay apart
+ * once both of them are changed.
+ */
+internal class GraphCloneTest {
+
+    @Test
+    fun cloneMatchesCopyTest() {
+        for (numEdges in intArrayOf(1000, 10000, 100000)) {
+            val graph = buildRandomGraph(numEdges)
+            val oldCopy = copyNodeByNode(graph)
+            val clone = graph.clone()!!
+            assertSameGraph(clone, oldCopy)
+
+            // write to both: each one only sees its own change
+            val cloneNode = clone.addNode(-1)
+            clone.addEdge(0, cloneNode)
+            graph.removeEdge(0, 1)
+            assertThat(clone.numEdges()).isEqualTo(numEdges + 1)
+            assertThat(clone.isAdjacent(0, 1)).isTrue()
+            assertThat(graph.numEdges()).isEqualTo(numEdges - 1)
+            assertThat(graph.numNodes()).isEqualTo(oldCopy.numNodes())
+            assertThat(graph.isAdjacent(0, cloneNode)).isFalse()
+
+            // and undoing them gets back to where they started
+            clone.removeNode(cloneNode)
+            graph.addEdge(0, 1)
+            assertSameGraph(clone, oldCopy)
+            assertSameGraph(graph, oldCopy)
+        }
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * A connected graph with about numEdges / 4 nodes: a path through all
+     * of them plus random extra edges.
+     */
+    private fun buildRandomGraph(numEdges : Int) : Graph<Int> {
+        val random = java.util.Random(numEdges.toLong())
+        val numNodes = numEdges / 4
+        val graph = Graph<Int>()
+        for (i in 0 until numNodes) {
+            graph.addNode(i)
+        }
+        for (i in 1 until numNodes) {
+            graph.addEdge(i - 1, i)
+        }
+        while (graph.numEdges() < numEdges) {
+            val a = random.nextInt(numNodes)
+            val b = random.nextInt(numNodes)
+            if ((a != b) && (graph.isAdjacent(a, b) == false)) {
+                graph.addEdge(a, b)
+            }
+        }
+        return graph
+    }
+
+    /**
+     * The way clone() used to work.
+     */
+    private fun copyNodeByNode(graph : Graph<Int>) : Graph<Int> {
+        val newGraph = Graph<Int>(graph.mDirected)
+        for (id in graph.getNodeIdArray()) {
+            newGraph.addNode(graph.getNodeData(id)!!, id)
+        }
+        for (edge in graph.getAllEdges()) {
+            newGraph.addEdge(edge.startNodeId, edge.endNodeId, edge.weight)
+        }
+        return newGraph
+    }
+
+    /**
+     * Same nodes (and data), and the same edges between them.
+     */
+    private fun assertSameGraph(graph : Graph<Int>, expected : Graph<Int>) {
+        assertThat(graph.getNodeIdArray().sorted()).isEqualTo(expected.getNodeIdArray().sorted())
+        for (id in expected.getNodeIdArray()) {
+            assertThat(graph.getNodeData(id)).isEqualTo(expected.getNodeData(id))
+        }
+        assertThat(graph.numEdges()).isEqualTo(expected.numEdges())
+        for (edge in expected.getAllEdges()) {
+            assertThat(graph.isAdjacent(edge.startNodeId, edge.endNodeId)).isTrue()
+        }
+    }
+
+}
@@ -65,6 +65,38 @@ internal class GraphTest {
         assertThat(fourthEdge).isNotEqualTo(thirdEdge)
     }
 
+    @Test
+    fun uniqueIdsReuseLowestTest() {
+        val graph = Graph<Boolean>()
+        for (i in 0 until 10) {
+            assertThat(graph.addNode(true)).isEqualTo(i)
+        }
+
+        // free up a few, the lowest comes back first
+        graph.removeNode(7)
+        graph.removeNode(3)
+        graph.removeNode(5)
+        assertThat(graph.generateUniqueNodeId()).isEqualTo(3)
+        assertThat(graph.addNode(true)).isEqualTo(3)
+        assertThat(graph.addNode(true)).isEqualTo(5)
+
+        // an explicit id is skipped over
+        graph.addNode(false, 7)
+        graph.addNode(false, 10)
+        assertThat(graph.addNode(true)).isEqualTo(11)
+
+        // same for edges
+        val e0 = graph.addEdge(0, 1)
+        val e1 = graph.addEdge(1, 2)
+        graph.addEdge(2, 3)
+        assertThat(e0).isEqualTo(0)
+        assertThat(e1).isEqualTo(1)
+        graph.removeEdge(0, 1)
+        assertThat(graph.generateUniqueEdgeId()).isEqualTo(0)
+        graph.removeAllEdges()
+        assertThat(graph.addEdge(4, 5)).isEqualTo(0)
+    }
+
     @Test
     fun addNodeTest() {
         val graph = Graph<Boolean>()
@@ -128,6 +160,157 @@ internal class GraphTest {
         assertThat(resultEdges).isEqualTo(origEdges)
     }
 
+    @Test
+    fun cloneIsIndependentTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+        val edgeIds = graph.getAllEdgeIds()
+
+        val clone = graph.clone()!!
+
+        // change the clone: the original shouldn't notice
+        clone.removeEdge(nodeList[0], nodeList[1])
+        val newNode = clone.addNode(false)
+        clone.addEdge(newNode, nodeList[2])
+        assertThat(graph.numNodes()).isEqualTo(3)
+        assertThat(graph.numEdges()).isEqualTo(3)
+        assertThat(graph.isAdjacent(nodeList[0], nodeList[1])).isTrue()
+        assertThat(graph.getDegree(nodeList[2])).isEqualTo(2)
+        assertThat(clone.numNodes()).isEqualTo(4)
+        assertThat(clone.isAdjacent(nodeList[0], nodeList[1])).isFalse()
+        assertThat(clone.getDegree(nodeList[2])).isEqualTo(3)
+
+        // and the other way around
+        graph.removeNode(nodeList[1])
+        assertThat(clone.getDegree(nodeList[1])).isEqualTo(1)
+        assertThat(clone.isConnected()).isTrue()
+        assertThat(graph.getDegree(nodeList[2])).isEqualTo(1)
+
+        // the edge id view follows its own graph
+        assertThat(edgeIds.size).isEqualTo(graph.numEdges())
+
+        // a clone of a clone
+        val clone2 = clone.clone()!!
+        clone2.removeAllEdges()
+        assertThat(clone.numEdges()).isEqualTo(3)
+        assertThat(clone2.numEdges()).isEqualTo(0)
+        assertThat(clone2.numNodes()).isEqualTo(4)
+    }
+
+    @Test
+    fun cloneLeftAloneTest() {
+        // three graphs on one store: the first two to change get their
+        // own copies, the last one changes the original store in place
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+        val clone1 = graph.clone()!!
+        val clone2 = graph.clone()!!
+
+        clone1.removeEdge(nodeList[0], nodeList[1])
+        clone2.removeEdge(nodeList[1], nodeList[2])
+        graph.removeEdge(nodeList[0], nodeList[2])
+        graph.addEdge(nodeList[1], nodeList[1])
+
+        assertThat(graph.isAdjacent(nodeList[0], nodeList[1])).isTrue()
+        assertThat(graph.isAdjacent(nodeList[0], nodeList[2])).isFalse()
+        assertThat(graph.getDegree(nodeList[1])).isEqualTo(3)
+        assertThat(clone1.isAdjacent(nodeList[0], nodeList[1])).isFalse()
+        assertThat(clone1.isAdjacent(nodeList[0], nodeList[2])).isTrue()
+        assertThat(clone1.getDegree(nodeList[1])).isEqualTo(1)
+        assertThat(clone2.isAdjacent(nodeList[1], nodeList[2])).isFalse()
+        assertThat(clone2.isAdjacent(nodeList[0], nodeList[2])).isTrue()
+        assertThat(clone2.getDegree(nodeList[1])).isEqualTo(1)
+    }
+
+    @Test
+    fun cloneKeepsDirectedTest() {
+        val graph = Graph<Boolean>(true)
+        val a = graph.addNode(true)
+        val b = graph.addNode(true)
+        graph.addEdge(a, b)
+
+        val clone = graph.clone()!!
+        assertThat(clone.mDirected).isTrue()
+        assertThat(clone.isAdjacent(a, b)).isTrue()
+        assertThat(clone.isAdjacent(b, a)).isFalse()
+
+        // b -> a is a different edge in a directed graph
+        assertThat(clone.addEdge(b, a)).isNotEqualTo(-1)
+        assertThat(graph.isAdjacent(b, a)).isFalse()
+    }
+
+    @Test
+    fun batchTest() {
+        val graph = Graph<Int>()
+        val ids = graph.addNodes(listOf(10, 11, 12, 13))
+        assertThat(ids.toList()).containsExactly(0, 1, 2, 3)
+        assertThat(graph.getNodeData(ids[2])).isEqualTo(12)
+
+        val edgeIds = graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 1,  2, 3,  3, 99,  0, 1),
+                                     intArrayOf(5, 6, 7, 8, 9, 10))
+        assertThat(edgeIds[0]).isNotEqualTo(-1)
+        assertThat(edgeIds[1]).isNotEqualTo(-1)
+        assertThat(edgeIds[2]).isEqualTo(-1)        // same as 1, 2 (undirected)
+        assertThat(edgeIds[3]).isNotEqualTo(-1)
+        assertThat(edgeIds[4]).isEqualTo(-1)        // no such node
+        assertThat(edgeIds[5]).isEqualTo(-1)        // same as the first
+        assertThat(graph.numEdges()).isEqualTo(3)
+        assertThat(graph.getEdgeFromNodes(3, 2)?.weight).isEqualTo(8)
+        assertThat(graph.isConnected()).isTrue()
+
+        // mixing single adds into a batch
+        graph.batch {
+            val newId = addNode(14)
+            addEdge(newId, 0)
+            assertThat(isAdjacent(0, newId)).isTrue()
+            addNode(15)
+        }
+        assertThat(graph.numNodes()).isEqualTo(6)
+        assertThat(graph.getNumComponents()).isEqualTo(2)
+    }
+
+    @Test
+    fun bigBatchTest() {
+        val numNodes = 25000
+        val graph = Graph<Int>()
+        val data = ArrayList<Int>(numNodes)
+        for (i in 0 until numNodes) {
+            data.add(i)
+        }
+
+        // a ring plus four chords per node (some of them duplicates)
+        val endpoints = IntArray(numNodes * 10)
+        var pos = 0
+        for (i in 0 until numNodes) {
+            endpoints[pos++] = i
+            endpoints[pos++] = (i + 1) % numNodes
+            for (j in 1..4) {
+                endpoints[pos++] = i
+                endpoints[pos++] = (i * 31 + j * 7919) % numNodes
+            }
+        }
+
+        graph.batch {
+            addNodes(data)
+            addEdges(endpoints)
+        }
+
+        var expected = 0
+        val seen = HashSet<Long>()
+        for (i in 0 until numNodes * 5) {
+            val a = minOf(endpoints[2 * i], endpoints[2 * i + 1]).toLong()
+            val b = maxOf(endpoints[2 * i], endpoints[2 * i + 1]).toLong()
+            if (seen.add((a shl 32) or b)) {
+                expected++
+            }
+        }
+        assertThat(graph.numEdges()).isEqualTo(expected)
+        assertThat(graph.isConnected()).isTrue()
+        assertThat(graph.getDegree(0)).isAtLeast(2)
+    }
+
     @Test
     fun getAllAdjacentToTest() {
         val graph = buildSimpleGraph()
@@ -162,6 +345,25 @@ internal class GraphTest {
         assertThat(result6.contains(nodeList[1])).isTrue()
     }
 
+    @Test
+    fun getAdjacentTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+
+        assertThat(graph.getDegree(nodeList[0])).isEqualTo(2)
+        assertThat(graph.getDegree(12345)).isEqualTo(0)
+
+        val dest = IntArray(graph.getDegree(nodeList[0]))
+        val count = graph.getAdjacent(nodeList[0], dest)
+        assertThat(count).isEqualTo(2)
+        assertThat(dest.sorted()).isEqualTo(listOf(nodeList[1], nodeList[2]))
+
+        // only the outgoing edge counts when direction matters
+        assertThat(graph.getAdjacent(nodeList[0], dest, true)).isEqualTo(1)
+        assertThat(dest[0]).isEqualTo(nodeList[1])
+    }
+
     @Test
     fun getAllNodeIdsTest() {
         val graph = buildSimpleGraph()
@@ -228,6 +430,41 @@ internal class GraphTest {
         assertThat(resultId2).isEqualTo(2)
     }
 
+    @Test
+    fun getNodeIdIndexedTest() {
+        val graph = Graph<StringBuilder>(mIndexData = true)
+        val first = StringBuilder("a")
+        val second = StringBuilder("b")
+        val twin = StringBuilder("a")     // equal to first, but not the same object
+
+        val firstId = graph.addNode(first)
+        val secondId = graph.addNode(second)
+        assertThat(graph.getNodeId(first)).isEqualTo(firstId)
+        assertThat(graph.getNodeId(second)).isEqualTo(secondId)
+        assertThat(graph.getNodeId(twin)).isNull()
+
+        // the same object in two nodes
+        val dupeId = graph.addNode(second)
+        graph.removeNode(secondId)
+        assertThat(graph.getNodeId(second)).isEqualTo(dupeId)
+        graph.removeNode(dupeId)
+        assertThat(graph.getNodeId(second)).isNull()
+
+        // replacing a node's data
+        graph.addNode(twin, firstId)
+        assertThat(graph.getNodeId(first)).isNull()
+        assertThat(graph.getNodeId(twin)).isEqualTo(firstId)
+
+        // clones keep their own index
+        val clone = graph.clone()!!
+        clone.removeNode(firstId)
+        assertThat(clone.getNodeId(twin)).isNull()
+        assertThat(graph.getNodeId(twin)).isEqualTo(firstId)
+
+        graph.removeAllNodes()
+        assertThat(graph.getNodeId(twin)).isNull()
+    }
+
     @Test
     fun isAdjacentTest() {
         val graph = buildSimpleGraph()
@@ -292,6 +529,111 @@ internal class GraphTest {
         assertThat(threwException).isTrue()
     }
 
+    @Test
+    fun versionAndListenerTest() {
+        val graph = buildSimpleGraph()
+        val nodeList = graph.getAllNodeIds()
+        val heard = ArrayList<Long>()
+        val listener = GraphChangeListener { version -> heard.add(version) }
+        graph.addChangeListener(listener)
+
+        var version = graph.getVersion()
+        graph.addEdge(nodeList[0], nodeList[1])
+        assertThat(graph.getVersion()).isGreaterThan(version)
+        assertThat(heard.size).isEqualTo(1)
+        assertThat(heard[0]).isEqualTo(graph.getVersion())
+
+        // failed changes don't count
+        version = graph.getVersion()
+        graph.removeNode(666)
+        graph.removeEdge(nodeList[0], nodeList[2])
+        assertThat(graph.getVersion()).isEqualTo(version)
+        assertThat(heard.size).isEqualTo(1)
+
+        // a batch (or a node removal with its edges) is heard once
+        graph.batch {
+            addEdge(nodeList[1], nodeList[2])
+            addEdge(nodeList[2], nodeList[0])
+        }
+        assertThat(heard.size).isEqualTo(2)
+        graph.removeNode(nodeList[2])
+        assertThat(heard.size).isEqualTo(3)
+
+        // clones start at the same version but don't share listeners
+        val clone = graph.clone()!!
+        assertThat(clone.getVersion()).isEqualTo(graph.getVersion())
+        clone.removeAllEdges()
+        assertThat(heard.size).isEqualTo(3)
+
+        assertThat(graph.removeChangeListener(listener)).isTrue()
+        graph.removeAllEdges()
+        assertThat(heard.size).isEqualTo(3)
+    }
+
+    @Test
+    fun cachedGenusTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+        assertThat(graph.getGenus()).isEqualTo(1)
+        assertThat(graph.getGenus()).isEqualTo(1)
+
+        graph.removeEdge(nodeList[0], nodeList[1])
+        assertThat(graph.getGenus()).isEqualTo(0)
+
+        graph.removeEdge(nodeList[1], nodeList[2])
+        var threw = false
+        try {
+            graph.getGenus()
+        }
+        catch (e : GraphNotConnectedException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+
+        graph.addEdge(nodeList[1], nodeList[0])
+        assertThat(graph.getGenus()).isEqualTo(0)
+    }
+
+    @Test
+    fun structureHashTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+        val hash = graph.getStructureHash()
+        assertThat(graph.getStructureHash()).isEqualTo(hash)
+
+        // same shape built in a different order, different data
+        val other = Graph<Boolean>()
+        other.addNode(false)
+        other.addNode(false)
+        other.addNode(false)
+        other.addEdge(nodeList[0], nodeList[2])
+        other.addEdge(nodeList[2], nodeList[1])
+        other.addEdge(nodeList[1], nodeList[0])
+        assertThat(other.getStructureHash()).isEqualTo(hash)
+
+        // weights and direction count
+        other.removeEdge(nodeList[0], nodeList[2])
+        assertThat(other.getStructureHash()).isNotEqualTo(hash)
+        other.addEdge(nodeList[0], nodeList[2], 5)
+        assertThat(other.getStructureHash()).isNotEqualTo(hash)
+
+        val directed = Graph<Boolean>(true)
+        directed.addNode(true)
+        directed.addNode(true)
+        directed.addNode(true)
+        addSimpleGraphEdges(directed)
+        assertThat(directed.getStructureHash()).isNotEqualTo(hash)
+
+        // a clone keeps it, then goes its own way
+        val clone = graph.clone()!!
+        assertThat(clone.getStructureHash()).isEqualTo(hash)
+        clone.removeEdge(nodeList[1], nodeList[2])
+        assertThat(clone.getStructureHash()).isNotEqualTo(hash)
+        assertThat(graph.getStructureHash()).isEqualTo(hash)
+    }
+
     @Test
     fun isConnectedTest() {
         val graph = buildSimpleGraph()
@@ -309,6 +651,150 @@ internal class GraphTest {
         assertThat(graph.isConnected()).isTrue()
     }
 
+    @Test
+    fun connectivityAfterRemovalsTest() {
+        // a long path: 0 - 1 - 2 - ... - 19999 (too deep for a recursive search)
+        val graph = Graph<Boolean>()
+        val numNodes = 20000
+        for (i in 0 until numNodes) {
+            graph.addNode(true)
+        }
+        for (i in 0 until numNodes - 1) {
+            graph.addEdge(i, i + 1)
+        }
+        assertThat(graph.isConnected()).isTrue()
+        assertThat(graph.getNumComponents()).isEqualTo(1)
+        assertThat(graph.getGenus()).isEqualTo(0)
+
+        // cut it in the middle
+        graph.removeEdge(5000, 5001)
+        assertThat(graph.isConnected()).isFalse()
+        assertThat(graph.getNumComponents()).isEqualTo(2)
+
+        // close it back up the long way around, making a loop
+        graph.addEdge(0, numNodes - 1)
+        assertThat(graph.isConnected()).isTrue()
+
+        // remove an inside node: 2 pieces again
+        graph.removeNode(100)
+        assertThat(graph.getNumComponents()).isEqualTo(2)
+        graph.addEdge(99, 101)
+        assertThat(graph.isConnected()).isTrue()
+        assertThat(graph.getGenus()).isEqualTo(0)
+
+        graph.removeAllEdges()
+        assertThat(graph.getNumComponents()).isEqualTo(numNodes - 1)
+        assertThat(graph.isConnected()).isFalse()
+    }
+
+    @Test
+    fun traversalTest() {
+        // 0 - 1 - 2 - 3    and a separate 4 - 5
+        //      \     /
+        //       --6--
+        val graph = Graph<Boolean>()
+        for (i in 0..6) {
+            graph.addNode(true)
+        }
+        graph.addEdge(0, 1)
+        graph.addEdge(1, 2)
+        graph.addEdge(2, 3)
+        graph.addEdge(1, 6)
+        graph.addEdge(6, 3)
+        graph.addEdge(4, 5)
+
+        val order = ArrayList<Int>()
+        val depths = ArrayList<Int>()
+        val count = graph.breadthFirst(0) { nodeId, depth ->
+            order.add(nodeId)
+            depths.add(depth)
+            true
+        }
+        assertThat(count).isEqualTo(5)
+        assertThat(order[0]).isEqualTo(0)
+        assertThat(order.toSet()).isEqualTo(setOf(0, 1, 2, 3, 6))
+        assertThat(depths[order.indexOf(3)]).isEqualTo(3)
+
+        assertThat(graph.depthFirst(0) { _, _ -> true }).isEqualTo(5)
+        assertThat(graph.depthFirst(4) { _, _ -> true }).isEqualTo(2)
+
+        // stopping early
+        assertThat(graph.breadthFirst(0) { nodeId, _ -> nodeId != 1 }).isEqualTo(2)
+
+        assertThat(graph.getDistance(0, 3)).isEqualTo(3)
+        assertThat(graph.getDistance(3, 0)).isEqualTo(3)
+        assertThat(graph.getDistance(0, 0)).isEqualTo(0)
+        assertThat(graph.getDistance(0, 5)).isEqualTo(-1)
+        assertThat(graph.isReachable(5, 4)).isTrue()
+
+        // only forward along the edges when direction matters
+        assertThat(graph.isReachable(0, 3, true)).isTrue()
+        assertThat(graph.isReachable(3, 0, true)).isFalse()
+
+        assertThat(graph.getComponentOf(5).sorted()).isEqualTo(listOf(4, 5))
+        assertThat(graph.getComponentOf(99).size).isEqualTo(0)
+    }
+
+    @Test
+    fun deepDepthFirstTest() {
+        val graph = Graph<Boolean>()
+        val numNodes = 20000
+        for (i in 0 until numNodes) {
+            graph.addNode(true)
+        }
+        for (i in 0 until numNodes - 1) {
+            graph.addEdge(i, i + 1)
+        }
+
+        var deepest = 0
+        val count = graph.depthFirst(0) { _, depth ->
+            deepest = maxOf(deepest, depth)
+            true
+        }
+        assertThat(count).isEqualTo(numNodes)
+        assertThat(deepest).isEqualTo(numNodes - 1)
+        assertThat(graph.getDistance(0, numNodes - 1)).isEqualTo(numNodes - 1)
+    }
+
+    @Test
+    fun freezeTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val spur = graph.addNode(false)
+        graph.addEdge(spur, 0)
+
+        val snapshot = graph.freeze()
+        assertThat(snapshot.numNodes).isEqualTo(4)
+        assertThat(snapshot.numEdges).isEqualTo(4)
+
+        // every row should match getAllAdjacentTo()
+        for (index in 0 until snapshot.numNodes) {
+            val nodeId = snapshot.getNodeId(index)
+            assertThat(snapshot.indexOf(nodeId)).isEqualTo(index)
+
+            val neighborIds = ArrayList<Int>()
+            for (pos in snapshot.neighborsStart(index) until snapshot.neighborsEnd(index)) {
+                neighborIds.add(snapshot.getNodeId(snapshot.neighborAt(pos)))
+            }
+            assertThat(neighborIds.sorted()).isEqualTo(graph.getAllAdjacentTo(nodeId).sorted())
+            assertThat(snapshot.getDegree(index)).isEqualTo(graph.getDegree(nodeId))
+        }
+
+        // changing the graph afterwards doesn't touch the snapshot
+        graph.removeNode(spur)
+        assertThat(snapshot.numNodes).isEqualTo(4)
+        assertThat(snapshot.indexOf(spur)).isNotEqualTo(-1)
+
+        // directed: rows only hold outgoing edges
+        val directed = Graph<Boolean>(true)
+        directed.addNode(true)
+        directed.addNode(true)
+        directed.addEdge(0, 1)
+        val directedSnapshot = directed.freeze()
+        assertThat(directedSnapshot.getDegree(directedSnapshot.indexOf(0))).isEqualTo(1)
+        assertThat(directedSnapshot.getDegree(directedSnapshot.indexOf(1))).isEqualTo(0)
+    }
+
     @Test
     fun numNodesTest() {
         val graph1 = Graph<Boolean>()
@@ -424,6 +910,28 @@ internal class GraphTest {
         assertThat(removed).isFalse()
     }
 
+    @Test
+    fun removeNodeUpdatesNeighborsTest() {
+        val graph = buildSimpleGraph()
+        addSimpleGraphEdges(graph)
+        val nodeList = graph.getAllNodeIds()
+
+        graph.removeNode(nodeList[1])
+
+        // the remaining nodes should only see each other
+        assertThat(graph.getAllAdjacentTo(nodeList[0])).isEqualTo(listOf(nodeList[2]))
+        assertThat(graph.getAllAdjacentTo(nodeList[2])).isEqualTo(listOf(nodeList[0]))
+        assertThat(graph.isAdjacent(nodeList[0], nodeList[1])).isFalse()
+        assertThat(graph.getEdgeFromNodes(nodeList[1], nodeList[2])).isNull()
+
+        // and the removed edges can be added back once the node returns
+        graph.addNode(true, nodeList[1])
+        assertThat(graph.getAllAdjacentTo(nodeList[1]).size).isEqualTo(0)
+        val edgeId = graph.addEdge(nodeList[2], nodeList[1])
+        assertThat(graph.getEdgeId(nodeList[1], nodeList[2])).isEqualTo(edgeId)
+        assertThat(graph.getAllAdjacentTo(nodeList[1])).isEqualTo(listOf(nodeList[2]))
+    }
+
     @Test
     fun removeAllEdgesTest() {
         val graph = buildSimpleGraph()
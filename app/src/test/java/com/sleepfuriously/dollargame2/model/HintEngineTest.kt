@@ -0,0 +1,163 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+
+
+internal class HintEngineTest {
+
+    @Test
+    fun followHintsTest() {
+        val random = Random(4)
+        val board = buildRandomBoard(random, 30, 50)
+        val engine = ChipFiringEngine(board, randomAmounts(random, board))
+        val hints = HintEngine(engine)
+        assertThat(hints.isWinnable()).isTrue()
+
+        // one give or take at a time, just as the player would
+        val movesLeft = hints.getMovesLeft()
+        var moves = 0L
+        var hint = hints.getHint()
+        while (hint != null) {
+            engine.fireById(hint.nodeId, if (hint.times > 0) 1 else -1)
+            moves++
+            hint = hints.getHint()
+        }
+        assertThat(engine.isSolved()).isTrue()
+        assertThat(moves).isAtMost(movesLeft)
+    }
+
+    @Test
+    fun deviationTest() {
+        val random = Random(9)
+        val board = buildRandomBoard(random, 500, 900)
+        val engine = ChipFiringEngine(board, randomAmounts(random, board))
+        val hints = HintEngine(engine)
+        val movesLeft = hints.getMovesLeft()
+
+        // everybody giving once changes nothing, and the hints know it
+        for (i in 0 until board.numNodes) {
+            engine.give(i)
+        }
+        assertThat(hints.getMovesLeft()).isEqualTo(movesLeft)
+
+        // wander off, then follow the hints the rest of the way
+        for (i in 0 until 2000) {
+            engine.fire(random.nextInt(board.numNodes), if (random.nextBoolean()) 1 else -1)
+            assertThat(hints.getHint()).isNotNull()
+        }
+        val promised = hints.getMovesLeft()
+        var moves = 0L
+        var hint = hints.getHint()
+        while (hint != null) {
+            engine.fireById(hint.nodeId, if (hint.times > 0) 1 else -1)
+            hint = hints.getHint()
+            moves++
+        }
+        assertThat(engine.isSolved()).isTrue()
+        assertThat(moves).isAtMost(promised)
+    }
+
+    @Test
+    fun backgroundTest() {
+        val random = Random(6)
+        val board = buildRandomBoard(random, 30, 50)
+        val amounts = randomAmounts(random, board)
+        val engine = ChipFiringEngine(board, amounts)
+        val hints = HintEngine(engine)
+        val waiting = ArrayList<Runnable>()
+        val oracle = SolvabilityOracle({ it.run() }, { waiting.add(it) })
+        val delivered = ArrayList<SolverMove?>()
+
+        // the player moves while the solving goes on: that's taken into account
+        assertThat(hints.getHintLater(oracle) { delivered.add(it) }).isFalse()
+        engine.give(3)
+        engine.take(7)
+        waiting.removeAt(0).run()
+        assertThat(delivered.size).isEqualTo(1)
+        assertThat(delivered[0]).isNotNull()
+        val movesLeft = hints.getMovesLeft()
+        var moves = 0L
+        var next = delivered[0]
+        while (true) {
+            val hint = next ?: break
+            engine.fireById(hint.nodeId, if (hint.times > 0) 1 else -1)
+            moves++
+            assertThat(hints.getHintLater(oracle) { next = it }).isTrue()
+        }
+        assertThat(engine.isSolved()).isTrue()
+        assertThat(moves).isAtMost(movesLeft)
+
+        // amounts set while solving: solve again
+        engine.setAmount(0, -1)
+        assertThat(hints.getHintLater(oracle) { delivered.add(it) }).isFalse()
+        engine.setAmount(0, amounts[0])
+        waiting.removeAt(0).run()
+        assertThat(delivered.size).isEqualTo(1)
+        waiting.removeAt(0).run()
+        assertThat(delivered.size).isEqualTo(2)
+        assertThat(waiting).isEmpty()
+    }
+
+    @Test
+    fun tooBigTest() {
+        // a long path with a triangle at the start: the solver overflows
+        val numNodes = 5000
+        val endpoints = IntArray(numNodes * 2)
+        for (i in 1 until numNodes) {
+            endpoints[2 * i - 2] = i - 1
+            endpoints[2 * i - 1] = i
+        }
+        endpoints[numNodes * 2 - 1] = 2
+        val board = buildBoard(numNodes, endpoints)
+        val amounts = IntArray(numNodes) { if (it < numNodes / 2) -2000000000 else 2000000000 }
+        val hints = HintEngine(ChipFiringEngine(board, amounts))
+        val oracle = SolvabilityOracle({ it.run() }, { it.run() })
+
+        val delivered = ArrayList<SolverMove?>()
+        assertThat(hints.getHintLater(oracle) { delivered.add(it) }).isFalse()
+        assertThat(delivered).containsExactly(null)
+    }
+
+    @Test
+    fun amountSetTest() {
+        // a triangle with a tail: 0-1, 1-2, 2-0, 2-3
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 0,  2, 3))
+        val engine = ChipFiringEngine(graph.freeze(), intArrayOf(1, 1, -3, 1))
+        val hints = HintEngine(engine)
+
+        assertThat(hints.getHint()).isEqualTo(SolverMove(2, -1))
+        assertThat(hints.getMovesLeft()).isEqualTo(1L)
+
+        // a whole script counts too
+        engine.fireScript(intArrayOf(0, 0, -1, 0))
+        assertThat(hints.getHint()).isNull()
+        assertThat(hints.getMovesLeft()).isEqualTo(0L)
+
+        // set amounts mean solving again
+        engine.setAmount(0, -5)
+        assertThat(hints.isWinnable()).isFalse()
+        assertThat(hints.getHint()).isNull()
+        assertThat(hints.getMovesLeft()).isEqualTo(-1L)
+
+        hints.detach()
+        engine.setAmount(0, 0)
+        assertThat(hints.isWinnable()).isFalse()
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /** Random amounts that add up to the genus, so the board can be won */
+    private fun randomAmounts(random : Random, board : GraphSnapshot) : IntArray {
+        val amounts = IntArray(board.numNodes) { random.nextInt(-3, 4) }
+        amounts[0] += (board.numEdges - board.numNodes + 1) - amounts.sum()
+        return amounts
+    }
+
+}
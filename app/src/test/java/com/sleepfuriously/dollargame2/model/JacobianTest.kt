@@ -0,0 +1,140 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.math.BigInteger
+import kotlin.random.Random
+
+
+internal class JacobianTest {
+
+    @Test
+    fun knownGroupsTest() {
+        // a path is a tree
+        var jacobian = Jacobian.of(buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 3)))
+        assertThat(jacobian.isTrivial()).isTrue()
+        assertThat(jacobian.order).isEqualTo(BigInteger.ONE)
+        assertThat(jacobian.toString()).isEqualTo("0")
+
+        // a cycle of 7 is Z/7
+        jacobian = Jacobian.of(buildBoard(7, cycleEdges(7)))
+        assertThat(jacobian.toString()).isEqualTo("Z/7")
+        assertThat(jacobian.isCyclic()).isTrue()
+
+        // the complete graph K_n is (Z/n)^(n - 2)
+        jacobian = Jacobian.of(buildBoard(5, completeEdges(5)))
+        assertThat(jacobian.invariants).containsExactly(BigInteger.valueOf(5), BigInteger.valueOf(5),
+                                                        BigInteger.valueOf(5))
+        assertThat(jacobian.order).isEqualTo(BigInteger.valueOf(125))
+        assertThat(jacobian.smithForm.numOnes).isEqualTo(1)
+
+        // two triangles sharing a node: Z/3 x Z/3
+        jacobian = Jacobian.of(buildBoard(5, intArrayOf(0, 1,  1, 2,  2, 0,  0, 3,  3, 4,  4, 0)))
+        assertThat(jacobian.toString()).isEqualTo("Z/3 x Z/3")
+    }
+
+    @Test
+    fun bigOrderTest() {
+        // 30^28 spanning trees: way past a Long
+        val jacobian = Jacobian.of(buildBoard(30, completeEdges(30)))
+        assertThat(jacobian.order).isEqualTo(BigInteger.valueOf(30).pow(28))
+        assertThat(jacobian.invariants.size).isEqualTo(28)
+    }
+
+    @Test
+    fun matchesDeterminantTest() {
+        val random = Random(18)
+        for (round in 0 until 40) {
+            val numNodes = random.nextInt(2, 9)
+            val board = buildRandomBoard(random, numNodes, random.nextInt(numNodes - 1, numNodes * 2))
+            val jacobian = Jacobian.of(board)
+
+            assertThat(jacobian.order).isEqualTo(determinant(Laplacian.reduced(board, 0).toDense()))
+            for (i in 1 until jacobian.invariants.size) {
+                val remainder = jacobian.invariants[i].mod(jacobian.invariants[i - 1])
+                assertThat(remainder).isEqualTo(BigInteger.ZERO)
+            }
+
+            // which node is left out doesn't matter
+            val other = SmithNormalForm.of(Laplacian.reduced(board, numNodes - 1))
+            assertThat(other.invariants).isEqualTo(jacobian.invariants)
+        }
+    }
+
+    @Test
+    fun gridTest() {
+        // big enough that the Long arithmetic overflows and the modular part takes over
+        val side = 12
+        val endpoints = ArrayList<Int>()
+        for (row in 0 until side) {
+            for (column in 0 until side) {
+                val node = row * side + column
+                if (column + 1 < side) {
+                    endpoints.add(node)
+                    endpoints.add(node + 1)
+                }
+                if (row + 1 < side) {
+                    endpoints.add(node)
+                    endpoints.add(node + side)
+                }
+            }
+        }
+        val board = buildBoard(side * side, endpoints.toIntArray())
+        val jacobian = Jacobian.of(board)
+        assertThat(jacobian.order).isEqualTo(exactDeterminant(Laplacian.reduced(board, 0).toDense()))
+        for (i in 1 until jacobian.invariants.size) {
+            val remainder = jacobian.invariants[i].mod(jacobian.invariants[i - 1])
+            assertThat(remainder).isEqualTo(BigInteger.ZERO)
+        }
+    }
+
+    @Test
+    fun notConnectedTest() {
+        var threw = false
+        try {
+            Jacobian.of(buildBoard(4, intArrayOf(0, 1,  2, 3)))
+        }
+        catch (e : GraphNotConnectedException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+
+        // a full (not reduced) Laplacian is always singular
+        val smithForm = SmithNormalForm.of(Laplacian.of(buildBoard(4, cycleEdges(4))))
+        assertThat(smithForm.numZeros).isEqualTo(1)
+        assertThat(smithForm.getDeterminant()).isEqualTo(BigInteger.ZERO)
+        assertThat(smithForm.getDiagonal()).containsExactly(BigInteger.ONE, BigInteger.ONE,
+                                                            BigInteger.valueOf(4), BigInteger.ZERO)
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * The absolute value of the determinant, by fraction-free (Bareiss)
+     * elimination.
+     */
+    private fun determinant(matrix : Array<LongArray>) : BigInteger {
+        val n = matrix.size
+        val a = Array(n) { i -> Array(n) { j -> BigInteger.valueOf(matrix[i][j]) } }
+        var previous = BigInteger.ONE
+        for (k in 0 until n - 1) {
+            if (a[k][k].signum() == 0) {
+                val swap = (k + 1 until n).firstOrNull { a[it][k].signum() != 0 } ?: return BigInteger.ZERO
+                val temp = a[k]
+                a[k] = a[swap]
+                a[swap] = temp
+            }
+            for (i in k + 1 until n) {
+                for (j in k + 1 until n) {
+                    a[i][j] = a[i][j].multiply(a[k][k]).subtract(a[i][k].multiply(a[k][j])).divide(previous)
+                }
+            }
+            previous = a[k][k]
+        }
+        return if (n == 0) BigInteger.ONE else a[n - 1][n - 1].abs()
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.math.BigInteger
+
+
+internal class LaplacianTest {
+
+    @Test
+    fun fullLaplacianTest() {
+        // a triangle with a tail and a self-loop: 0-1, 1-2, 2-0, 2-3, 3-3
+        val laplacian = Laplacian.of(buildBoard(false))
+        assertThat(laplacian.size).isEqualTo(4)
+        assertThat(laplacian.isReduced()).isFalse()
+
+        val dense = laplacian.toDense()
+        assertThat(dense[0].toList()).containsExactly(2L, -1L, -1L, 0L)
+        assertThat(dense[1].toList()).containsExactly(-1L, 2L, -1L, 0L)
+        assertThat(dense[2].toList()).containsExactly(-1L, -1L, 3L, -1L)
+        assertThat(dense[3].toList()).containsExactly(0L, 0L, -1L, 1L)
+        assertThat(laplacian.getDiagonal(2)).isEqualTo(3)
+        assertThat(laplacian[3, 2]).isEqualTo(-1)
+        assertThat(laplacian[3, 0]).isEqualTo(0)
+
+        // every row (and column) adds up to 0
+        val ones = IntArray(4) { 1 }
+        val out = LongArray(4)
+        laplacian.multiply(ones, out)
+        assertThat(out.toList()).containsExactly(0L, 0L, 0L, 0L)
+    }
+
+    @Test
+    fun matchesEngineTest() {
+        val random = java.util.Random(12)
+        for (directed in listOf(false, true)) {
+            val board = buildBoard(directed)
+            val laplacian = Laplacian.of(board)
+            for (round in 0 until 50) {
+                val script = IntArray(4) { random.nextInt(21) - 10 }
+                val engine = ChipFiringEngine(board)
+                for (i in 0 until 4) {
+                    engine.fire(i, script[i])
+                }
+
+                // playing the script changes the amounts by -L * script
+                val change = LongArray(4)
+                laplacian.multiply(script, change)
+                for (i in 0 until 4) {
+                    assertThat(engine.getAmount(i).toLong()).isEqualTo(-change[i])
+                }
+            }
+        }
+    }
+
+    @Test
+    fun reducedTest() {
+        val board = buildBoard(false)
+        val full = Laplacian.of(board).toDense()
+        val reduced = Laplacian.reduced(board, 1)
+        assertThat(reduced.size).isEqualTo(3)
+        assertThat(reduced.sink).isEqualTo(1)
+        assertThat(reduced.toMatrixIndex(1)).isEqualTo(-1)
+        assertThat(reduced.toMatrixIndex(3)).isEqualTo(2)
+
+        val dense = reduced.toDense()
+        for (row in 0 until 3) {
+            for (column in 0 until 3) {
+                assertThat(dense[row][column]).isEqualTo(full[reduced.toNodeIndex(row)][reduced.toNodeIndex(column)])
+            }
+        }
+    }
+
+    @Test
+    fun exactTest() {
+        val laplacian = Laplacian.of(buildBoard(false))
+        val big = Long.MAX_VALUE / 2
+        val x = longArrayOf(big, 0L, -big, 0L)
+
+        // fits
+        val out = LongArray(4)
+        laplacian.multiply(longArrayOf(1L shl 40, 0L, 0L, 0L), out)
+        assertThat(out[0]).isEqualTo(2L shl 40)
+
+        // doesn't fit
+        var threw = false
+        try {
+            laplacian.multiply(x, out)
+        }
+        catch (e : ArithmeticException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+
+        val bigOut = laplacian.multiply(Array(4) { BigInteger.valueOf(x[it]) })
+        assertThat(bigOut[0]).isEqualTo(BigInteger.valueOf(big).multiply(BigInteger.valueOf(3)))
+        assertThat(bigOut[1]).isEqualTo(BigInteger.ZERO)
+        assertThat(bigOut[2]).isEqualTo(BigInteger.valueOf(big).multiply(BigInteger.valueOf(-4)))
+        assertThat(bigOut[3]).isEqualTo(BigInteger.valueOf(big))
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * A triangle 0, 1, 2 with 3 hanging off of 2, and a self-loop on 3.
+     * Node ids and snapshot indices are the same.
+     */
+    private fun buildBoard(directed : Boolean) : GraphSnapshot {
+        val graph = Graph<Int>(directed)
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 0,  2, 3,  3, 3))
+        return graph.freeze()
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
+
+
+internal class OptimalSolverTest {
+
+    @Test
+    fun simpleBoardsTest() {
+        // a triangle with a tail: 0-1, 1-2, 2-0, 2-3
+        val board = buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 0,  2, 3))
+        val solver = OptimalSolver(board)
+
+        // already solved
+        var result = solver.solve(intArrayOf(0, 0, 1, 0))
+        assertThat(result.winnable).isTrue()
+        assertThat(result.getNumMoves()).isEqualTo(0)
+
+        // one take at 2 fixes everything
+        result = solver.solve(intArrayOf(1, 1, -3, 1))
+        assertThat(result.optimal).isTrue()
+        assertThat(result.moves).containsExactly(SolverMove(2, -1))
+
+        // can't be done
+        result = solver.solve(intArrayOf(-1, 0, 0, 0))
+        assertThat(result.winnable).isFalse()
+        assertThat(result.moves).isEmpty()
+    }
+
+    @Test
+    fun matchesBruteForceTest() {
+        val random = Random(31)
+        val pool = ForkJoinPool(4)
+        for (round in 0 until 60) {
+            val board = buildRandomBoard(random, 5, 7)
+            val amounts = IntArray(5) { random.nextInt(-3, 4) }
+            val genus = board.numEdges - board.numNodes + 1
+            amounts[0] += maxOf(0, genus - amounts.sum())
+
+            val result = OptimalSolver(board, pool).solve(amounts)
+            assertThat(result.winnable).isTrue()
+            assertThat(result.optimal).isTrue()
+            assertThat(result.getNumMoves()).isEqualTo(bruteForceMoves(board, amounts, result.getNumMoves()))
+
+            // and it really works
+            val engine = ChipFiringEngine(board, amounts)
+            for (move in result.moves) {
+                engine.fireById(move.nodeId, move.times)
+            }
+            assertThat(engine.isSolved()).isTrue()
+        }
+        pool.shutdown()
+    }
+
+    @Test
+    fun budgetTest() {
+        val random = Random(8)
+        val board = buildRandomBoard(random, 30, 60)
+        val amounts = IntArray(30) { random.nextInt(-4, 5) }
+        amounts[0] += 60 - amounts.sum()
+
+        // far too small a budget to finish
+        val result = OptimalSolver(board, ForkJoinPool.commonPool(), TranspositionTable(16 * 1024), 5000).solve(amounts)
+        assertThat(result.winnable).isTrue()
+        if (result.optimal == false) {
+            // still got the fast solver's answer
+            val engine = ChipFiringEngine(board, amounts)
+            for (move in result.moves) {
+                engine.fireById(move.nodeId, move.times)
+            }
+            assertThat(engine.isSolved()).isTrue()
+        }
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * The fewest moves, found by trying every firing script with at most
+     * limit moves in all.  Returns Int.MAX_VALUE if none of them work.
+     */
+    private fun bruteForceMoves(board : GraphSnapshot, amounts : IntArray, limit : Int) : Int {
+        return bruteForce(ChipFiringEngine(board, amounts), 0, 0, limit)
+    }
+
+    private fun bruteForce(engine : ChipFiringEngine, node : Int, used : Int, limit : Int) : Int {
+        if (node == engine.snapshot.numNodes) {
+            return if (engine.isSolved()) used else Int.MAX_VALUE
+        }
+
+        var best = Int.MAX_VALUE
+        val left = limit - used
+        for (times in -left..left) {
+            engine.fire(node, times)
+            best = minOf(best, bruteForce(engine, node + 1, used + Math.abs(times), limit))
+            engine.fire(node, -times)
+        }
+        return best
+    }
+
+}
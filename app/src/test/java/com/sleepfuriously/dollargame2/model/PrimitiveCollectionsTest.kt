@@ -0,0 +1,128 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+
+
+/**
+ * Checks the primitive maps and list against the regular java collections.
+ */
+internal class PrimitiveCollectionsTest {
+
+    @Test
+    fun intIntHashMapTest() {
+        val map = IntIntHashMap()
+        val expected = HashMap<Int, Int>()
+        val random = Random(42)
+
+        // lots of adds and removes on a small key range forces collisions and back-shifts
+        for (i in 0 until 20000) {
+            val key = random.nextInt(-500, 500)
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key, -1)).isEqualTo(expected.remove(key) ?: -1)
+            }
+            else {
+                map.put(key, i)
+                expected[key] = i
+            }
+        }
+
+        assertThat(map.size).isEqualTo(expected.size)
+        for (key in -500 until 500) {
+            assertThat(map.get(key, -1)).isEqualTo(expected[key] ?: -1)
+            assertThat(map.containsKey(key)).isEqualTo(expected.containsKey(key))
+        }
+
+        // walking the slots should find every entry exactly once
+        var count = 0
+        var slot = map.nextSlot(0)
+        while (slot != -1) {
+            assertThat(map.valueAt(slot)).isEqualTo(expected[map.keyAt(slot)])
+            count++
+            slot = map.nextSlot(slot + 1)
+        }
+        assertThat(count).isEqualTo(expected.size)
+    }
+
+    @Test
+    fun longIntHashMapTest() {
+        val map = LongIntHashMap()
+        val expected = HashMap<Long, Int>()
+        val random = Random(7)
+
+        for (i in 0 until 20000) {
+            val key = (random.nextInt(40).toLong() shl 32) or random.nextInt(40).toLong()
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key, -1)).isEqualTo(expected.remove(key) ?: -1)
+            }
+            else {
+                map.put(key, i)
+                expected[key] = i
+            }
+        }
+
+        assertThat(map.size).isEqualTo(expected.size)
+        expected.forEach { (key, value) ->
+            assertThat(map.get(key, -1)).isEqualTo(value)
+        }
+
+        val copy = map.copy()
+        map.clear()
+        assertThat(map.size).isEqualTo(0)
+        assertThat(copy.size).isEqualTo(expected.size)
+    }
+
+    @Test
+    fun intHashMapTest() {
+        val map = IntHashMap<String>()
+        for (i in 0 until 100) {
+            map.put(i, "v$i")
+        }
+        for (i in 0 until 100 step 2) {
+            assertThat(map.remove(i)).isEqualTo("v$i")
+        }
+
+        assertThat(map.size).isEqualTo(50)
+        assertThat(map[3]).isEqualTo("v3")
+        assertThat(map[4]).isNull()
+
+        // the keys are a live view
+        val keys = map.keys
+        assertThat(keys.size).isEqualTo(50)
+        assertThat(keys.contains(99)).isTrue()
+        map.remove(99)
+        assertThat(keys.size).isEqualTo(49)
+        assertThat(keys.contains(99)).isFalse()
+        assertThat(keys.toSet()).isEqualTo((1 until 99 step 2).toSet())
+    }
+
+    @Test
+    fun intListTest() {
+        val list = IntList()
+        for (i in 0 until 10) {
+            list.add(i * 10)
+        }
+        assertThat(list.size).isEqualTo(10)
+        assertThat(list[3]).isEqualTo(30)
+
+        assertThat(list.removeValue(30)).isTrue()
+        assertThat(list.removeValue(30)).isFalse()
+        assertThat(list.size).isEqualTo(9)
+        assertThat(list[3]).isEqualTo(90)        // the last item took its place
+
+        val dest = IntArray(9)
+        list.copyInto(dest)
+        assertThat(dest.sorted()).isEqualTo(listOf(0, 10, 20, 40, 50, 60, 70, 80, 90))
+
+        var threw = false
+        try {
+            list[9]
+        }
+        catch (e : IndexOutOfBoundsException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+    }
+
+}
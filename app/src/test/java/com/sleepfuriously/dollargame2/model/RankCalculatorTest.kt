@@ -0,0 +1,113 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
+
+
+internal class RankCalculatorTest {
+
+    @Test
+    fun simpleBoardsTest() {
+        // a triangle with a tail: 0-1, 1-2, 2-0, 2-3 (genus 1)
+        val calculator = RankCalculator(buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 0,  2, 3)))
+        assertThat(calculator.genus).isEqualTo(1)
+
+        assertThat(calculator.rank(intArrayOf(-1, 0, 0, 0)).rank).isEqualTo(-1)
+        assertThat(calculator.rank(intArrayOf(0, 0, 0, 0)).rank).isEqualTo(0)
+
+        // total > 2g - 2: Riemann-Roch says it all
+        val result = calculator.rank(intArrayOf(3, -1, 0, 1))
+        assertThat(result.rank).isEqualTo(2)
+        assertThat(result.exact).isTrue()
+        assertThat(result.positions).isEqualTo(0L)
+    }
+
+    @Test
+    fun canonicalTest() {
+        // the canonical board (degree - 2 everywhere) always has rank g - 1
+        val random = Random(5)
+        for (round in 0 until 10) {
+            val board = buildRandomBoard(random, 6, 10)
+            val calculator = RankCalculator(board)
+            val canonical = IntArray(6) { board.getDegree(it) - 2 }
+            val result = calculator.rank(canonical)
+            assertThat(result.exact).isTrue()
+            assertThat(result.rank).isEqualTo(calculator.genus - 1)
+        }
+    }
+
+    @Test
+    fun matchesBruteForceTest() {
+        val random = Random(17)
+        val pool = ForkJoinPool(3)
+        for (round in 0 until 40) {
+            val board = buildRandomBoard(random, 5, 8)
+            val calculator = RankCalculator(board, pool)
+            for (i in 0 until 5) {
+                val amounts = IntArray(5) { random.nextInt(-2, 3) }
+                val result = calculator.rank(amounts)
+                assertThat(result.exact).isTrue()
+                assertThat(result.rank).isEqualTo(bruteForceRank(board, amounts))
+
+                // Riemann-Roch: r(D) - r(K - D) = deg(D) - g + 1
+                val other = IntArray(5) { board.getDegree(it) - 2 - amounts[it] }
+                assertThat(result.rank - calculator.rank(other).rank)
+                    .isEqualTo(amounts.sum() - calculator.genus + 1)
+            }
+        }
+        pool.shutdown()
+    }
+
+    @Test
+    fun timeBudgetTest() {
+        val random = Random(2)
+        val board = buildRandomBoard(random, 40, 120)
+        val calculator = RankCalculator(board, ForkJoinPool.commonPool(),
+                                        TranspositionTable(16 * 1024), 0L)
+        val amounts = IntArray(40) { board.getDegree(it) - 2 }
+
+        // no time at all: only the bounds come back
+        val result = calculator.rank(amounts)
+        assertThat(result.exact).isFalse()
+        assertThat(result.rank.toLong()).isAtLeast(0L)
+        assertThat(result.rank.toLong()).isLessThan(result.upperBound.toLong())
+        assertThat(result.upperBound).isEqualTo(calculator.genus - 1)
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * The rank straight from its definition: the biggest k such that
+     * taking away any k dollars (anywhere) leaves a winnable board.
+     */
+    private fun bruteForceRank(board : GraphSnapshot, amounts : IntArray) : Int {
+        val solver = DollarGameSolver(board)
+        var k = 0
+        while (allWinnable(solver, amounts.copyOf(), 0, k)) {
+            k++
+        }
+        return k - 1
+    }
+
+    /** Tries every way of taking k dollars from the nodes at index first and up */
+    private fun allWinnable(solver : DollarGameSolver, amounts : IntArray, first : Int, k : Int) : Boolean {
+        if (k == 0) {
+            return solver.solve(amounts).winnable
+        }
+        for (v in first until amounts.size) {
+            amounts[v]--
+            val ok = allWinnable(solver, amounts, v, k - 1)
+            amounts[v]++
+            if (ok == false) {
+                return false
+            }
+        }
+        return true
+    }
+
+}
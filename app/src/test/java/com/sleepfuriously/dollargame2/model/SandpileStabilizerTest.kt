@@ -0,0 +1,147 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.ForkJoinPool
+import kotlin.random.Random
+
+
+internal class SandpileStabilizerTest {
+
+    @Test
+    fun smallBoardsTest() {
+        // a triangle 0, 1, 2
+        val triangle = Graph<Int>()
+        triangle.addNodes(listOf(0, 1, 2))
+        triangle.addEdges(intArrayOf(0, 1,  1, 2,  2, 0))
+        val amounts = intArrayOf(2, 0, 0)
+        var result = SandpileStabilizer(triangle.freeze()).stabilize(amounts)
+        assertThat(amounts.toList()).containsExactly(0, 1, 1)
+        assertThat(result.topplings).isEqualTo(1L)
+        assertThat(result.area).isEqualTo(1)
+        assertThat(result.waves).isEqualTo(1)
+        assertThat(result.stable).isTrue()
+
+        // a square 0-1-2-3-0 with 4 dollars goes around forever...
+        val square = Graph<Int>()
+        square.addNodes(listOf(0, 1, 2, 3))
+        square.addEdges(intArrayOf(0, 1,  1, 2,  2, 3,  3, 0))
+        val stabilizer = SandpileStabilizer(square.freeze())
+        result = stabilizer.stabilize(intArrayOf(4, 0, 0, 0))
+        assertThat(result.stable).isFalse()
+        assertThat(result.area).isEqualTo(4)
+
+        // ...and with 5 it doesn't even start
+        val tooMany = intArrayOf(5, 0, 0, 0)
+        result = stabilizer.stabilize(tooMany)
+        assertThat(result.stable).isFalse()
+        assertThat(result.topplings).isEqualTo(0L)
+        assertThat(tooMany.toList()).containsExactly(5, 0, 0, 0)
+
+        // but not with a sink
+        val withSink = intArrayOf(4, 0, 0, 9)
+        result = SandpileStabilizer(stabilizer.snapshot, 3).stabilize(withSink)
+        assertThat(result.stable).isTrue()
+        assertThat(withSink.toList()).containsExactly(1, 0, 1, 9)
+
+        // one node can't topple, whatever it has
+        val oneNode = Graph<Int>()
+        oneNode.addNode(0)
+        val oneStabilizer = SandpileStabilizer(oneNode.freeze())
+        assertThat(oneStabilizer.stabilize(intArrayOf(0)).stable).isTrue()
+        assertThat(oneStabilizer.stabilize(intArrayOf(5)).stable).isTrue()
+    }
+
+    @Test
+    fun sameAsOneAtATimeTest() {
+        val random = Random(5)
+        val pool = ForkJoinPool(4)
+        for (round in 0 until 20) {
+            val board = buildGrid(random.nextInt(2, 40), random.nextInt(2, 40), true)
+            val sink = board.numNodes - 1
+            val amounts = IntArray(board.numNodes) { random.nextInt(-2, 9) }
+
+            val expected = amounts.copyOf()
+            val expectedTopplings = stabilizeOneAtATime(board, sink, expected)
+
+            val serial = amounts.copyOf()
+            val serialResult = SandpileStabilizer(board, sink).stabilize(serial)
+            assertThat(serial.toList()).isEqualTo(expected.toList())
+            assertThat(serialResult.topplings).isEqualTo(expectedTopplings)
+
+            val parallel = amounts.copyOf()
+            val parallelResult = SandpileStabilizer(board, sink, pool).stabilize(parallel)
+            assertThat(parallel.toList()).isEqualTo(expected.toList())
+            assertThat(parallelResult.topplings).isEqualTo(expectedTopplings)
+            assertThat(parallelResult.area).isEqualTo(serialResult.area)
+        }
+        pool.shutdown()
+    }
+
+    @Test
+    fun avalanchesTest() {
+        val random = Random(8)
+        val board = buildGrid(70, 70, true)
+        val sink = board.numNodes - 1
+        val pool = ForkJoinPool(4)
+
+        // every node starts unstable: the first wave (4900 nodes) is big
+        // enough to split up
+        val amounts = IntArray(board.numNodes) { random.nextInt(4, 8) }
+        val serial = amounts.copyOf()
+        val stabilizer = SandpileStabilizer(board, sink, pool)
+        val parallelResult = stabilizer.stabilize(amounts)
+        assertThat(parallelResult.stable).isTrue()
+        assertThat(SandpileStabilizer(board, sink).stabilize(serial).topplings)
+            .isEqualTo(parallelResult.topplings)
+        assertThat(amounts.toList()).isEqualTo(serial.toList())
+
+        // dropping one at a time ends up the same as dropping all at once
+        val sites = IntArray(2000) { random.nextInt(board.numNodes - 1) }
+        val allAtOnce = amounts.copyOf()
+        val sizes = stabilizer.avalanches(amounts, sites)
+        for (site in sites) {
+            allAtOnce[site]++
+        }
+        val result = stabilizer.stabilize(allAtOnce)
+        assertThat(result.topplings).isEqualTo(sizes.sum())
+        assertThat(allAtOnce.toList()).isEqualTo(amounts.toList())
+        assertThat(stabilizer.drop(amounts, sink).topplings).isEqualTo(0L)
+        assertThat(sizes.maxOrNull()!!).isGreaterThan(0L)
+        pool.shutdown()
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * Topples one node, one time, until there's nothing left to topple.
+     *
+     * @return  The number of topplings
+     */
+    private fun stabilizeOneAtATime(board : GraphSnapshot, sink : Int, amounts : IntArray) : Long {
+        var topplings = 0L
+        var toppled = true
+        while (toppled) {
+            toppled = false
+            for (i in 0 until board.numNodes) {
+                val degree = board.getDegree(i)
+                if ((i == sink) || (amounts[i] < degree)) {
+                    continue
+                }
+                amounts[i] -= degree
+                for (pos in board.neighborsStart(i) until board.neighborsEnd(i)) {
+                    if (board.neighborAt(pos) != sink) {
+                        amounts[board.neighborAt(pos)]++
+                    }
+                }
+                topplings++
+                toppled = true
+            }
+        }
+        return topplings
+    }
+
+}
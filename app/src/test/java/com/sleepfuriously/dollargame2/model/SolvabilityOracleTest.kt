@@ -0,0 +1,143 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.util.concurrent.Executor
+
+
+internal class SolvabilityOracleTest {
+
+    @Test
+    fun easyBoardsTest() {
+        val amounts = intArrayOf(1, 0, 0, 0)
+        val graph = buildSquare()
+        val verdicts = ArrayList<Solvability>()
+        val oracle = SolvabilityOracle(NOW, NOW)
+
+        // count >= genus
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isTrue()
+
+        // count < 0
+        amounts[0] = -1
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isTrue()
+
+        graph.removeEdge(0, 1)
+        graph.removeEdge(3, 0)
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isTrue()
+
+        assertThat(verdicts).containsExactly(Solvability.WINNABLE, Solvability.NOT_WINNABLE,
+                                             Solvability.NOT_CONNECTED)
+        assertThat(oracle.cache.getStores()).isEqualTo(0L)
+    }
+
+    @Test
+    fun cacheTest() {
+        // K4 has genus 3; all of these have a count of 2
+        val amounts = intArrayOf(-1, 0, 1, 2)
+        val graph = buildK4(intArrayOf(0, 1,  0, 2,  0, 3,  1, 2,  1, 3,  2, 3))
+        val verdicts = ArrayList<Solvability>()
+        val oracle = SolvabilityOracle(NOW, NOW)
+
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+        amounts[0] = 2
+        amounts[2] = 0
+        amounts[3] = 0
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+        assertThat(verdicts).containsExactly(Solvability.NOT_WINNABLE, Solvability.WINNABLE)
+
+        // the same board again, even one built in another order, is free
+        val rebuilt = buildK4(intArrayOf(2, 3,  1, 3,  1, 2,  0, 3,  0, 2,  0, 1))
+        assertThat(oracle.check(rebuilt, { amounts[it] }, { verdicts.add(it) })).isTrue()
+        assertThat(verdicts.size).isEqualTo(3)
+        assertThat(oracle.cache.getHits()).isEqualTo(1L)
+
+        // but different amounts aren't
+        amounts[0] = 1
+        amounts[1] = 1
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+        assertThat(verdicts[3]).isEqualTo(Solvability.WINNABLE)
+    }
+
+    @Test
+    fun staleTest() {
+        val amounts = intArrayOf(-1, 0, 1, 2)
+        val graph = buildK4(intArrayOf(0, 1,  0, 2,  0, 3,  1, 2,  1, 3,  2, 3))
+        val waiting = ArrayList<Runnable>()
+        val verdicts = ArrayList<Solvability>()
+        val oracle = SolvabilityOracle(NOW, { waiting.add(it) })
+
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+        amounts[0] = 2
+        amounts[2] = 0
+        amounts[3] = 0
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+
+        // only the newest check is done and reported
+        for (runnable in waiting) {
+            runnable.run()
+        }
+        assertThat(verdicts).containsExactly(Solvability.WINNABLE)
+        assertThat(oracle.cache.getStores()).isEqualTo(1L)
+
+        // nothing after a cancel
+        amounts[0] = 1
+        amounts[1] = 1
+        waiting.clear()
+        oracle.check(graph, { amounts[it] }, { verdicts.add(it) })
+        oracle.cancel()
+        waiting[0].run()
+        assertThat(verdicts.size).isEqualTo(1)
+    }
+
+
+    @Test
+    fun tooBigTest() {
+        // a long path with a triangle at the start (genus 1) and a count
+        // of 0, but huge amounts: the near half way down, the far half way
+        // up.  The solver would overflow.
+        val numNodes = 5000
+        val graph = Graph<Int>()
+        graph.addNodes(List(numNodes) { it })
+        for (i in 1 until numNodes) {
+            graph.addEdge(i - 1, i)
+        }
+        graph.addEdge(0, 2)
+        val amounts = IntArray(numNodes) { if (it < numNodes / 2) -2000000000 else 2000000000 }
+        val verdicts = ArrayList<Solvability>()
+        val oracle = SolvabilityOracle(NOW, NOW)
+
+        assertThat(oracle.check(graph, { amounts[it] }, { verdicts.add(it) })).isFalse()
+        assertThat(verdicts).containsExactly(Solvability.TOO_BIG)
+        assertThat(oracle.cache.getStores()).isEqualTo(0L)
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * A square 0-1-2-3-0 (genus 1).  Each node's data is its id, which is
+     * also where its amount is in the test's array.
+     */
+    private fun buildSquare() : Graph<Int> {
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 3,  3, 0))
+        return graph
+    }
+
+    /** Four nodes all joined to each other (genus 3), with the edges added in this order */
+    private fun buildK4(endpoints : IntArray) : Graph<Int> {
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(endpoints)
+        return graph
+    }
+
+    companion object {
+        /** runs everything right away, on the caller's thread */
+        private val NOW = Executor { it.run() }
+    }
+
+}
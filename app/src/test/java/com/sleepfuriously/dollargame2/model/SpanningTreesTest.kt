@@ -0,0 +1,114 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import java.math.BigInteger
+import kotlin.random.Random
+
+
+internal class SpanningTreesTest {
+
+    @Test
+    fun countTest() {
+        // a path is its own only spanning tree
+        assertThat(SpanningTrees(buildBoard(4, intArrayOf(0, 1,  1, 2,  2, 3))).count()).isEqualTo(BigInteger.ONE)
+
+        // a cycle of n has n
+        assertThat(SpanningTrees(buildBoard(9, cycleEdges(9))).count()).isEqualTo(BigInteger.valueOf(9))
+
+        // Cayley: K_n has n^(n - 2), which is way past a Long for n = 40
+        assertThat(SpanningTrees(buildBoard(40, completeEdges(40))).count()).isEqualTo(BigInteger.valueOf(40).pow(38))
+
+        // one node, no nodes, two pieces
+        assertThat(SpanningTrees(buildBoard(1, IntArray(0))).count()).isEqualTo(BigInteger.ONE)
+        assertThat(SpanningTrees(buildBoard(0, IntArray(0))).count()).isEqualTo(BigInteger.ZERO)
+        assertThat(SpanningTrees(buildBoard(4, intArrayOf(0, 1,  2, 3))).count()).isEqualTo(BigInteger.ZERO)
+    }
+
+    @Test
+    fun matchesJacobianTest() {
+        val random = Random(19)
+        for (round in 0 until 30) {
+            val numNodes = random.nextInt(2, 30)
+            val board = buildRandomBoard(random, numNodes, random.nextInt(numNodes - 1, numNodes * 3))
+            assertThat(SpanningTrees(board).count()).isEqualTo(Jacobian.of(board).order)
+        }
+
+        // a 15 x 15 grid (with self-loops, which don't count)
+        val side = 15
+        val endpoints = ArrayList<Int>()
+        for (node in 0 until side * side) {
+            if (node % side + 1 < side) {
+                endpoints.add(node)
+                endpoints.add(node + 1)
+            }
+            if (node + side < side * side) {
+                endpoints.add(node)
+                endpoints.add(node + side)
+            }
+        }
+        endpoints.add(7)
+        endpoints.add(7)
+        val grid = buildBoard(side * side, endpoints.toIntArray())
+        assertThat(SpanningTrees(grid).count()).isEqualTo(exactDeterminant(Laplacian.reduced(grid, 0).toDense()))
+    }
+
+    @Test
+    fun sampleIsTreeTest() {
+        val random = Random(5)
+        val board = buildRandomBoard(random, 40, 100)
+        val trees = SpanningTrees(board)
+        val edgeIds = IntArray(39)
+        for (round in 0 until 50) {
+            assertThat(trees.sampleInto(random, edgeIds)).isEqualTo(39)
+
+            // 39 edges that join 40 nodes into one piece make a tree
+            val graph = Graph<Int>()
+            graph.addNodes(List(40) { it })
+            for (i in 0 until 39) {
+                var pos = 0
+                while (board.edgeIdAt(pos) != edgeIds[i]) {
+                    pos++
+                }
+                var node = 0
+                while (board.neighborsEnd(node) <= pos) {
+                    node++
+                }
+                graph.addEdge(board.getNodeId(node), board.getNodeId(board.neighborAt(pos)))
+            }
+            assertThat(graph.numEdges()).isEqualTo(39)
+            assertThat(graph.isConnected()).isTrue()
+        }
+    }
+
+    @Test
+    fun sampleIsUniformTest() {
+        // K4 has 16 spanning trees; each should come up about 1/16 of the time
+        val trees = SpanningTrees(buildBoard(4, completeEdges(4)))
+        val random = Random(42)
+        val counts = HashMap<List<Int>, Int>()
+        val numSamples = 32000
+        for (i in 0 until numSamples) {
+            val tree = trees.sample(random).sorted()
+            counts[tree] = (counts[tree] ?: 0) + 1
+        }
+        assertThat(counts.size).isEqualTo(16)
+        for (count in counts.values) {
+            assertThat(count.toLong()).isAtLeast(numSamples / 16 - 300L)
+            assertThat(count.toLong()).isAtMost(numSamples / 16 + 300L)
+        }
+    }
+
+    @Test
+    fun notConnectedSampleTest() {
+        var threw = false
+        try {
+            SpanningTrees(buildBoard(4, intArrayOf(0, 1,  2, 3))).sample(Random(1))
+        }
+        catch (e : GraphNotConnectedException) {
+            threw = true
+        }
+        assertThat(threw).isTrue()
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.sleepfuriously.dollargame2.model
+
+import kotlin.random.Random
+
+/**
+ * Boards that the tests share.  Node ids are the same as their indices
+ * (0, 1, 2, ...) and every board is frozen, ready for a solver.
+ */
+
+/**
+ * A board with numNodes nodes and the given edges (pairs of endpoints).
+ */
+internal fun buildBoard(numNodes : Int, endpoints : IntArray) : GraphSnapshot {
+    val graph = Graph<Int>()
+    graph.addNodes(List(numNodes) { it })
+    graph.addEdges(endpoints)
+    return graph.freeze()
+}
+
+/**
+ * A random connected board: a random tree plus random extra edges.
+ */
+internal fun buildRandomBoard(random : Random, numNodes : Int, numEdges : Int) : GraphSnapshot {
+    val graph = Graph<Int>()
+    graph.addNodes(List(numNodes) { it })
+    for (i in 1 until numNodes) {
+        graph.addEdge(random.nextInt(i), i)
+    }
+    var tries = 0
+    while ((graph.numEdges() < numEdges) && (tries++ < numEdges * 10)) {
+        val a = random.nextInt(numNodes)
+        val b = random.nextInt(numNodes)
+        if ((a != b) && (graph.isAdjacent(a, b) == false)) {
+            graph.addEdge(a, b)
+        }
+    }
+    return graph.freeze()
+}
+
+/**
+ * A rows x columns grid.  Node ids and indices are row * columns + column.
+ *
+ * With a sink, there's one more node (the last) joined to every node on
+ * the edge of the grid, the usual sink for a sandpile.
+ */
+internal fun buildGrid(rows : Int, columns : Int, withSink : Boolean = false) : GraphSnapshot {
+    val sink = rows * columns
+    val endpoints = ArrayList<Int>()
+    for (r in 0 until rows) {
+        for (c in 0 until columns) {
+            val node = r * columns + c
+            if (c + 1 < columns) {
+                endpoints.add(node)
+                endpoints.add(node + 1)
+            }
+            if (r + 1 < rows) {
+                endpoints.add(node)
+                endpoints.add(node + columns)
+            }
+            if (withSink && ((r == 0) || (c == 0) || (r + 1 == rows) || (c + 1 == columns))) {
+                endpoints.add(node)
+                endpoints.add(sink)
+            }
+        }
+    }
+    return buildBoard(if (withSink) sink + 1 else sink, endpoints.toIntArray())
+}
+
+/** Endpoints for a cycle 0-1-2-...-(numNodes - 1)-0 */
+internal fun cycleEdges(numNodes : Int) : IntArray {
+    return IntArray(numNodes * 2) { if (it % 2 == 0) it / 2 else (it / 2 + 1) % numNodes }
+}
+
+/** Endpoints for the complete board: every node joined to every other */
+internal fun completeEdges(numNodes : Int) : IntArray {
+    val endpoints = ArrayList<Int>()
+    for (i in 0 until numNodes) {
+        for (j in i + 1 until numNodes) {
+            endpoints.add(i)
+            endpoints.add(j)
+        }
+    }
+    return endpoints.toIntArray()
+}
@@ -0,0 +1,123 @@
+package com.sleepfuriously.dollargame2.model
+
+import org.junit.Test
+import com.google.common.truth.Truth.assertThat
+import kotlin.random.Random
+
+
+internal class TranspositionTableTest {
+
+    @Test
+    fun getPutTest() {
+        val table = TranspositionTable(1024)
+        assertThat(table.capacity).isEqualTo(64)
+        assertThat(table.get(42L)).isEqualTo(TranspositionTable.MISSING)
+
+        table.put(42L, -7, 3)
+        val entry = table.get(42L)
+        assertThat(TranspositionTable.valueOf(entry)).isEqualTo(-7)
+        assertThat(TranspositionTable.depthOf(entry)).isEqualTo(3)
+
+        // same key replaces, even when shallower
+        table.put(42L, 9, 1)
+        assertThat(TranspositionTable.valueOf(table.get(42L))).isEqualTo(9)
+
+        assertThat(table.getHits()).isEqualTo(2L)
+        assertThat(table.getMisses()).isEqualTo(1L)
+        assertThat(table.getStores()).isEqualTo(2L)
+        assertThat(table.getEvictions()).isEqualTo(0L)
+
+        table.clear()
+        assertThat(table.get(42L)).isEqualTo(TranspositionTable.MISSING)
+    }
+
+    @Test
+    fun alwaysReplaceTest() {
+        val table = TranspositionTable(2 * TranspositionTable.BYTES_PER_ENTRY,
+                                       TranspositionTable.ReplacementPolicy.ALWAYS_REPLACE)
+        val keys = collidingKeys(table.capacity - 1, 2)
+
+        table.put(keys[0], 1, 100)
+        table.put(keys[1], 2, 0)
+        assertThat(table.get(keys[0])).isEqualTo(TranspositionTable.MISSING)
+        assertThat(TranspositionTable.valueOf(table.get(keys[1]))).isEqualTo(2)
+        assertThat(table.getEvictions()).isEqualTo(1L)
+    }
+
+    @Test
+    fun depthPreferredTest() {
+        val table = TranspositionTable(2 * TranspositionTable.BYTES_PER_ENTRY)
+        val keys = collidingKeys((table.capacity - 1) and 1.inv(), 4)
+
+        // both fit (one in each half of the pair)
+        table.put(keys[0], 1, 10)
+        table.put(keys[1], 2, 0)
+        assertThat(table.get(keys[0])).isNotEqualTo(TranspositionTable.MISSING)
+        assertThat(table.get(keys[1])).isNotEqualTo(TranspositionTable.MISSING)
+
+        // a shallow newcomer pushes out the other shallow one, not the deep one
+        table.put(keys[2], 3, 2)
+        assertThat(TranspositionTable.valueOf(table.get(keys[0]))).isEqualTo(1)
+        assertThat(table.get(keys[1])).isEqualTo(TranspositionTable.MISSING)
+        assertThat(TranspositionTable.valueOf(table.get(keys[2]))).isEqualTo(3)
+
+        // a deeper one takes over the deep spot and the old deep one moves over
+        table.put(keys[3], 4, 20)
+        assertThat(TranspositionTable.valueOf(table.get(keys[3]))).isEqualTo(4)
+        assertThat(TranspositionTable.valueOf(table.get(keys[0]))).isEqualTo(1)
+        assertThat(table.get(keys[2])).isEqualTo(TranspositionTable.MISSING)
+        assertThat(table.getEvictions()).isEqualTo(2L)
+    }
+
+    @Test
+    fun zobristTest() {
+        // a triangle with a tail and a self-loop: 0-1, 1-2, 2-0, 2-3, 3-3
+        val graph = Graph<Int>()
+        graph.addNodes(listOf(0, 1, 2, 3))
+        graph.addEdges(intArrayOf(0, 1,  1, 2,  2, 0,  2, 3,  3, 3))
+        val board = graph.freeze()
+
+        val hasher = ZobristHasher(4)
+        val engine = ChipFiringEngine(board, intArrayOf(-2, 1, 3, 0))
+        var hash = hasher.hashOf(engine.getAmounts())
+        val startHash = hash
+
+        val random = Random(5)
+        for (i in 0 until 200) {
+            val node = random.nextInt(4)
+            val times = random.nextInt(-2, 3)
+            hash = hasher.afterFire(hash, board, engine.getAmounts(), node, times)
+            engine.fire(node, times)
+            assertThat(hash).isEqualTo(hasher.hashOf(engine.getAmounts()))
+        }
+
+        // same amounts, same hash; different amounts, different hash
+        assertThat(hasher.hashOf(intArrayOf(-2, 1, 3, 0))).isEqualTo(startHash)
+        assertThat(hasher.hashOf(intArrayOf(1, -2, 3, 0))).isNotEqualTo(startHash)
+        assertThat(ZobristHasher(4, 99L).hashOf(intArrayOf(-2, 1, 3, 0))).isNotEqualTo(startHash)
+    }
+
+
+    //---------------------------------------
+    //  helper functions
+    //---------------------------------------
+
+    /**
+     * Finds keys whose hashes are all the same in the bits of mask (so they
+     * all land in the same slot, or pair of slots).
+     */
+    private fun collidingKeys(mask : Int, count : Int) : LongArray {
+        val keys = LongArray(count)
+        val target = mixHash(1L) and mask
+        var found = 0
+        var key = 1L
+        while (found < count) {
+            if ((mixHash(key) and mask) == target) {
+                keys[found++] = key
+            }
+            key++
+        }
+        return keys
+    }
+
+}